@@ -3,29 +3,82 @@ package syntax;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 
 public class Lox {
     static boolean hadError = false;
     static boolean hadRuntimeError = false;
     static String phase = "parse";
+    // Stack reserved per level of nesting the parser allows, so deeply
+    // nested input reaches the depth limit before the end of the stack.
+    private static final long STACK_BYTES_PER_LEVEL = 2048;
+    private static final long BASE_STACK_BYTES = 1 << 20;
+    private static final int MAX_MAX_DEPTH = 100_000; // about 200 MB of stack
     private static final Interpreter interpreter = new Interpreter(); // interpreter instance
+    private static int maxDepth = Parser.DEFAULT_MAX_DEPTH; // set with --max-depth=N
 
     public static void main(String[] args) throws IOException {
+        // take out --max-depth=N, which may come anywhere
+        List<String> rest = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--max-depth=")) {
+                maxDepth = depth(arg.substring("--max-depth=".length()));
+            } else {
+                rest.add(arg);
+            }
+        }
+        String[] remaining = rest.toArray(new String[0]);
+
+        // run on a thread whose stack is sized for the parser's depth limit
+        Thread main = new Thread(null, () -> {
+            try {
+                start(remaining);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, "lox", BASE_STACK_BYTES + maxDepth * STACK_BYTES_PER_LEVEL);
+        // a crash would otherwise end the last thread and exit with status 0
+        main.setUncaughtExceptionHandler((thread, error) -> {
+            System.err.print("Exception in thread \"" + thread.getName() + "\" ");
+            error.printStackTrace();
+            System.exit(70);
+        });
+        main.start();
+    }
+
+    private static void start(String[] args) throws IOException {
         if (args.length > 2) {
-            System.err.println("Usage: java Lox [scan|parse] [file]");
-            System.exit(64);
+            usage();
         } else if (args.length == 2) {
             phase = args[0];
             runFile(args[1]);
         } else if (args.length == 1) {
             runPrompt();
         } else {
-            System.err.println("Usage: java Lox [scan|parse] [file]");
-            System.exit(64);
+            usage();
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: java Lox [--max-depth=N] [scan|parse] [file]");
+        System.exit(64);
+    }
+
+    // the value of --max-depth=N, a whole number from 1 to MAX_MAX_DEPTH;
+    // anything else gets the usage line
+    private static int depth(String value) {
+        try {
+            int depth = Integer.parseInt(value);
+            if (depth >= 1 && depth <= MAX_MAX_DEPTH) return depth;
+        } catch (NumberFormatException e) {
+            // not a number at all
         }
+        usage();
+        return 0; // not reached
     }
 
     private static void runFile(String path) {  // Run Lox from a file
@@ -49,6 +102,7 @@ public class Lox {
             }
         } else if (phase.equals("parse")) {
             Parser parser = new Parser(tokens);
+            parser.setMaxDepth(maxDepth);
             Expr expression = parser.parse();
             if (hadError) return;
             System.out.println(new AstPrinter().print(expression));
@@ -81,6 +135,7 @@ public class Lox {
         Scanner scanner = new Scanner(source); // create scanner for source
         List<Token> tokens = scanner.scanTokens(); // scan tokens from source
         Parser parser = new Parser(tokens); // create parser with tokens
+        parser.setMaxDepth(maxDepth); // same depth limit as for files
         @SuppressWarnings("unchecked")
         List<Stmt> statements = (List<Stmt>) parser.parse(); // parse statements
         if (hadError) return; // exit if there was a parsing error
@@ -9,6 +9,10 @@ import syntax.Stmt.StringLoop;
 public class Parser {
     private final List<Token> tokens;
     private int current;
+    private int maxDepth = DEFAULT_MAX_DEPTH;
+    private int depth = 0;
+
+    static final int DEFAULT_MAX_DEPTH = 10_000;
 
     private static class ParseError extends RuntimeException {}
     private static final List<Integer> predefinedNumbers = Arrays.asList(57, 97, 28, 7, 71, 1, 79, 83, 64, 82, 89, 24);
@@ -17,6 +21,17 @@ public class Parser {
         this.tokens = tokens;
     }
 
+    // Limit how deeply expressions and statements may nest, so that
+    // generated input reports an error instead of overflowing the stack.
+    void setMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+    }
+
+    // Count one more level of nesting, failing once past the limit.
+    private void enter() {
+        if (++depth > maxDepth) throw error(peek(), "Too much nesting.");
+    }
+
     Expr parse() {
         try {   // Start parsing and handle any ParseErrors.
             return expression();
@@ -30,37 +45,54 @@ public class Parser {
     }
 
     private Expr addition() {  // Parse addition and subtraction operators.
-        Expr expr = multiplication();
+        int entered = depth;
+        try {
+            Expr expr = multiplication();
 
-        while (match(TokenType.PLUS, TokenType.MINUS)) {
-            Token operator = previous();
-            Expr right = multiplication();
-            expr = new Expr.Binary(expr, operator, right);
-        }
+            while (match(TokenType.PLUS, TokenType.MINUS)) {
+                enter(); // each operator makes the tree one level deeper
+                Token operator = previous();
+                Expr right = multiplication();
+                expr = new Expr.Binary(expr, operator, right);
+            }
 
-        return expr;
+            return expr;
+        } finally {
+            depth = entered;
+        }
     }
 
     private Expr multiplication() {   // Parse multiplication and division operators.
-        Expr expr = unary();
+        int entered = depth;
+        try {
+            Expr expr = unary();
 
-        while (match(TokenType.STAR, TokenType.SLASH)) {
-            Token operator = previous();
-            Expr right = unary();
-            expr = new Expr.Binary(expr, operator, right);
-        }
+            while (match(TokenType.STAR, TokenType.SLASH)) {
+                enter(); // each operator makes the tree one level deeper
+                Token operator = previous();
+                Expr right = unary();
+                expr = new Expr.Binary(expr, operator, right);
+            }
 
-        return expr;
+            return expr;
+        } finally {
+            depth = entered;
+        }
     }
 
     private Expr unary() {  // Parse unary operators like `-` or `!`.
-        if (match(TokenType.BANG, TokenType.MINUS)) {
-            Token operator = previous();
-            Expr right = unary();
-            return new Expr.Unary(operator, right);
-        }
+        enter();
+        try {
+            if (match(TokenType.BANG, TokenType.MINUS)) {
+                Token operator = previous();
+                Expr right = unary();
+                return new Expr.Unary(operator, right);
+            }
 
-        return primary();
+            return primary();
+        } finally {
+            depth--;
+        }
     }
 
     private Expr primary() {  // Handle literals, variables, and grouped expressions.
@@ -155,15 +187,20 @@ public class Parser {
     }
 
     private Stmt statement() {
-        if (match(TokenType.FOR)) return forStatement();
-        if (match(TokenType.IF)) return ifStatement();
-        if (match(TokenType.PRINT)) return printStatement();
-        if (match(TokenType.RETURN)) return returnStatement();
-        if (match(TokenType.WHILE)) return whileStatement();
-        if (match(TokenType.LEFT_BRACE)) return new Stmt.Block(block());
-        if (match(TokenType.LOOP)) return stringLoop();
-
-        return expressionStatement();
+        enter();
+        try {
+            if (match(TokenType.FOR)) return forStatement();
+            if (match(TokenType.IF)) return ifStatement();
+            if (match(TokenType.PRINT)) return printStatement();
+            if (match(TokenType.RETURN)) return returnStatement();
+            if (match(TokenType.WHILE)) return whileStatement();
+            if (match(TokenType.LEFT_BRACE)) return new Stmt.Block(block());
+            if (match(TokenType.LOOP)) return stringLoop();
+
+            return expressionStatement();
+        } finally {
+            depth--;
+        }
     }
 
     private Stmt forStatement() {
@@ -0,0 +1,175 @@
+package translation;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Times the per-operator visit methods against the single switch on the
+ * operator type they replaced.
+ *
+ * It is not part of the interpreter. It has a source root of its own, in
+ * the same package so it can reach the interpreter's classes. From the
+ * directory above both roots:
+ *
+ *   javac -d out translation/*.java bench/translation/OperatorBenchmark.java
+ *   java -cp out translation.OperatorBenchmark [rounds]
+ *
+ * Both interpreters run the same parsed program, first for a few warmup
+ * rounds and then for the timed ones, in alternation so neither gets the
+ * machine to itself. Each timed round's milliseconds are printed, then
+ * the median of each.
+ */
+class OperatorBenchmark {
+  private static final String PROGRAM = String.join("\n",
+      "var sum = 0;",
+      "var i = 0;",
+      "while (i < 300000) {",
+      "  var x = i * 2 - i / 4;",
+      "  if (x > 10 and !(x == 11) or -x >= 0) sum = sum + x;",
+      "  if (x != 3) sum = sum - 1;",
+      "  i = i + 1;",
+      "}");
+  private static final int WARMUP_ROUNDS = 5;
+
+  // The interpreter as it was: every operator goes through the general
+  // visit method for its node's superclass, which switches on the
+  // operator. The interpreter itself no longer has these switches.
+  private static class SwitchOnOperator extends Interpreter {
+    @Override
+    public Object visitBinaryExpr(Expr.Binary expr) {
+      Object left = evaluate(expr.left);
+      Object right = evaluate(expr.right);
+
+      switch (expr.operator.type) {
+        case GREATER:
+          checkNumberOperands(expr.operator, left, right);
+          return (double) left > (double) right;
+        case GREATER_EQUAL:
+          checkNumberOperands(expr.operator, left, right);
+          return (double) left >= (double) right;
+        case LESS:
+          checkNumberOperands(expr.operator, left, right);
+          return (double) left < (double) right;
+        case LESS_EQUAL:
+          checkNumberOperands(expr.operator, left, right);
+          return (double) left <= (double) right;
+        case MINUS:
+          checkNumberOperands(expr.operator, left, right);
+          return (double) left - (double) right;
+        case PLUS:
+          if (left instanceof Double && right instanceof Double) {
+            return (double) left + (double) right;
+          }
+          if (left instanceof String && right instanceof String) {
+            return (String) left + (String) right;
+          }
+          throw new RuntimeError(expr.operator,
+              "Operands must be two numbers or two strings" + Lox.atLine(expr.operator));
+        case SLASH:
+          checkNumberOperands(expr.operator, left, right);
+          return (double) left / (double) right;
+        case STAR:
+          checkNumberOperands(expr.operator, left, right);
+          return (double) left * (double) right;
+        case BANG_EQUAL:
+          return !isEqual(left, right);
+        case EQUAL_EQUAL:
+          return isEqual(left, right);
+        default:
+          throw new IllegalStateException("Unknown operator " + expr.operator.type + ".");
+      }
+    }
+
+    @Override
+    public Object visitLogicalExpr(Expr.Logical expr) {
+      Object left = evaluate(expr.left);
+
+      if (expr.operator.type == TokenType.OR) {
+        if (isTruthy(left)) return left;
+      } else {
+        if (!isTruthy(left)) return left;
+      }
+
+      return evaluate(expr.right);
+    }
+
+    @Override
+    public Object visitUnaryExpr(Expr.Unary expr) {
+      Object right = evaluate(expr.right);
+
+      switch (expr.operator.type) {
+        case BANG:
+          return !isTruthy(right);
+        case MINUS:
+          checkNumberOperand(expr.operator, right);
+          return -(double) right;
+        default:
+          throw new IllegalStateException("Unknown operator " + expr.operator.type + ".");
+      }
+    }
+
+    @Override
+    public Object visitAddExpr(Expr.Add expr) { return visitBinaryExpr(expr); }
+    @Override
+    public Object visitSubtractExpr(Expr.Subtract expr) { return visitBinaryExpr(expr); }
+    @Override
+    public Object visitMultiplyExpr(Expr.Multiply expr) { return visitBinaryExpr(expr); }
+    @Override
+    public Object visitDivideExpr(Expr.Divide expr) { return visitBinaryExpr(expr); }
+    @Override
+    public Object visitGreaterExpr(Expr.Greater expr) { return visitBinaryExpr(expr); }
+    @Override
+    public Object visitGreaterEqualExpr(Expr.GreaterEqual expr) { return visitBinaryExpr(expr); }
+    @Override
+    public Object visitLessExpr(Expr.Less expr) { return visitBinaryExpr(expr); }
+    @Override
+    public Object visitLessEqualExpr(Expr.LessEqual expr) { return visitBinaryExpr(expr); }
+    @Override
+    public Object visitEqualExpr(Expr.Equal expr) { return visitBinaryExpr(expr); }
+    @Override
+    public Object visitNotEqualExpr(Expr.NotEqual expr) { return visitBinaryExpr(expr); }
+    @Override
+    public Object visitAndExpr(Expr.And expr) { return visitLogicalExpr(expr); }
+    @Override
+    public Object visitOrExpr(Expr.Or expr) { return visitLogicalExpr(expr); }
+    @Override
+    public Object visitNotExpr(Expr.Not expr) { return visitUnaryExpr(expr); }
+    @Override
+    public Object visitNegateExpr(Expr.Negate expr) { return visitUnaryExpr(expr); }
+  }
+
+  public static void main(String[] args) {
+    int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+    List<Stmt> program = new Parser(new Scanner(PROGRAM)).parse();
+    Interpreter specialized = new Interpreter();
+    Interpreter general = new SwitchOnOperator();
+
+    long[] specializedTimes = new long[rounds];
+    long[] generalTimes = new long[rounds];
+    for (int round = -WARMUP_ROUNDS; round < rounds; round++) {
+      long specializedTime = time(specialized, program);
+      long generalTime = time(general, program);
+      if (round < 0) continue;
+
+      specializedTimes[round] = specializedTime;
+      generalTimes[round] = generalTime;
+      System.out.println("round " + (round + 1) + ": per operator "
+          + specializedTime + " ms, switch " + generalTime + " ms");
+    }
+
+    System.out.println("median: per operator " + median(specializedTimes)
+        + " ms, switch " + median(generalTimes) + " ms");
+  }
+
+  private static long time(Interpreter interpreter, List<Stmt> program) {
+    long start = System.nanoTime();
+    interpreter.interpret(program);
+    return (System.nanoTime() - start) / 1_000_000;
+  }
+
+  private static long median(long[] times) {
+    long[] sorted = times.clone();
+    Arrays.sort(sorted);
+    return sorted[sorted.length / 2];
+  }
+}
@@ -0,0 +1,252 @@
+package translation;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs a script by executing its Ir directly, to check IrBuilder and the
+ * IR passes against the tree interpreter. Nothing else runs Ir yet, so
+ * this is what shows that a lowered program still means the same thing.
+ *
+ * It is not part of the interpreter. It has a source root of its own, in
+ * the same package so it can reach the interpreter's classes. From the
+ * directory above both roots:
+ *
+ *   javac -d out translation/*.java test/translation/IrRunner.java
+ *   java -cp out translation.IrRunner [--optimize] script
+ *
+ * Output, errors and exit codes are those of Lox, so for every example
+ * in syntax/examples2 and translation/examples, both with and without
+ * --optimize, it should print and exit exactly as Lox does on that
+ * example. With --optimize the tree optimizer runs first and then the IR
+ * passes, as for --dump-ir; without it the IR is only verified. Functions
+ * call each other on the Java stack, with no tail calls.
+ */
+class IrRunner {
+  // A function declared while the script ran, with the environment it
+  // was declared in.
+  private class Closure implements LoxCallable {
+    final Ir.Function function;
+    final Environment environment;
+
+    Closure(Ir.Function function, Environment environment) {
+      this.function = function;
+      this.environment = environment;
+    }
+
+    @Override
+    public int arity() {
+      return function.params.size();
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+      return run(function, new Environment(environment), arguments);
+    }
+
+    @Override
+    public String toString() {
+      // IrBuilder tells functions of the same name apart with a suffix.
+      String name = function.name;
+      int suffix = name.indexOf('#');
+      return "<fn " + (suffix < 0 ? name : name.substring(0, suffix)) + ">";
+    }
+  }
+
+  // For the natives, stringify, read and rand, and the operand checks.
+  private final Interpreter interpreter = new Interpreter();
+
+  public static void main(String[] args) throws IOException {
+    boolean optimize = false;
+    String path = null;
+    for (String arg : args) {
+      if (arg.equals("--optimize")) {
+        optimize = true;
+      } else if (path == null && !arg.startsWith("--")) {
+        path = arg;
+      } else {
+        path = null;
+        break;
+      }
+    }
+    if (path == null) {
+      System.out.println("Usage: IrRunner [--optimize] script");
+      System.exit(64);
+    }
+
+    MappedSource source = MappedSource.map(Paths.get(path));
+    boolean optimized = optimize;
+    // Lox's stack size, since Lox calls nest on the Java stack here too.
+    Lox.newThread(() -> System.exit(new IrRunner().runScript(source, optimized)), "lox").start();
+  }
+
+  // Returns the exit code Lox would have.
+  private int runScript(CharSequence source, boolean optimize) {
+    List<Stmt> statements = new Parser(new Scanner(source)).parse();
+    if (Lox.hadError) return 65;
+
+    if (optimize) {
+      statements = Optimizer.optimize(statements, LoopUnroller.DEFAULT_BUDGET, null);
+    }
+    Ir.Program program = IrBuilder.lower(statements);
+    if (optimize) {
+      new IrPassManager(null).run(program);
+    } else {
+      program.functions.forEach(IrVerifier::verify);
+    }
+
+    try {
+      run(program.script(), interpreter.globals, List.of());
+    } catch (RuntimeError error) {
+      Lox.runtimeError(error);
+      return 70;
+    }
+    return 0;
+  }
+
+  private Object run(Ir.Function function, Environment environment, List<Object> arguments) {
+    Map<Ir.Instruction, Object> values = new HashMap<>();
+    Ir.Block block = function.entry();
+    Ir.Block from = null;
+    while (true) {
+      // Phis all read their operands before any of them is set.
+      Map<Ir.Instruction, Object> phis = new HashMap<>();
+      for (Ir.Instruction phi : block.instructions) {
+        if (phi.op != Ir.PHI) break;
+        phis.put(phi, values.get(phi.operands.get(block.predecessors.indexOf(from))));
+      }
+      values.putAll(phis);
+
+      for (Ir.Instruction instruction : block.instructions) {
+        if (instruction.op == Ir.PHI) continue;
+
+        List<Object> operands = new ArrayList<>();
+        for (Ir.Instruction operand : instruction.operands) {
+          if (!values.containsKey(operand)) {
+            throw new IllegalStateException("In " + function.name + ", "
+                + IrPrinter.print(instruction) + " uses a value that was never set.");
+          }
+          operands.add(values.get(operand));
+        }
+
+        if (instruction.isTerminator()) {
+          Object value = operands.isEmpty() ? null : operands.get(0);
+          switch (instruction.op) {
+            case Ir.JUMP:
+              from = block;
+              block = instruction.targets.get(0);
+              break;
+            case Ir.BRANCH:
+              from = block;
+              block = instruction.targets.get(Interpreter.isTruthy(value) ? 0 : 1);
+              break;
+            case Ir.RETURN:
+              return value;
+            default:
+              throw new RuntimeError(instruction.token, (String) instruction.value);
+          }
+          break;
+        }
+
+        switch (instruction.op) {
+          case Ir.ENTER_SCOPE:
+            environment = new Environment(environment);
+            break;
+          case Ir.EXIT_SCOPE:
+            environment = environment.enclosing;
+            break;
+          default:
+            Object value = execute(instruction, operands, environment, arguments);
+            if (instruction.hasValue()) values.put(instruction, value);
+        }
+      }
+    }
+  }
+
+  // Runs an instruction that is not a terminator and does not change the
+  // scope, returning its value.
+  private Object execute(Ir.Instruction instruction, List<Object> operands,
+                         Environment environment, List<Object> arguments) {
+    Object left = operands.isEmpty() ? null : operands.get(0);
+    Object right = operands.size() < 2 ? null : operands.get(1);
+    Token token = instruction.token;
+    if (instruction.isOperator() && !instruction.numeric) {
+      switch (instruction.op) {
+        case Ir.ADD:
+          if (left instanceof Double && right instanceof Double) break;
+          if (left instanceof String && right instanceof String) break;
+          throw new RuntimeError(token,
+              "Operands must be two numbers or two strings" + Lox.atLine(token));
+        case Ir.NEGATE:
+          interpreter.checkNumberOperand(token, left);
+          break;
+        case Ir.EQUAL:
+        case Ir.NOT_EQUAL:
+        case Ir.NOT:
+          break;
+        default:
+          interpreter.checkNumberOperands(token, left, right);
+      }
+    }
+
+    switch (instruction.op) {
+      case Ir.CONST: return instruction.value;
+      case Ir.PARAM: return arguments.get((Integer) instruction.value);
+      case Ir.COPY: return left;
+      case Ir.ADD:
+        if (left instanceof String) return (String) left + (String) right;
+        return (double) left + (double) right;
+      case Ir.SUBTRACT: return (double) left - (double) right;
+      case Ir.MULTIPLY: return (double) left * (double) right;
+      case Ir.DIVIDE: return (double) left / (double) right;
+      case Ir.GREATER: return (double) left > (double) right;
+      case Ir.GREATER_EQUAL: return (double) left >= (double) right;
+      case Ir.LESS: return (double) left < (double) right;
+      case Ir.LESS_EQUAL: return (double) left <= (double) right;
+      case Ir.EQUAL: return Interpreter.isEqual(left, right);
+      case Ir.NOT_EQUAL: return !Interpreter.isEqual(left, right);
+      case Ir.NEGATE: return -(double) left;
+      case Ir.NOT: return !Interpreter.isTruthy(left);
+      case Ir.LOAD: return environment.get(token);
+      case Ir.STORE:
+        environment.assign(token, left);
+        return null;
+      case Ir.DEFINE:
+        environment.define(token.lexeme, left);
+        return null;
+      case Ir.CLOSURE: return new Closure((Ir.Function) instruction.value, environment);
+      case Ir.CALL: return call(token, left, operands.subList(1, operands.size()));
+      case Ir.PRINT:
+        System.out.println(interpreter.stringify(left));
+        return null;
+      case Ir.READ: return interpreter.read();
+      case Ir.RAND: return interpreter.getNextPredefinedNumber();
+      case Ir.LENGTH:
+        if (!(left instanceof String)) {
+          throw new RuntimeError(token, "Loop expression must be a string.");
+        }
+        return (double) ((String) left).length();
+      case Ir.CHAR_AT: return String.valueOf(((String) left).charAt((int) (double) right));
+      default:
+        throw new IllegalStateException("Cannot run " + Ir.NAMES[instruction.op] + ".");
+    }
+  }
+
+  // The same checks and errors as Interpreter.visitCallExpr().
+  private Object call(Token paren, Object callee, List<Object> arguments) {
+    if (!(callee instanceof LoxCallable)) {
+      throw new RuntimeError(paren, "Can only call functions and classes" + Lox.atLine(paren));
+    }
+
+    LoxCallable function = (LoxCallable) callee;
+    if (arguments.size() != function.arity()) {
+      throw new RuntimeError(paren, "Expected " + function.arity() + " arguments but got "
+          + arguments.size() + Lox.atLine(paren) + ".");
+    }
+    return function.call(interpreter, new ArrayList<>(arguments));
+  }
+}
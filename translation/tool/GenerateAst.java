@@ -0,0 +1,258 @@
+package tool;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Writes Expr.java and Stmt.java into the translation package.
+//
+// Each base class is sealed, with one final subclass per node type. Every
+// node carries a kind tag (one int constant per final subclass), so code
+// can dispatch with a tableswitch on the tag as well as through a Visitor.
+//
+// A type followed by "|" and a list of "Class TOKEN_TYPE" pairs is made
+// abstract, with one final subclass per operator and an of() factory that
+// picks the subclass from the operator token. The Visitor gets a default
+// method per subclass that falls back to the abstract type's, so a pass
+// only handles the operators it needs to tell apart.
+public class GenerateAst {
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: generate_ast <output directory>");
+            System.exit(64);
+        }
+        String outputDir = args[0];
+        defineAst(outputDir, "Expr", Arrays.asList(
+            "Assign   : Token name, Expr value",
+            "Binary   : Expr left, Token operator, Expr right"
+                + " | Add PLUS, Subtract MINUS, Multiply STAR, Divide SLASH,"
+                + " Greater GREATER, GreaterEqual GREATER_EQUAL, Less LESS,"
+                + " LessEqual LESS_EQUAL, Equal EQUAL_EQUAL, NotEqual BANG_EQUAL",
+            "Call     : Expr callee, Token paren, List<Expr> arguments",
+            "Grouping : Expr expression",
+            "Literal  : Object value",
+            "Logical  : Expr left, Token operator, Expr right | And AND, Or OR",
+            "Unary    : Token operator, Expr right | Not BANG, Negate MINUS",
+            "Variable : Token name",
+            "Dynamic  : Token token, Object value",
+            "Read     :",
+            "Rand     :",
+            // Reads the counter of the CountingLoop running in the given
+            // slot; only the optimizer creates these.
+            "Counter  : Token name, int slot",
+            // A binary operator whose operands TypeInference proved are
+            // numbers, so it runs without checking them.
+            "Numeric  : Expr left, Token operator, Expr right"
+                + " | NumberAdd PLUS, NumberSubtract MINUS, NumberMultiply STAR,"
+                + " NumberDivide SLASH, NumberGreater GREATER,"
+                + " NumberGreaterEqual GREATER_EQUAL, NumberLess LESS,"
+                + " NumberLessEqual LESS_EQUAL"
+        ));
+
+        defineAst(outputDir, "Stmt", Arrays.asList(
+            "Block      : List<Stmt> statements",
+            "Expression : Expr expression",
+            "Function   : Token name, List<Token> params, List<Stmt> body",
+            "If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
+            "Print      : Expr expression",
+            "Return     : Token keyword, Expr value",
+            "Var        : Token name, Expr initializer",
+            "While      : Expr condition, Stmt body",
+            "StringLoop : Token name, Expr iterable, Stmt body",
+            // Stands in for a declaration that failed to parse, so a tree
+            // with syntax errors still has a node for every declaration.
+            "Error      : Token token, String message",
+            // A for loop over a variable that only ever holds integers,
+            // kept in a primitive counter instead of the environment:
+            //   for (var name = start; name operator limit; name = name + step)
+            // Only the optimizer creates these.
+            "CountingLoop : Token name, long start, Token operator, Expr limit,"
+                + " long step, Stmt body, int slot"
+        ));
+    }
+
+    private static void defineAst(String outputDir, String baseName, List<String> types) throws IOException {
+        String path = outputDir + "/" + baseName + ".java";
+        PrintWriter writer = new PrintWriter(path, "UTF-8");
+
+        writer.println("package translation;");
+        writer.println();
+        writer.println("import java.util.List;");
+        writer.println();
+        writer.println("abstract sealed class " + baseName + " {");
+
+        defineKinds(writer, types);
+        writer.println();
+        defineVisitor(writer, baseName, types);
+
+        // The AST classes.
+        for (String type : types) {
+            String className = type.split(":")[0].trim();
+            String fields = type.split(":", 2)[1].split("\\|")[0].trim();
+            List<String[]> operators = operators(type);
+            writer.println();
+            if (operators.isEmpty()) {
+                defineType(writer, baseName, "", className, fields);
+            } else {
+                defineOperatorType(writer, baseName, className, fields, operators);
+            }
+        }
+
+        // The tag and the base accept() method.
+        writer.println();
+        writer.println("  // Which subclass this is, as one of the constants above.");
+        writer.println("  final int kind;");
+        writer.println();
+        writer.println("  private " + baseName + "(int kind) {");
+        writer.println("    this.kind = kind;");
+        writer.println("  }");
+        writer.println();
+        writer.println("  abstract <R> R accept(Visitor<R> visitor);");
+
+        writer.println("}");
+        writer.close();
+    }
+
+    private static void defineKinds(PrintWriter writer, List<String> types) {
+        int kind = 0;
+        for (String type : types) {
+            List<String[]> operators = operators(type);
+            if (operators.isEmpty()) {
+                String typeName = type.split(":")[0].trim();
+                writer.println("  static final int " + kindName(typeName) + " = " + kind++ + ";");
+            }
+            for (String[] operator : operators) {
+                writer.println("  static final int " + kindName(operator[0]) + " = " + kind++ + ";");
+            }
+        }
+    }
+
+    // The "Class TOKEN_TYPE" pairs after the "|", if any.
+    private static List<String[]> operators(String type) {
+        List<String[]> operators = new ArrayList<>();
+        String[] parts = type.split("\\|");
+        if (parts.length < 2) return operators;
+        for (String operator : parts[1].split(",")) {
+            operators.add(operator.trim().split(" +"));
+        }
+        return operators;
+    }
+
+    private static void defineVisitor(
+        PrintWriter writer, String baseName, List<String> types) {
+        writer.println("  interface Visitor<R> {");
+
+        String parameter = baseName.toLowerCase();
+        for (String type : types) {
+            String typeName = type.split(":")[0].trim();
+            writer.println("    R visit" + typeName + baseName + "(" + typeName + " " + parameter + ");");
+            for (String[] operator : operators(type)) {
+                writer.println("    default R visit" + operator[0] + baseName + "(" + operator[0] + " " + parameter + ") {");
+                writer.println("      return visit" + typeName + baseName + "(" + parameter + ");");
+                writer.println("    }");
+            }
+        }
+
+        writer.println("  }");
+    }
+
+    // superClass is the operator type className belongs to, if any. Its
+    // constructor takes the kind and the fields.
+    private static void defineType(
+        PrintWriter writer, String baseName, String superClass,
+        String className, String fieldList) {
+        String parent = superClass.isEmpty() ? baseName : superClass;
+        writer.println("  static final class " + className + " extends " + parent + " {");
+
+        // Constructor.
+        String[] fields = fieldList.isEmpty() ? new String[0] : fieldList.split(", ");
+        writer.println("    " + className + "(" + fieldList + ") {");
+        if (superClass.isEmpty()) {
+            writer.println("      super(" + kindName(className) + ");");
+
+            // Store parameters in fields.
+            for (String field : fields) {
+                String name = field.split(" ")[1];
+                writer.println("      this." + name + " = " + name + ";");
+            }
+        } else {
+            writer.println("      super(" + kindName(className) + ", " + names(fields) + ");");
+        }
+
+        writer.println("    }");
+
+        // Visitor pattern.
+        writer.println();
+        writer.println("    @Override");
+        writer.println("    <R> R accept(Visitor<R> visitor) {");
+        writer.println("      return visitor.visit" + className + baseName + "(this);");
+        writer.println("    }");
+
+        // Fields.
+        if (superClass.isEmpty()) {
+            if (fields.length > 0) writer.println();
+            for (String field : fields) {
+                writer.println("    final " + field + ";");
+            }
+        }
+
+        writer.println("  }");
+    }
+
+    private static void defineOperatorType(
+        PrintWriter writer, String baseName,
+        String className, String fieldList, List<String[]> operators) {
+        writer.println("  abstract static sealed class " + className + " extends " + baseName + " {");
+
+        // Constructor, for the subclasses only.
+        String[] fields = fieldList.split(", ");
+        writer.println("    private " + className + "(int kind, " + fieldList + ") {");
+        writer.println("      super(kind);");
+        for (String field : fields) {
+            String name = field.split(" ")[1];
+            writer.println("      this." + name + " = " + name + ";");
+        }
+        writer.println("    }");
+
+        // Factory.
+        writer.println();
+        writer.println("    static " + className + " of(" + fieldList + ") {");
+        writer.println("      switch (operator.type) {");
+        for (String[] operator : operators) {
+            writer.println("        case " + operator[1] + ": return new " + operator[0] + "(" + names(fields) + ");");
+        }
+        writer.println("        default:");
+        writer.println("          throw new IllegalArgumentException(");
+        writer.println("              \"Not a " + className.toLowerCase() + " operator: \" + operator.type + \".\");");
+        writer.println("      }");
+        writer.println("    }");
+
+        // Fields.
+        writer.println();
+        for (String field : fields) {
+            writer.println("    final " + field + ";");
+        }
+        writer.println("  }");
+
+        for (String[] operator : operators) {
+            writer.println();
+            defineType(writer, baseName, className, operator[0], fieldList);
+        }
+    }
+
+    private static String names(String[] fields) {
+        StringBuilder names = new StringBuilder();
+        for (String field : fields) {
+            if (names.length() > 0) names.append(", ");
+            names.append(field.split(" ")[1]);
+        }
+        return names.toString();
+    }
+
+    // StringLoop -> STRING_LOOP.
+    private static String kindName(String className) {
+        return className.replaceAll("([a-z])([A-Z])", "$1_$2").toUpperCase();
+    }
+}
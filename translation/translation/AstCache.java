@@ -0,0 +1,687 @@
+package translation;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parsed scripts kept on disk, so running an unchanged script again skips
+ * scanning and parsing.
+ *
+ * An entry is named after the SHA-256 of the script's bytes, the parser's
+ * depth limit and FORMAT_VERSION. It holds, as variable-length ints:
+ *
+ *   strings    lexemes and string values, as UTF-8
+ *   constants  every literal value: nil, true, false, a number or a string
+ *   tokens     type, lexeme, literal, line and offset of every token the
+ *              tree refers to, so runtime errors report the same lines
+ *   statements the tree in prefix order, each node as its kind tag + 1
+ *              (0 for a missing node) followed by its fields
+ *
+ * Entries are memory-mapped to read them. Reading one touches its
+ * modification time, and after each write the oldest entries are deleted
+ * until the directory is under MAX_BYTES, so the cache keeps the scripts
+ * that are actually being run.
+ *
+ * The cache never makes a run fail: an entry that cannot be read is
+ * deleted and treated as a miss, and one that cannot be written is simply
+ * not cached.
+ */
+class AstCache {
+  // Bump whenever Expr, Stmt or the encoding below changes.
+  static final int FORMAT_VERSION = 1;
+  private static final int MAGIC = 0x4C4F5841; // "LOXA"
+  private static final String SUFFIX = ".ast";
+  static final long MAX_BYTES = 64L << 20;
+
+  private static final int NIL = 0;
+  private static final int TRUE = 1;
+  private static final int FALSE = 2;
+  private static final int NUMBER = 3;
+  private static final int STRING = 4;
+
+  private final Path directory;
+
+  AstCache(Path directory) {
+    this.directory = directory;
+  }
+
+  // The name of the entry for source when parsed with the given limit.
+  String key(MappedSource source, int maxDepth) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available.", e);
+    }
+    source.digest(digest);
+
+    StringBuilder key = new StringBuilder();
+    for (byte b : digest.digest()) {
+      key.append(Character.forDigit((b >> 4) & 0xF, 16));
+      key.append(Character.forDigit(b & 0xF, 16));
+    }
+    return key + "-d" + maxDepth + "-v" + FORMAT_VERSION;
+  }
+
+  // Returns null on a miss.
+  List<Stmt> load(String key) {
+    Path path = directory.resolve(key + SUFFIX);
+    if (!Files.isRegularFile(path)) return null;
+
+    try {
+      MappedByteBuffer bytes;
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+        bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      }
+      List<Stmt> statements = new Decoder(bytes).statements();
+      Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+      return statements;
+    } catch (IOException | RuntimeException e) {
+      // Truncated by a crash, written by another version, or not ours.
+      delete(path);
+      return null;
+    }
+  }
+
+  void store(String key, List<Stmt> statements) {
+    byte[] encoded;
+    try {
+      encoded = new Encoder().encode(statements);
+    } catch (IllegalArgumentException e) {
+      return;
+    }
+
+    try {
+      Files.createDirectories(directory);
+      // Written under a temporary name and renamed, so concurrent runs
+      // never map a half-written entry.
+      Path temporary = Files.createTempFile(directory, key, ".tmp");
+      try {
+        Files.write(temporary, encoded);
+        Files.move(temporary, directory.resolve(key + SUFFIX),
+            StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      } finally {
+        delete(temporary);
+      }
+      evict();
+    } catch (IOException e) {
+      // Read-only or full disk: run uncached.
+    }
+  }
+
+  // Deletes the least recently used entries beyond MAX_BYTES.
+  private void evict() throws IOException {
+    List<Path> entries = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+      for (Path entry : stream) entries.add(entry);
+    }
+
+    Path[] sorted = entries.toArray(new Path[0]);
+    long[] times = new long[sorted.length];
+    long[] sizes = new long[sorted.length];
+    Integer[] order = new Integer[sorted.length];
+    for (int i = 0; i < sorted.length; i++) {
+      try {
+        times[i] = Files.getLastModifiedTime(sorted[i]).toMillis();
+        sizes[i] = Files.size(sorted[i]);
+      } catch (IOException e) {
+        // Evicted by another run meanwhile.
+      }
+      order[i] = i;
+    }
+    Arrays.sort(order, (a, b) -> Long.compare(times[b], times[a]));
+
+    long total = 0;
+    for (int i : order) {
+      total += sizes[i];
+      if (total > MAX_BYTES) delete(sorted[i]);
+    }
+  }
+
+  private static void delete(Path path) {
+    try {
+      Files.deleteIfExists(path);
+    } catch (IOException e) {
+      // Someone else's problem next time.
+    }
+  }
+
+  private static class Encoder implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
+    private final Map<String, Integer> strings = new HashMap<>();
+    private final List<String> stringList = new ArrayList<>();
+    private final Map<Object, Integer> constants = new HashMap<>();
+    private final List<Object> constantList = new ArrayList<>();
+    private final Map<Token, Integer> tokens = new IdentityHashMap<>();
+    private final List<Token> tokenList = new ArrayList<>();
+    private final Output tree = new Output();
+
+    Encoder() {
+      // Constant 0 is nil, which a HashMap cannot key.
+      constantList.add(null);
+    }
+
+    byte[] encode(List<Stmt> statements) {
+      tree.writeInt(statements.size());
+      for (Stmt statement : statements) write(statement);
+
+      // The pools go first so the decoder has them before the tree.
+      Output out = new Output();
+      out.writeFixed(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+
+      // Tokens add strings and constants, so they are laid out first.
+      Output tokenBytes = new Output();
+      tokenBytes.writeInt(tokenList.size());
+      for (Token token : tokenList) {
+        tokenBytes.writeInt(token.type.ordinal());
+        tokenBytes.writeInt(string(token.lexeme));
+        tokenBytes.writeInt(constant(token.literal));
+        tokenBytes.writeInt(token.line);
+        tokenBytes.writeInt(token.offset);
+      }
+
+      out.writeInt(stringList.size());
+      for (String string : stringList) {
+        byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8, utf8.length);
+      }
+
+      out.writeInt(constantList.size());
+      for (Object value : constantList) {
+        if (value == null) {
+          out.writeInt(NIL);
+        } else if (value instanceof Boolean) {
+          out.writeInt((Boolean) value ? TRUE : FALSE);
+        } else if (value instanceof Double) {
+          out.writeInt(NUMBER);
+          out.writeFixedLong(Double.doubleToRawLongBits((Double) value));
+        } else {
+          out.writeInt(STRING);
+          out.writeInt(strings.get((String) value));
+        }
+      }
+
+      out.write(tokenBytes.bytes, tokenBytes.size);
+      out.write(tree.bytes, tree.size);
+      return Arrays.copyOf(out.bytes, out.size);
+    }
+
+    private int string(String value) {
+      Integer index = strings.get(value);
+      if (index == null) {
+        index = stringList.size();
+        strings.put(value, index);
+        stringList.add(value);
+      }
+      return index;
+    }
+
+    private int constant(Object value) {
+      if (value == null) return 0;
+      if (!(value instanceof Boolean || value instanceof Double
+          || value instanceof String)) {
+        throw new IllegalArgumentException(
+            "Can't cache a " + value.getClass().getName() + " literal.");
+      }
+
+      Integer index = constants.get(value);
+      if (index == null) {
+        if (value instanceof String) string((String) value);
+        index = constantList.size();
+        constants.put(value, index);
+        constantList.add(value);
+      }
+      return index;
+    }
+
+    // 0 for no token, else its index + 1.
+    private void write(Token token) {
+      if (token == null) {
+        tree.writeInt(0);
+        return;
+      }
+
+      Integer index = tokens.get(token);
+      if (index == null) {
+        index = tokenList.size();
+        tokens.put(token, index);
+        tokenList.add(token);
+      }
+      tree.writeInt(index + 1);
+    }
+
+    private void write(Stmt stmt) {
+      if (stmt == null) {
+        tree.writeInt(0);
+      } else {
+        tree.writeInt(stmt.kind + 1);
+        stmt.accept(this);
+      }
+    }
+
+    private void write(Expr expr) {
+      if (expr == null) {
+        tree.writeInt(0);
+      } else {
+        tree.writeInt(expr.kind + 1);
+        expr.accept(this);
+      }
+    }
+
+    private void writeStatements(List<Stmt> statements) {
+      tree.writeInt(statements.size());
+      for (Stmt statement : statements) write(statement);
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+      writeStatements(stmt.statements);
+      return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+      write(stmt.expression);
+      return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+      write(stmt.name);
+      tree.writeInt(stmt.params.size());
+      for (Token param : stmt.params) write(param);
+      writeStatements(stmt.body);
+      return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+      write(stmt.condition);
+      write(stmt.thenBranch);
+      write(stmt.elseBranch);
+      return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+      write(stmt.expression);
+      return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+      write(stmt.keyword);
+      write(stmt.value);
+      return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+      write(stmt.name);
+      write(stmt.initializer);
+      return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+      write(stmt.condition);
+      write(stmt.body);
+      return null;
+    }
+
+    @Override
+    public Void visitStringLoopStmt(Stmt.StringLoop stmt) {
+      write(stmt.name);
+      write(stmt.iterable);
+      write(stmt.body);
+      return null;
+    }
+
+    @Override
+    public Void visitErrorStmt(Stmt.Error stmt) {
+      write(stmt.token);
+      tree.writeInt(string(stmt.message));
+      return null;
+    }
+
+    // Entries hold trees as parsed; these only come out of the optimizer.
+    @Override
+    public Void visitCountingLoopStmt(Stmt.CountingLoop stmt) {
+      throw new IllegalStateException("Optimized trees are not cached.");
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+      write(expr.name);
+      write(expr.value);
+      return null;
+    }
+
+    // The kind already says which operator; the token is kept for its
+    // line and for of().
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+      write(expr.left);
+      write(expr.operator);
+      write(expr.right);
+      return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+      write(expr.callee);
+      write(expr.paren);
+      tree.writeInt(expr.arguments.size());
+      for (Expr argument : expr.arguments) write(argument);
+      return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+      write(expr.expression);
+      return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+      tree.writeInt(constant(expr.value));
+      return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+      write(expr.left);
+      write(expr.operator);
+      write(expr.right);
+      return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+      write(expr.operator);
+      write(expr.right);
+      return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+      write(expr.name);
+      return null;
+    }
+
+    @Override
+    public Void visitDynamicExpr(Expr.Dynamic expr) {
+      write(expr.token);
+      tree.writeInt(constant(expr.value));
+      return null;
+    }
+
+    @Override
+    public Void visitReadExpr(Expr.Read expr) {
+      return null;
+    }
+
+    @Override
+    public Void visitRandExpr(Expr.Rand expr) {
+      return null;
+    }
+
+    @Override
+    public Void visitCounterExpr(Expr.Counter expr) {
+      throw new IllegalStateException("Optimized trees are not cached.");
+    }
+
+    @Override
+    public Void visitNumericExpr(Expr.Numeric expr) {
+      throw new IllegalStateException("Optimized trees are not cached.");
+    }
+  }
+
+  // A growable byte array. Ints are zigzag-encoded base-128 varints, so
+  // small values, and the -1 of a made-up token's offset, take one byte.
+  private static class Output {
+    byte[] bytes = new byte[1024];
+    int size = 0;
+
+    void writeInt(int value) {
+      int zigzag = (value << 1) ^ (value >> 31);
+      while ((zigzag & ~0x7F) != 0) {
+        writeByte((zigzag & 0x7F) | 0x80);
+        zigzag >>>= 7;
+      }
+      writeByte(zigzag);
+    }
+
+    void writeFixed(int value) {
+      for (int shift = 24; shift >= 0; shift -= 8) writeByte(value >>> shift);
+    }
+
+    void writeFixedLong(long value) {
+      writeFixed((int) (value >>> 32));
+      writeFixed((int) value);
+    }
+
+    void write(byte[] data, int length) {
+      ensure(length);
+      System.arraycopy(data, 0, bytes, size, length);
+      size += length;
+    }
+
+    private void writeByte(int value) {
+      ensure(1);
+      bytes[size++] = (byte) value;
+    }
+
+    private void ensure(int extra) {
+      if (size + extra > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+      }
+    }
+  }
+
+  private static class Decoder {
+    private final ByteBuffer in;
+    private String[] strings;
+    private Object[] constants;
+    private Token[] tokens;
+
+    Decoder(ByteBuffer in) {
+      this.in = in;
+    }
+
+    List<Stmt> statements() {
+      if (in.getInt() != MAGIC || readInt() != FORMAT_VERSION) {
+        throw new IllegalArgumentException("Not a cache entry of this version.");
+      }
+
+      strings = new String[readInt()];
+      for (int i = 0; i < strings.length; i++) {
+        byte[] utf8 = new byte[readInt()];
+        in.get(utf8);
+        strings[i] = new String(utf8, StandardCharsets.UTF_8);
+      }
+
+      constants = new Object[readInt()];
+      for (int i = 0; i < constants.length; i++) {
+        int tag = readInt();
+        switch (tag) {
+          case NIL: constants[i] = null; break;
+          case TRUE: constants[i] = true; break;
+          case FALSE: constants[i] = false; break;
+          case NUMBER: constants[i] = Double.longBitsToDouble(in.getLong()); break;
+          case STRING: constants[i] = strings[readInt()]; break;
+          default:
+            throw new IllegalArgumentException("Bad constant tag " + tag + ".");
+        }
+      }
+
+      TokenType[] types = TokenType.values();
+      tokens = new Token[readInt()];
+      for (int i = 0; i < tokens.length; i++) {
+        TokenType type = types[readInt()];
+        String lexeme = strings[readInt()];
+        Object literal = constants[readInt()];
+        int line = readInt();
+        int offset = readInt();
+        tokens[i] = new Token(type, lexeme, literal, line, offset);
+      }
+
+      List<Stmt> statements = readStatements();
+      if (in.hasRemaining()) {
+        throw new IllegalArgumentException("Trailing bytes in cache entry.");
+      }
+      return statements;
+    }
+
+    private int readInt() {
+      int zigzag = 0;
+      for (int shift = 0; ; shift += 7) {
+        byte b = in.get();
+        zigzag |= (b & 0x7F) << shift;
+        if (b >= 0) break;
+        if (shift > 28) throw new IllegalArgumentException("Bad varint.");
+      }
+      return (zigzag >>> 1) ^ -(zigzag & 1);
+    }
+
+    private Token readToken() {
+      int index = readInt();
+      return index == 0 ? null : tokens[index - 1];
+    }
+
+    private List<Stmt> readStatements() {
+      int count = readInt();
+      List<Stmt> statements = new ArrayList<>(count);
+      for (int i = 0; i < count; i++) statements.add(readStmt());
+      return statements;
+    }
+
+    private Stmt readStmt() {
+      int tag = readInt();
+      if (tag == 0) return null;
+
+      switch (tag - 1) {
+        case Stmt.BLOCK:
+          return new Stmt.Block(readStatements());
+        case Stmt.EXPRESSION:
+          return new Stmt.Expression(readExpr());
+        case Stmt.FUNCTION: {
+          Token name = readToken();
+          int count = readInt();
+          List<Token> params = new ArrayList<>(count);
+          for (int i = 0; i < count; i++) params.add(readToken());
+          return new Stmt.Function(name, params, readStatements());
+        }
+        case Stmt.IF: {
+          Expr condition = readExpr();
+          Stmt thenBranch = readStmt();
+          return new Stmt.If(condition, thenBranch, readStmt());
+        }
+        case Stmt.PRINT:
+          return new Stmt.Print(readExpr());
+        case Stmt.RETURN: {
+          Token keyword = readToken();
+          return new Stmt.Return(keyword, readExpr());
+        }
+        case Stmt.VAR: {
+          Token name = readToken();
+          return new Stmt.Var(name, readExpr());
+        }
+        case Stmt.WHILE: {
+          Expr condition = readExpr();
+          return new Stmt.While(condition, readStmt());
+        }
+        case Stmt.STRING_LOOP: {
+          Token name = readToken();
+          Expr iterable = readExpr();
+          return new Stmt.StringLoop(name, iterable, readStmt());
+        }
+        case Stmt.ERROR: {
+          Token token = readToken();
+          return new Stmt.Error(token, strings[readInt()]);
+        }
+        default:
+          throw new IllegalArgumentException("Bad statement tag " + tag + ".");
+      }
+    }
+
+    private Expr readExpr() {
+      int tag = readInt();
+      if (tag == 0) return null;
+
+      switch (tag - 1) {
+        case Expr.ASSIGN: {
+          Token name = readToken();
+          return new Expr.Assign(name, readExpr());
+        }
+        case Expr.ADD:
+        case Expr.SUBTRACT:
+        case Expr.MULTIPLY:
+        case Expr.DIVIDE:
+        case Expr.GREATER:
+        case Expr.GREATER_EQUAL:
+        case Expr.LESS:
+        case Expr.LESS_EQUAL:
+        case Expr.EQUAL:
+        case Expr.NOT_EQUAL: {
+          Expr left = readExpr();
+          Token operator = readToken();
+          return Expr.Binary.of(left, operator, readExpr());
+        }
+        case Expr.CALL: {
+          Expr callee = readExpr();
+          Token paren = readToken();
+          int count = readInt();
+          List<Expr> arguments = new ArrayList<>(count);
+          for (int i = 0; i < count; i++) arguments.add(readExpr());
+          return new Expr.Call(callee, paren, arguments);
+        }
+        case Expr.GROUPING:
+          return new Expr.Grouping(readExpr());
+        case Expr.LITERAL:
+          return new Expr.Literal(constants[readInt()]);
+        case Expr.AND:
+        case Expr.OR: {
+          Expr left = readExpr();
+          Token operator = readToken();
+          return Expr.Logical.of(left, operator, readExpr());
+        }
+        case Expr.NOT:
+        case Expr.NEGATE: {
+          Token operator = readToken();
+          return Expr.Unary.of(operator, readExpr());
+        }
+        case Expr.VARIABLE:
+          return new Expr.Variable(readToken());
+        case Expr.DYNAMIC: {
+          Token token = readToken();
+          return new Expr.Dynamic(token, constants[readInt()]);
+        }
+        case Expr.READ:
+          return new Expr.Read();
+        case Expr.RAND:
+          return new Expr.Rand();
+        default:
+          throw new IllegalArgumentException("Bad expression tag " + tag + ".");
+      }
+    }
+  }
+}
@@ -1,5 +1,8 @@
 package translation;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import translation.Expr.Assign;
 import translation.Expr.Call;
 import translation.Expr.Dynamic;
@@ -7,11 +10,17 @@ import translation.Expr.Logical;
 import translation.Expr.Read;
 import translation.Expr.Variable;
 
-class AstPrinter implements Expr.Visitor<String> {
+// Prints trees as nested parenthesized lists, one top-level statement per
+// line, as --dump-optimized shows them.
+class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
   String print(Expr expr) {
     return expr.accept(this);
   }
 
+  String print(Stmt stmt) {
+    return stmt.accept(this);
+  }
+
   @Override
   public String visitBinaryExpr(Expr.Binary expr) {
     return parenthesize(expr.operator.lexeme,
@@ -47,45 +56,141 @@ class AstPrinter implements Expr.Visitor<String> {
     return builder.toString();
   }
 
+  // Like parenthesize(), for statements and the odd part that is neither
+  // an expression nor a statement. A null part prints as nothing.
+  private String parenthesizeParts(String name, Object... parts) {
+    StringBuilder builder = new StringBuilder();
+
+    builder.append("(").append(name);
+    for (Object part : parts) {
+      if (part == null) continue;
+      builder.append(" ");
+      if (part instanceof Expr) {
+        builder.append(((Expr) part).accept(this));
+      } else if (part instanceof Stmt) {
+        builder.append(((Stmt) part).accept(this));
+      } else if (part instanceof Token) {
+        builder.append(((Token) part).lexeme);
+      } else {
+        builder.append(part);
+      }
+    }
+    builder.append(")");
+
+    return builder.toString();
+  }
+
   @Override
   public String visitAssignExpr(Assign expr) {
-    // TODO Auto-generated method stub
-    throw new UnsupportedOperationException("Unimplemented method 'visitAssignExpr'");
+    return parenthesizeParts("=", expr.name, expr.value);
   }
 
   @Override
   public String visitVariableExpr(Variable expr) {
-    // TODO Auto-generated method stub
-    throw new UnsupportedOperationException("Unimplemented method 'visitVariableExpr'");
+    return expr.name.lexeme;
   }
 
   @Override
   public String visitLogicalExpr(Logical expr) {
-    // TODO Auto-generated method stub
-    throw new UnsupportedOperationException("Unimplemented method 'visitLogicalExpr'");
+    return parenthesize(expr.operator.lexeme, expr.left, expr.right);
   }
 
   @Override
   public String visitCallExpr(Call expr) {
-    // TODO Auto-generated method stub
-    throw new UnsupportedOperationException("Unimplemented method 'visitCallExpr'");
+    List<Object> parts = new ArrayList<>();
+    parts.add(expr.callee);
+    parts.addAll(expr.arguments);
+    return parenthesizeParts("call", parts.toArray());
   }
 
   @Override
   public String visitDynamicExpr(Dynamic expr) {
-    // TODO Auto-generated method stub
-    throw new UnsupportedOperationException("Unimplemented method 'visitDynamicExpr'");
+    return expr.value == null ? "nil" : expr.value.toString();
   }
 
   @Override
   public String visitReadExpr(Read expr) {
-    // TODO Auto-generated method stub
-    throw new UnsupportedOperationException("Unimplemented method 'visitReadExpr'");
+    return "(read)";
   }
 
   @Override
   public String visitRandExpr(translation.Expr.Rand expr) {
-    // TODO Auto-generated method stub
-    throw new UnsupportedOperationException("Unimplemented method 'visitRandExpr'");
+    return "(rand)";
+  }
+
+  @Override
+  public String visitBlockStmt(Stmt.Block stmt) {
+    return parenthesizeParts("block", stmt.statements.toArray());
+  }
+
+  @Override
+  public String visitExpressionStmt(Stmt.Expression stmt) {
+    return parenthesizeParts(";", stmt.expression);
+  }
+
+  @Override
+  public String visitFunctionStmt(Stmt.Function stmt) {
+    StringBuilder params = new StringBuilder("(");
+    for (Token param : stmt.params) {
+      if (params.length() > 1) params.append(" ");
+      params.append(param.lexeme);
+    }
+    params.append(")");
+
+    return parenthesizeParts("fun " + stmt.name.lexeme, params,
+        parenthesizeParts("block", stmt.body.toArray()));
+  }
+
+  @Override
+  public String visitIfStmt(Stmt.If stmt) {
+    return parenthesizeParts("if", stmt.condition, stmt.thenBranch,
+        stmt.elseBranch);
+  }
+
+  @Override
+  public String visitPrintStmt(Stmt.Print stmt) {
+    return parenthesizeParts("print", stmt.expression);
+  }
+
+  @Override
+  public String visitReturnStmt(Stmt.Return stmt) {
+    return parenthesizeParts("return", stmt.value);
+  }
+
+  @Override
+  public String visitVarStmt(Stmt.Var stmt) {
+    return parenthesizeParts("var", stmt.name, stmt.initializer);
+  }
+
+  @Override
+  public String visitWhileStmt(Stmt.While stmt) {
+    return parenthesizeParts("while", stmt.condition, stmt.body);
+  }
+
+  @Override
+  public String visitStringLoopStmt(Stmt.StringLoop stmt) {
+    return parenthesizeParts("loop", stmt.name, stmt.iterable, stmt.body);
+  }
+
+  @Override
+  public String visitErrorStmt(Stmt.Error stmt) {
+    return parenthesizeParts("error", stmt.message);
+  }
+
+  @Override
+  public String visitCountingLoopStmt(Stmt.CountingLoop stmt) {
+    return parenthesizeParts("count", stmt.name, stmt.start,
+        parenthesizeParts(stmt.operator.lexeme, stmt.name, stmt.limit),
+        stmt.step, stmt.body);
+  }
+
+  @Override
+  public String visitCounterExpr(Expr.Counter expr) {
+    return expr.name.lexeme;
+  }
+
+  @Override
+  public String visitNumericExpr(Expr.Numeric expr) {
+    return parenthesize("number " + expr.operator.lexeme, expr.left, expr.right);
   }
-}
\ No newline at end of file
+}
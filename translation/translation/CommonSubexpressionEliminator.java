@@ -0,0 +1,345 @@
+package translation;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Evaluates an expression that occurs more than once in a basic block
+ * once, and reuses its value for the other occurrences.
+ *
+ * A basic block here is a run of expression, print, var and return
+ * statements, and the condition of an if, in one statement list: once
+ * one of those starts, the rest run too unless something fails. Loops,
+ * blocks and functions end a run, and the lists inside them are runs of
+ * their own.
+ *
+ * Only operators, and calls to pure natives (see SideEffects), over
+ * literals, variables and loop counters take part. Two occurrences are the same value if
+ * they are written the same and no variable in them is assigned or
+ * declared in between. A statement that calls anything else might assign
+ * any variable, so its expressions take no part and nothing before it is
+ * reused after it.
+ *
+ * Each repeated expression gets a temporary declared before the statement
+ * it first occurs in, and every occurrence becomes
+ *
+ *   temporary or (temporary = expression)
+ *
+ * so whichever occurrence runs first computes it, and fails exactly where
+ * it would have. A nil or false result is computed again, which is still
+ * correct.
+ */
+class CommonSubexpressionEliminator extends TreeRewriter {
+  private final Names program;
+  // Null unless --optimize-report asked for one.
+  private final PrintStream report;
+  private final AstPrinter printer = new AstPrinter();
+  private int temporaries = 0;
+  private int saved = 0;
+
+  CommonSubexpressionEliminator(Names program, PrintStream report) {
+    this.program = program;
+    this.report = report;
+  }
+
+  // Rewrites a whole program.
+  List<Stmt> eliminate(List<Stmt> statements) {
+    List<Stmt> rewritten = rewrite(statements);
+    if (report != null && saved > 0) {
+      report.println("Common subexpressions saved " + saved + " evaluations.");
+    }
+    return rewritten;
+  }
+
+  // The expressions occurring in one run that are the same value.
+  private static class Value {
+    final Set<String> variables;
+    final List<Expr> occurrences = new ArrayList<>();
+    Token temporary = null;
+    boolean computed = false;
+
+    Value(Set<String> variables) {
+      this.variables = variables;
+    }
+  }
+
+  @Override
+  List<Stmt> rewrite(List<Stmt> statements) {
+    List<Stmt> rewritten = new ArrayList<>();
+    List<Stmt> run = new ArrayList<>();
+    for (Stmt statement : statements) {
+      // Nested lists first; the expressions a run looks at are untouched.
+      Stmt nested = statement.accept(this);
+      if (nested == null) continue;
+
+      run.add(nested);
+      if (!isInRun(nested)) {
+        rewriteRun(run, rewritten);
+        run.clear();
+      }
+    }
+    rewriteRun(run, rewritten);
+    return rewritten.equals(statements) ? statements : rewritten;
+  }
+
+  // A statement that is not in a list, like a branch, goes in a block with
+  // any temporaries it needs. It cannot be a declaration, so that changes
+  // no scope.
+  @Override
+  Stmt rewrite(Stmt stmt) {
+    if (stmt == null) return null;
+    List<Stmt> statements = rewrite(List.of(stmt));
+    if (statements.isEmpty()) return null;
+    return statements.size() == 1 ? statements.get(0) : new Stmt.Block(statements);
+  }
+
+  // False for statements that end a run, though an if's condition is
+  // still the last part of it.
+  private static boolean isInRun(Stmt stmt) {
+    return stmt instanceof Stmt.Expression || stmt instanceof Stmt.Print
+        || stmt instanceof Stmt.Var || stmt instanceof Stmt.Return;
+  }
+
+  // The expression of a statement that a run looks at, if any.
+  private static Expr expression(Stmt stmt) {
+    if (stmt instanceof Stmt.Expression) return ((Stmt.Expression) stmt).expression;
+    if (stmt instanceof Stmt.Print) return ((Stmt.Print) stmt).expression;
+    if (stmt instanceof Stmt.Var) return ((Stmt.Var) stmt).initializer;
+    if (stmt instanceof Stmt.Return) return ((Stmt.Return) stmt).value;
+    if (stmt instanceof Stmt.If) return ((Stmt.If) stmt).condition;
+    return null;
+  }
+
+  private void rewriteRun(List<Stmt> run, List<Stmt> statements) {
+    Map<Expr, Value> values = number(run);
+    if (values.isEmpty()) {
+      statements.addAll(run);
+      return;
+    }
+
+    Rewriter rewriter = new Rewriter(values);
+    for (Stmt statement : run) {
+      Expr expression = expression(statement);
+      if (expression == null) {
+        statements.add(statement);
+        continue;
+      }
+
+      Expr rewritten = rewriter.rewrite(expression);
+      for (Token temporary : rewriter.declared) statements.add(new Stmt.Var(temporary, null));
+      rewriter.declared.clear();
+      statements.add(replace(statement, rewritten));
+    }
+  }
+
+  private static Stmt replace(Stmt stmt, Expr expression) {
+    if (stmt instanceof Stmt.Expression) return new Stmt.Expression(expression);
+    if (stmt instanceof Stmt.Print) return new Stmt.Print(expression);
+    if (stmt instanceof Stmt.Var) return new Stmt.Var(((Stmt.Var) stmt).name, expression);
+    if (stmt instanceof Stmt.Return) return new Stmt.Return(((Stmt.Return) stmt).keyword, expression);
+    Stmt.If branch = (Stmt.If) stmt;
+    return new Stmt.If(expression, branch.thenBranch, branch.elseBranch);
+  }
+
+  // Finds the occurrences in a run that are the same value, and returns
+  // the ones that occur more than once.
+  private Map<Expr, Value> number(List<Stmt> run) {
+    Map<String, Value> available = new HashMap<>();
+    Map<Expr, Value> repeated = new IdentityHashMap<>();
+    for (Stmt statement : run) {
+      Expr expression = expression(statement);
+      if (expression == null) continue;
+
+      Names names = Names.of(new Stmt.Expression(expression));
+      boolean callsOut = false;
+      for (String callee : names.called()) {
+        if (!SideEffects.isPureNative(callee, program)) callsOut = true;
+      }
+      if (callsOut) {
+        available.clear();
+        continue;
+      }
+
+      collect(expression, names, available, repeated);
+
+      available.values().removeIf(value -> {
+        for (String variable : value.variables) {
+          if (names.isAssigned(variable)) return true;
+          if (statement instanceof Stmt.Var
+              && ((Stmt.Var) statement).name.lexeme.equals(variable)) {
+            return true;
+          }
+        }
+        return false;
+      });
+    }
+
+    // An occurrence inside another repeated one is computed along with it
+    // at most once, so it only counts if it repeats elsewhere.
+    Set<Expr> nested = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (Expr occurrence : repeated.keySet()) {
+      new TreeRewriter() {
+        @Override
+        Expr rewrite(Expr expr) {
+          if (expr != occurrence && repeated.containsKey(expr)) nested.add(expr);
+          return super.rewrite(expr);
+        }
+      }.rewrite(occurrence);
+    }
+    repeated.keySet().removeAll(nested);
+    for (Value value : repeated.values()) value.occurrences.removeAll(nested);
+    repeated.values().removeIf(value -> value.occurrences.size() < 2);
+    return repeated;
+  }
+
+  private void collect(Expr expr, Names statement, Map<String, Value> available,
+      Map<Expr, Value> repeated) {
+    if (expr == null) return;
+    while (expr instanceof Expr.Grouping) expr = ((Expr.Grouping) expr).expression;
+
+    String key = isWorthReusing(expr) ? key(expr) : null;
+    if (key != null) {
+      Set<String> variables = Names.of(new Stmt.Expression(expr)).used();
+      boolean assigned = false;
+      for (String variable : variables) assigned |= statement.isAssigned(variable);
+
+      if (!assigned) {
+        Value value = available.computeIfAbsent(key, k -> new Value(variables));
+        value.occurrences.add(expr);
+        if (value.occurrences.size() > 1) {
+          for (Expr occurrence : value.occurrences) repeated.put(occurrence, value);
+        }
+      }
+    }
+
+    if (expr instanceof Expr.Binary) {
+      collect(((Expr.Binary) expr).left, statement, available, repeated);
+      collect(((Expr.Binary) expr).right, statement, available, repeated);
+    } else if (expr instanceof Expr.Logical) {
+      collect(((Expr.Logical) expr).left, statement, available, repeated);
+      collect(((Expr.Logical) expr).right, statement, available, repeated);
+    } else if (expr instanceof Expr.Unary) {
+      collect(((Expr.Unary) expr).right, statement, available, repeated);
+    } else if (expr instanceof Expr.Call) {
+      for (Expr argument : ((Expr.Call) expr).arguments) {
+        collect(argument, statement, available, repeated);
+      }
+    } else if (expr instanceof Expr.Assign) {
+      collect(((Expr.Assign) expr).value, statement, available, repeated);
+    }
+  }
+
+  private static boolean isWorthReusing(Expr expr) {
+    return expr instanceof Expr.Binary || expr instanceof Expr.Logical
+        || expr instanceof Expr.Unary || expr instanceof Expr.Call;
+  }
+
+  // Equal for expressions written the same, or null if expr is not made
+  // only of literals, variables, counters, operators and calls to pure
+  // natives.
+  private String key(Expr expr) {
+    if (expr instanceof Expr.Grouping) return key(((Expr.Grouping) expr).expression);
+    if (expr instanceof Expr.Variable) return "v" + ((Expr.Variable) expr).name.lexeme;
+    if (expr instanceof Expr.Counter) return "c" + ((Expr.Counter) expr).slot;
+    if (expr instanceof Expr.Literal) {
+      Object value = ((Expr.Literal) expr).value;
+      if (value instanceof String) return "s" + ((String) value).length() + ":" + value;
+      if (value instanceof Double) return "n" + value;
+      return String.valueOf(value);
+    }
+    if (expr instanceof Expr.Binary) {
+      Expr.Binary binary = (Expr.Binary) expr;
+      return join(binary.kind, key(binary.left), key(binary.right));
+    }
+    if (expr instanceof Expr.Logical) {
+      Expr.Logical logical = (Expr.Logical) expr;
+      return join(logical.kind, key(logical.left), key(logical.right));
+    }
+    if (expr instanceof Expr.Unary) {
+      Expr.Unary unary = (Expr.Unary) expr;
+      return join(unary.kind, key(unary.right));
+    }
+    if (expr instanceof Expr.Call) {
+      Expr.Call call = (Expr.Call) expr;
+      if (!(call.callee instanceof Expr.Variable)) return null;
+      String name = ((Expr.Variable) call.callee).name.lexeme;
+      if (!SideEffects.isPureNative(name, program)) return null;
+
+      String[] parts = new String[call.arguments.size() + 1];
+      parts[0] = name;
+      for (int i = 0; i < call.arguments.size(); i++) parts[i + 1] = key(call.arguments.get(i));
+      return join(Expr.CALL, parts);
+    }
+    // Assignments, read(), rand() and values read in ahead of time.
+    return null;
+  }
+
+  private static String join(int kind, String... parts) {
+    StringBuilder builder = new StringBuilder("(").append(kind);
+    for (String part : parts) {
+      if (part == null) return null;
+      builder.append(" ").append(part);
+    }
+    return builder.append(")").toString();
+  }
+
+  private static int line(Expr expr) {
+    if (expr instanceof Expr.Binary) return ((Expr.Binary) expr).operator.line;
+    if (expr instanceof Expr.Logical) return ((Expr.Logical) expr).operator.line;
+    if (expr instanceof Expr.Unary) return ((Expr.Unary) expr).operator.line;
+    return ((Expr.Call) expr).paren.line;
+  }
+
+  // Replaces the repeated occurrences in one run.
+  private class Rewriter extends TreeRewriter {
+    private final Map<Expr, Value> values;
+    // Temporaries for values first seen in the current statement.
+    final List<Token> declared = new ArrayList<>();
+    // Inside an occurrence after the first, which normally does not run.
+    private boolean reusing = false;
+
+    Rewriter(Map<Expr, Value> values) {
+      this.values = values;
+    }
+
+    @Override
+    Expr rewrite(Expr expr) {
+      Value value = expr == null ? null : values.get(expr);
+      if (value == null) return super.rewrite(expr);
+
+      if (value.temporary == null) {
+        value.temporary = new Token(TokenType.IDENTIFIER, "$common" + temporaries++,
+            null, line(expr));
+        declared.add(value.temporary);
+        if (report != null && !reusing) {
+          report.println("[line " + line(expr) + "] Computed " + printer.print(expr)
+              + " once for " + value.occurrences.size() + " uses.");
+        }
+      }
+
+      boolean enclosing = reusing;
+      if (value.computed) {
+        if (!reusing) saved++;
+        reusing = true;
+      }
+      value.computed = true;
+      Expr computed = super.rewrite(expr);
+      reusing = enclosing;
+
+      return Expr.Logical.of(new Expr.Variable(value.temporary),
+          new Token(TokenType.OR, "or", null, line(expr)),
+          new Expr.Assign(value.temporary, computed));
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+      return stmt;
+    }
+  }
+}
@@ -0,0 +1,149 @@
+package translation;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Evaluates operators whose operands are all literals, and replaces uses
+ * of variables that can only hold a literal with that literal.
+ *
+ * Folding follows the interpreter exactly. An operation that would fail at
+ * runtime, like "a" - 1, is left alone so that it still fails there, with
+ * the same message and line. and/or fold as soon as their left operand is
+ * constant, since that alone decides which operand the expression yields.
+ *
+ * A variable is propagated when Names says it is fixed (declared once,
+ * never assigned) and its initializer folded to a literal. Only uses that
+ * come after the declaration, in its block or one nested in it, are
+ * replaced: by then the declaration has certainly run. Anything else, like
+ * a use in a function declared earlier, still looks the name up.
+ */
+class ConstantFolder extends TreeRewriter {
+  // Null when folding a statement on its own: without the whole program
+  // there is no telling whether a later one assigns the variable.
+  private final Names names;
+  private final Deque<Map<String, Expr.Literal>> scopes = new ArrayDeque<>();
+
+  // What constant() returns for an expression that is not a literal.
+  private static final Object NOT_CONSTANT = new Object();
+
+  ConstantFolder(Names names) {
+    this.names = names;
+    scopes.push(new HashMap<>());
+  }
+
+  private static Object constant(Expr expr) {
+    return expr instanceof Expr.Literal ? ((Expr.Literal) expr).value : NOT_CONSTANT;
+  }
+
+  @Override
+  public Stmt visitBlockStmt(Stmt.Block stmt) {
+    scopes.push(new HashMap<>());
+    try {
+      return super.visitBlockStmt(stmt);
+    } finally {
+      scopes.pop();
+    }
+  }
+
+  @Override
+  public Stmt visitFunctionStmt(Stmt.Function stmt) {
+    scopes.push(new HashMap<>());
+    try {
+      return super.visitFunctionStmt(stmt);
+    } finally {
+      scopes.pop();
+    }
+  }
+
+  @Override
+  public Stmt visitVarStmt(Stmt.Var stmt) {
+    Stmt.Var rewritten = (Stmt.Var) super.visitVarStmt(stmt);
+    if (names != null && rewritten.initializer instanceof Expr.Literal
+        && names.isFixed(stmt.name.lexeme)) {
+      scopes.peek().put(stmt.name.lexeme, (Expr.Literal) rewritten.initializer);
+    }
+    return rewritten;
+  }
+
+  @Override
+  public Expr visitVariableExpr(Expr.Variable expr) {
+    for (Map<String, Expr.Literal> scope : scopes) {
+      Expr.Literal value = scope.get(expr.name.lexeme);
+      if (value != null) return value;
+    }
+    return expr;
+  }
+
+  @Override
+  public Expr visitGroupingExpr(Expr.Grouping expr) {
+    Expr expression = rewrite(expr.expression);
+    if (expression instanceof Expr.Literal) return expression;
+    if (expression == expr.expression) return expr;
+    return new Expr.Grouping(expression);
+  }
+
+  @Override
+  public Expr visitBinaryExpr(Expr.Binary expr) {
+    Expr.Binary rewritten = (Expr.Binary) super.visitBinaryExpr(expr);
+    Object left = constant(rewritten.left);
+    Object right = constant(rewritten.right);
+    if (left == NOT_CONSTANT || right == NOT_CONSTANT) return rewritten;
+
+    Object value = fold(rewritten.kind, left, right);
+    return value == NOT_CONSTANT ? rewritten : new Expr.Literal(value);
+  }
+
+  private static Object fold(int kind, Object left, Object right) {
+    if (kind == Expr.EQUAL) return Interpreter.isEqual(left, right);
+    if (kind == Expr.NOT_EQUAL) return !Interpreter.isEqual(left, right);
+
+    if (kind == Expr.ADD && left instanceof String && right instanceof String) {
+      return (String) left + (String) right;
+    }
+    if (!(left instanceof Double && right instanceof Double)) return NOT_CONSTANT;
+
+    double x = (double) left;
+    double y = (double) right;
+    switch (kind) {
+      case Expr.ADD: return x + y;
+      case Expr.SUBTRACT: return x - y;
+      case Expr.MULTIPLY: return x * y;
+      case Expr.DIVIDE: return x / y;
+      case Expr.GREATER: return x > y;
+      case Expr.GREATER_EQUAL: return x >= y;
+      case Expr.LESS: return x < y;
+      case Expr.LESS_EQUAL: return x <= y;
+      default: return NOT_CONSTANT;
+    }
+  }
+
+  @Override
+  public Expr visitLogicalExpr(Expr.Logical expr) {
+    Expr.Logical rewritten = (Expr.Logical) super.visitLogicalExpr(expr);
+    Object left = constant(rewritten.left);
+    if (left == NOT_CONSTANT) return rewritten;
+
+    // The left operand is the result if it settles the question,
+    // otherwise the right one is, whatever it turns out to be.
+    boolean settled = rewritten.kind == Expr.OR
+        ? Interpreter.isTruthy(left)
+        : !Interpreter.isTruthy(left);
+    return settled ? rewritten.left : rewritten.right;
+  }
+
+  @Override
+  public Expr visitUnaryExpr(Expr.Unary expr) {
+    Expr.Unary rewritten = (Expr.Unary) super.visitUnaryExpr(expr);
+    Object right = constant(rewritten.right);
+    if (right == NOT_CONSTANT) return rewritten;
+
+    if (rewritten.kind == Expr.NOT) {
+      return new Expr.Literal(!Interpreter.isTruthy(right));
+    }
+    if (right instanceof Double) return new Expr.Literal(-(double) right);
+    return rewritten;
+  }
+}
@@ -0,0 +1,98 @@
+package translation;
+
+/**
+ * Turns for loops whose variable only ever holds integers into
+ * CountingLoops, which keep the variable in a primitive counter instead of
+ * boxing a new Double into the environment on every increment.
+ *
+ * A ForLoop whose start and step are integer literals qualifies if only
+ * its increment changes the variable. A step that subtracts is negative.
+ *
+ * Every read of the variable in the body and the limit becomes a Counter
+ * expression, which boxes the current value only when something uses it.
+ * A Counter reads the counter by slot, the number of CountingLoops around
+ * its loop in the same function; at most MAX_NESTING can be nested.
+ */
+class CountingLoopConverter extends TreeRewriter {
+  static final int MAX_NESTING = 8;
+  // Every integer up to this is a double, so a counter within it gives
+  // the same values as adding doubles would.
+  static final long MAX_EXACT = 1L << 53;
+
+  private int slot = 0;
+
+  @Override
+  public Stmt visitFunctionStmt(Stmt.Function stmt) {
+    int enclosing = slot;
+    slot = 0;
+    try {
+      return super.visitFunctionStmt(stmt);
+    } finally {
+      slot = enclosing;
+    }
+  }
+
+  @Override
+  public Stmt visitBlockStmt(Stmt.Block stmt) {
+    Stmt loop = convert(stmt);
+    return loop != null ? loop : super.visitBlockStmt(stmt);
+  }
+
+  // The CountingLoop for a block that is a counting for loop, or null.
+  private Stmt convert(Stmt.Block block) {
+    if (slot == MAX_NESTING) return null;
+    ForLoop loop = ForLoop.match(block);
+    if (loop == null) return null;
+
+    Long start = integer(loop.start);
+    Double step = loop.step();
+    if (start == null || step == null || integer(new Expr.Literal(step)) == null
+        || !loop.isOnlyStepped()) {
+      return null;
+    }
+
+    Counters counters = new Counters(loop.name.lexeme, slot);
+    Expr limit = counters.rewrite(loop.limit());
+    Stmt body;
+    slot++;
+    try {
+      body = rewrite(counters.rewrite(loop.body));
+    } finally {
+      slot--;
+    }
+    return new Stmt.CountingLoop(loop.name, start, loop.condition.operator, limit,
+        (long) (double) step, orEmpty(body), slot);
+  }
+
+  // The value of an integer literal within MAX_EXACT, or null. -0 is not
+  // one: a counter has no negative zero to print.
+  private static Long integer(Expr expr) {
+    if (!(expr instanceof Expr.Literal)) return null;
+    Object value = ((Expr.Literal) expr).value;
+    if (!(value instanceof Double)) return null;
+
+    double number = (double) value;
+    if (number != Math.rint(number) || Math.abs(number) > MAX_EXACT) return null;
+    if (Double.doubleToRawLongBits(number) == Double.doubleToRawLongBits(-0.0)) {
+      return null;
+    }
+    return (long) number;
+  }
+
+  // Replaces reads of a loop's variable with reads of its counter.
+  private static class Counters extends TreeRewriter {
+    private final String name;
+    private final int slot;
+
+    Counters(String name, int slot) {
+      this.name = name;
+      this.slot = slot;
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+      if (!expr.name.lexeme.equals(name)) return expr;
+      return new Expr.Counter(expr.name, slot);
+    }
+  }
+}
@@ -0,0 +1,98 @@
+package translation;
+
+import java.util.List;
+
+/**
+ * Removes code that can never run or whose running makes no difference:
+ *
+ * - an if with a literal condition becomes the branch it always takes,
+ *   and a while whose condition is a falsy literal goes away;
+ * - statements after one that always returns are dropped;
+ * - expression statements that are pure (see SideEffects) are dropped;
+ * - a var whose name is never used anywhere in the program is dropped if
+ *   its initializer is pure;
+ * - a block left empty is dropped, and a block holding nothing but
+ *   another block becomes that block.
+ *
+ * A branch is never a declaration on its own, so replacing an if with one
+ * of its branches cannot move a variable into a different scope.
+ */
+class DeadCodeEliminator extends TreeRewriter {
+  // Null when working on a statement on its own, where a later statement
+  // might still use any variable.
+  private final Names names;
+
+  DeadCodeEliminator(Names names) {
+    this.names = names;
+  }
+
+  @Override
+  List<Stmt> rewrite(List<Stmt> statements) {
+    List<Stmt> rewritten = super.rewrite(statements);
+    for (int i = 0; i < rewritten.size() - 1; i++) {
+      if (alwaysReturns(rewritten.get(i))) return rewritten.subList(0, i + 1);
+    }
+    return rewritten;
+  }
+
+  private static boolean alwaysReturns(Stmt stmt) {
+    if (stmt instanceof Stmt.Return) return true;
+    if (stmt instanceof Stmt.Block) {
+      for (Stmt statement : ((Stmt.Block) stmt).statements) {
+        if (alwaysReturns(statement)) return true;
+      }
+      return false;
+    }
+    if (stmt instanceof Stmt.If) {
+      Stmt.If ifStmt = (Stmt.If) stmt;
+      return ifStmt.elseBranch != null && alwaysReturns(ifStmt.thenBranch)
+          && alwaysReturns(ifStmt.elseBranch);
+    }
+    return false;
+  }
+
+  @Override
+  public Stmt visitBlockStmt(Stmt.Block stmt) {
+    Stmt.Block block = (Stmt.Block) super.visitBlockStmt(stmt);
+    // Either way the block being dropped declares nothing, but running it
+    // would still make an environment.
+    if (block.statements.isEmpty()) return null;
+    if (block.statements.size() == 1 && block.statements.get(0) instanceof Stmt.Block) {
+      return block.statements.get(0);
+    }
+    return block;
+  }
+
+  @Override
+  public Stmt visitIfStmt(Stmt.If stmt) {
+    if (stmt.condition instanceof Expr.Literal) {
+      boolean taken = Interpreter.isTruthy(((Expr.Literal) stmt.condition).value);
+      return rewrite(taken ? stmt.thenBranch : stmt.elseBranch);
+    }
+    return super.visitIfStmt(stmt);
+  }
+
+  @Override
+  public Stmt visitWhileStmt(Stmt.While stmt) {
+    if (stmt.condition instanceof Expr.Literal
+        && !Interpreter.isTruthy(((Expr.Literal) stmt.condition).value)) {
+      return null;
+    }
+    return super.visitWhileStmt(stmt);
+  }
+
+  @Override
+  public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+    if (SideEffects.isPure(stmt.expression)) return null;
+    return stmt;
+  }
+
+  @Override
+  public Stmt visitVarStmt(Stmt.Var stmt) {
+    if (names != null && !names.isUsed(stmt.name.lexeme)
+        && (stmt.initializer == null || SideEffects.isPure(stmt.initializer))) {
+      return null;
+    }
+    return stmt;
+  }
+}
@@ -0,0 +1,43 @@
+package translation;
+
+// A syntax error that is collected instead of being printed right away,
+// so the caller can decide whether and in what order to report it.
+class Diagnostic {
+  final int line;
+  final String where;
+  final String message;
+  // The stretch of source the error is about, for tools that underline
+  // it. The offset is -1 when it is not known.
+  final int offset;
+  final int length;
+
+  Diagnostic(int line, int offset, int length, String message) {
+    this(line, "", message, offset, length);
+  }
+
+  Diagnostic(Token token, String message) {
+    this(token.line,
+        token.type == TokenType.EOF ? " at end" : " at '" + token.lexeme + "'",
+        message, token.offset, token.lexeme.length());
+  }
+
+  private Diagnostic(int line, String where, String message,
+                     int offset, int length) {
+    this.line = line;
+    this.where = where;
+    this.message = message;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  // The same error, moved by the given number of lines and characters.
+  Diagnostic moved(int lines, int characters) {
+    return new Diagnostic(line + lines, where, message,
+        offset + characters, length);
+  }
+
+  @Override
+  public String toString() {
+    return "[line " + line + "] Error" + where + ": " + message;
+  }
+}
@@ -2,23 +2,124 @@ package translation;
 
 import java.util.List;
 
-abstract class Expr {
+abstract sealed class Expr {
+  static final int ASSIGN = 0;
+  static final int ADD = 1;
+  static final int SUBTRACT = 2;
+  static final int MULTIPLY = 3;
+  static final int DIVIDE = 4;
+  static final int GREATER = 5;
+  static final int GREATER_EQUAL = 6;
+  static final int LESS = 7;
+  static final int LESS_EQUAL = 8;
+  static final int EQUAL = 9;
+  static final int NOT_EQUAL = 10;
+  static final int CALL = 11;
+  static final int GROUPING = 12;
+  static final int LITERAL = 13;
+  static final int AND = 14;
+  static final int OR = 15;
+  static final int NOT = 16;
+  static final int NEGATE = 17;
+  static final int VARIABLE = 18;
+  static final int DYNAMIC = 19;
+  static final int READ = 20;
+  static final int RAND = 21;
+  static final int COUNTER = 22;
+  static final int NUMBER_ADD = 23;
+  static final int NUMBER_SUBTRACT = 24;
+  static final int NUMBER_MULTIPLY = 25;
+  static final int NUMBER_DIVIDE = 26;
+  static final int NUMBER_GREATER = 27;
+  static final int NUMBER_GREATER_EQUAL = 28;
+  static final int NUMBER_LESS = 29;
+  static final int NUMBER_LESS_EQUAL = 30;
+
   interface Visitor<R> {
     R visitAssignExpr(Assign expr);
     R visitBinaryExpr(Binary expr);
+    default R visitAddExpr(Add expr) {
+      return visitBinaryExpr(expr);
+    }
+    default R visitSubtractExpr(Subtract expr) {
+      return visitBinaryExpr(expr);
+    }
+    default R visitMultiplyExpr(Multiply expr) {
+      return visitBinaryExpr(expr);
+    }
+    default R visitDivideExpr(Divide expr) {
+      return visitBinaryExpr(expr);
+    }
+    default R visitGreaterExpr(Greater expr) {
+      return visitBinaryExpr(expr);
+    }
+    default R visitGreaterEqualExpr(GreaterEqual expr) {
+      return visitBinaryExpr(expr);
+    }
+    default R visitLessExpr(Less expr) {
+      return visitBinaryExpr(expr);
+    }
+    default R visitLessEqualExpr(LessEqual expr) {
+      return visitBinaryExpr(expr);
+    }
+    default R visitEqualExpr(Equal expr) {
+      return visitBinaryExpr(expr);
+    }
+    default R visitNotEqualExpr(NotEqual expr) {
+      return visitBinaryExpr(expr);
+    }
     R visitCallExpr(Call expr);
     R visitGroupingExpr(Grouping expr);
     R visitLiteralExpr(Literal expr);
     R visitLogicalExpr(Logical expr);
+    default R visitAndExpr(And expr) {
+      return visitLogicalExpr(expr);
+    }
+    default R visitOrExpr(Or expr) {
+      return visitLogicalExpr(expr);
+    }
     R visitUnaryExpr(Unary expr);
+    default R visitNotExpr(Not expr) {
+      return visitUnaryExpr(expr);
+    }
+    default R visitNegateExpr(Negate expr) {
+      return visitUnaryExpr(expr);
+    }
     R visitVariableExpr(Variable expr);
     R visitDynamicExpr(Dynamic expr);
-    R visitReadExpr(Read expr); 
+    R visitReadExpr(Read expr);
     R visitRandExpr(Rand expr);
+    R visitCounterExpr(Counter expr);
+    R visitNumericExpr(Numeric expr);
+    default R visitNumberAddExpr(NumberAdd expr) {
+      return visitNumericExpr(expr);
+    }
+    default R visitNumberSubtractExpr(NumberSubtract expr) {
+      return visitNumericExpr(expr);
+    }
+    default R visitNumberMultiplyExpr(NumberMultiply expr) {
+      return visitNumericExpr(expr);
+    }
+    default R visitNumberDivideExpr(NumberDivide expr) {
+      return visitNumericExpr(expr);
+    }
+    default R visitNumberGreaterExpr(NumberGreater expr) {
+      return visitNumericExpr(expr);
+    }
+    default R visitNumberGreaterEqualExpr(NumberGreaterEqual expr) {
+      return visitNumericExpr(expr);
+    }
+    default R visitNumberLessExpr(NumberLess expr) {
+      return visitNumericExpr(expr);
+    }
+    default R visitNumberLessEqualExpr(NumberLessEqual expr) {
+      return visitNumericExpr(expr);
+    }
   }
 
-  static class Assign extends Expr {
+  static final class Assign extends Expr {
     Assign(Token name, Expr value) {
+      super(ASSIGN);
       this.name = name;
       this.value = value;
     }
@@ -32,16 +133,30 @@ abstract class Expr {
     final Expr value;
   }
 
-  static class Binary extends Expr {
-    Binary(Expr left, Token operator, Expr right) {
+  abstract static sealed class Binary extends Expr {
+    private Binary(int kind, Expr left, Token operator, Expr right) {
+      super(kind);
       this.left = left;
       this.operator = operator;
       this.right = right;
     }
 
-    @Override
-    <R> R accept(Visitor<R> visitor) {
-      return visitor.visitBinaryExpr(this);
+    static Binary of(Expr left, Token operator, Expr right) {
+      switch (operator.type) {
+        case PLUS: return new Add(left, operator, right);
+        case MINUS: return new Subtract(left, operator, right);
+        case STAR: return new Multiply(left, operator, right);
+        case SLASH: return new Divide(left, operator, right);
+        case GREATER: return new Greater(left, operator, right);
+        case GREATER_EQUAL: return new GreaterEqual(left, operator, right);
+        case LESS: return new Less(left, operator, right);
+        case LESS_EQUAL: return new LessEqual(left, operator, right);
+        case EQUAL_EQUAL: return new Equal(left, operator, right);
+        case BANG_EQUAL: return new NotEqual(left, operator, right);
+        default:
+          throw new IllegalArgumentException(
+              "Not a binary operator: " + operator.type + ".");
+      }
     }
 
     final Expr left;
@@ -49,8 +164,119 @@ abstract class Expr {
     final Expr right;
   }
 
-  static class Call extends Expr {
+  static final class Add extends Binary {
+    Add(Expr left, Token operator, Expr right) {
+      super(ADD, left, operator, right);
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitAddExpr(this);
+    }
+  }
+
+  static final class Subtract extends Binary {
+    Subtract(Expr left, Token operator, Expr right) {
+      super(SUBTRACT, left, operator, right);
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitSubtractExpr(this);
+    }
+  }
+
+  static final class Multiply extends Binary {
+    Multiply(Expr left, Token operator, Expr right) {
+      super(MULTIPLY, left, operator, right);
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitMultiplyExpr(this);
+    }
+  }
+
+  static final class Divide extends Binary {
+    Divide(Expr left, Token operator, Expr right) {
+      super(DIVIDE, left, operator, right);
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitDivideExpr(this);
+    }
+  }
+
+  static final class Greater extends Binary {
+    Greater(Expr left, Token operator, Expr right) {
+      super(GREATER, left, operator, right);
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitGreaterExpr(this);
+    }
+  }
+
+  static final class GreaterEqual extends Binary {
+    GreaterEqual(Expr left, Token operator, Expr right) {
+      super(GREATER_EQUAL, left, operator, right);
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitGreaterEqualExpr(this);
+    }
+  }
+
+  static final class Less extends Binary {
+    Less(Expr left, Token operator, Expr right) {
+      super(LESS, left, operator, right);
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitLessExpr(this);
+    }
+  }
+
+  static final class LessEqual extends Binary {
+    LessEqual(Expr left, Token operator, Expr right) {
+      super(LESS_EQUAL, left, operator, right);
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitLessEqualExpr(this);
+    }
+  }
+
+  static final class Equal extends Binary {
+    Equal(Expr left, Token operator, Expr right) {
+      super(EQUAL, left, operator, right);
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitEqualExpr(this);
+    }
+  }
+
+  static final class NotEqual extends Binary {
+    NotEqual(Expr left, Token operator, Expr right) {
+      super(NOT_EQUAL, left, operator, right);
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitNotEqualExpr(this);
+    }
+  }
+
+  static final class Call extends Expr {
     Call(Expr callee, Token paren, List<Expr> arguments) {
+      super(CALL);
       this.callee = callee;
       this.paren = paren;
       this.arguments = arguments;
@@ -66,8 +292,9 @@ abstract class Expr {
     final List<Expr> arguments;
   }
 
-  static class Grouping extends Expr {
+  static final class Grouping extends Expr {
     Grouping(Expr expression) {
+      super(GROUPING);
       this.expression = expression;
     }
 
@@ -79,8 +306,9 @@ abstract class Expr {
     final Expr expression;
   }
 
-  static class Literal extends Expr {
+  static final class Literal extends Expr {
     Literal(Object value) {
+      super(LITERAL);
       this.value = value;
     }
 
@@ -92,16 +320,22 @@ abstract class Expr {
     final Object value;
   }
 
-  static class Logical extends Expr {
-    Logical(Expr left, Token operator, Expr right) {
+  abstract static sealed class Logical extends Expr {
+    private Logical(int kind, Expr left, Token operator, Expr right) {
+      super(kind);
       this.left = left;
       this.operator = operator;
       this.right = right;
     }
 
-    @Override
-    <R> R accept(Visitor<R> visitor) {
-      return visitor.visitLogicalExpr(this);
+    static Logical of(Expr left, Token operator, Expr right) {
+      switch (operator.type) {
+        case AND: return new And(left, operator, right);
+        case OR: return new Or(left, operator, right);
+        default:
+          throw new IllegalArgumentException(
+              "Not a logical operator: " + operator.type + ".");
+      }
     }
 
     final Expr left;
@@ -109,23 +343,74 @@ abstract class Expr {
     final Expr right;
   }
 
-  static class Unary extends Expr {
-    Unary(Token operator, Expr right) {
-      this.operator = operator;
-      this.right = right;
+  static final class And extends Logical {
+    And(Expr left, Token operator, Expr right) {
+      super(AND, left, operator, right);
     }
 
     @Override
     <R> R accept(Visitor<R> visitor) {
-      return visitor.visitUnaryExpr(this);
+      return visitor.visitAndExpr(this);
+    }
+  }
+
+  static final class Or extends Logical {
+    Or(Expr left, Token operator, Expr right) {
+      super(OR, left, operator, right);
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitOrExpr(this);
+    }
+  }
+
+  abstract static sealed class Unary extends Expr {
+    private Unary(int kind, Token operator, Expr right) {
+      super(kind);
+      this.operator = operator;
+      this.right = right;
+    }
+
+    static Unary of(Token operator, Expr right) {
+      switch (operator.type) {
+        case BANG: return new Not(operator, right);
+        case MINUS: return new Negate(operator, right);
+        default:
+          throw new IllegalArgumentException(
+              "Not a unary operator: " + operator.type + ".");
+      }
     }
 
     final Token operator;
     final Expr right;
   }
 
-  static class Variable extends Expr {
+  static final class Not extends Unary {
+    Not(Token operator, Expr right) {
+      super(NOT, operator, right);
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitNotExpr(this);
+    }
+  }
+
+  static final class Negate extends Unary {
+    Negate(Token operator, Expr right) {
+      super(NEGATE, operator, right);
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitNegateExpr(this);
+    }
+  }
+
+  static final class Variable extends Expr {
     Variable(Token name) {
+      super(VARIABLE);
       this.name = name;
     }
 
@@ -137,8 +422,9 @@ abstract class Expr {
     final Token name;
   }
 
-  static class Dynamic extends Expr {
+  static final class Dynamic extends Expr {
     Dynamic(Token token, Object value) {
+      super(DYNAMIC);
       this.token = token;
       this.value = value;
     }
@@ -152,19 +438,167 @@ abstract class Expr {
     final Object value;
   }
 
-  static class Read extends Expr {
+  static final class Read extends Expr {
+    Read() {
+      super(READ);
+    }
+
     @Override
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitReadExpr(this);
     }
   }
 
-  abstract <R> R accept(Visitor<R> visitor);
+  static final class Rand extends Expr {
+    Rand() {
+      super(RAND);
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitRandExpr(this);
+    }
+  }
+
+  static final class Counter extends Expr {
+    Counter(Token name, int slot) {
+      super(COUNTER);
+      this.name = name;
+      this.slot = slot;
+    }
 
-  static class Rand extends Expr {
     @Override
     <R> R accept(Visitor<R> visitor) {
-        return visitor.visitRandExpr(this);
+      return visitor.visitCounterExpr(this);
     }
+
+    final Token name;
+    final int slot;
   }
+
+  abstract static sealed class Numeric extends Expr {
+    private Numeric(int kind, Expr left, Token operator, Expr right) {
+      super(kind);
+      this.left = left;
+      this.operator = operator;
+      this.right = right;
+    }
+
+    static Numeric of(Expr left, Token operator, Expr right) {
+      switch (operator.type) {
+        case PLUS: return new NumberAdd(left, operator, right);
+        case MINUS: return new NumberSubtract(left, operator, right);
+        case STAR: return new NumberMultiply(left, operator, right);
+        case SLASH: return new NumberDivide(left, operator, right);
+        case GREATER: return new NumberGreater(left, operator, right);
+        case GREATER_EQUAL: return new NumberGreaterEqual(left, operator, right);
+        case LESS: return new NumberLess(left, operator, right);
+        case LESS_EQUAL: return new NumberLessEqual(left, operator, right);
+        default:
+          throw new IllegalArgumentException(
+              "Not a numeric operator: " + operator.type + ".");
+      }
+    }
+
+    final Expr left;
+    final Token operator;
+    final Expr right;
+  }
+
+  static final class NumberAdd extends Numeric {
+    NumberAdd(Expr left, Token operator, Expr right) {
+      super(NUMBER_ADD, left, operator, right);
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitNumberAddExpr(this);
+    }
+  }
+
+  static final class NumberSubtract extends Numeric {
+    NumberSubtract(Expr left, Token operator, Expr right) {
+      super(NUMBER_SUBTRACT, left, operator, right);
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitNumberSubtractExpr(this);
+    }
+  }
+
+  static final class NumberMultiply extends Numeric {
+    NumberMultiply(Expr left, Token operator, Expr right) {
+      super(NUMBER_MULTIPLY, left, operator, right);
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitNumberMultiplyExpr(this);
+    }
+  }
+
+  static final class NumberDivide extends Numeric {
+    NumberDivide(Expr left, Token operator, Expr right) {
+      super(NUMBER_DIVIDE, left, operator, right);
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitNumberDivideExpr(this);
+    }
+  }
+
+  static final class NumberGreater extends Numeric {
+    NumberGreater(Expr left, Token operator, Expr right) {
+      super(NUMBER_GREATER, left, operator, right);
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitNumberGreaterExpr(this);
+    }
+  }
+
+  static final class NumberGreaterEqual extends Numeric {
+    NumberGreaterEqual(Expr left, Token operator, Expr right) {
+      super(NUMBER_GREATER_EQUAL, left, operator, right);
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitNumberGreaterEqualExpr(this);
+    }
+  }
+
+  static final class NumberLess extends Numeric {
+    NumberLess(Expr left, Token operator, Expr right) {
+      super(NUMBER_LESS, left, operator, right);
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitNumberLessExpr(this);
+    }
+  }
+
+  static final class NumberLessEqual extends Numeric {
+    NumberLessEqual(Expr left, Token operator, Expr right) {
+      super(NUMBER_LESS_EQUAL, left, operator, right);
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitNumberLessEqualExpr(this);
+    }
+  }
+
+  // Which subclass this is, as one of the constants above.
+  final int kind;
+
+  private Expr(int kind) {
+    this.kind = kind;
+  }
+
+  abstract <R> R accept(Visitor<R> visitor);
 }
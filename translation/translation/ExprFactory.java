@@ -0,0 +1,48 @@
+package translation;
+
+import java.util.List;
+
+// Makes the expression nodes the parser builds. The parser never calls an
+// Expr constructor itself, so a subclass can change how nodes are made,
+// as InterningExprFactory does.
+class ExprFactory {
+  Expr assign(Token name, Expr value) {
+    return new Expr.Assign(name, value);
+  }
+
+  Expr binary(Expr left, Token operator, Expr right) {
+    return Expr.Binary.of(left, operator, right);
+  }
+
+  Expr call(Expr callee, Token paren, List<Expr> arguments) {
+    return new Expr.Call(callee, paren, arguments);
+  }
+
+  Expr grouping(Expr expression) {
+    return new Expr.Grouping(expression);
+  }
+
+  Expr literal(Object value) {
+    return new Expr.Literal(value);
+  }
+
+  Expr logical(Expr left, Token operator, Expr right) {
+    return Expr.Logical.of(left, operator, right);
+  }
+
+  Expr unary(Token operator, Expr right) {
+    return Expr.Unary.of(operator, right);
+  }
+
+  Expr variable(Token name) {
+    return new Expr.Variable(name);
+  }
+
+  Expr read() {
+    return new Expr.Read();
+  }
+
+  Expr rand() {
+    return new Expr.Rand();
+  }
+}
@@ -0,0 +1,347 @@
+package translation;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A syntax tree packed into int arrays, run by FlatInterpreter.
+ *
+ * Every node is NODE_SIZE consecutive ints in nodes: its kind and three
+ * operands A, B and C whose meaning depends on the kind (see the table
+ * below). Operands are node indexes, constant pool indexes, or indexes
+ * into lists, which holds variable length lists (block statements, call
+ * arguments, parameters) as a count followed by the elements. NONE marks
+ * an absent operand. offsets has the source offset of each node's main
+ * token, or -1.
+ *
+ * The constant pool holds literal values and the Tokens that runtime
+ * errors and variable lookups need. Groupings have no node of their own,
+ * and each binary operator has its own kind, so evaluating one needs no
+ * second dispatch on the operator.
+ *
+ * Nodes are appended as statements are added, children before parents.
+ */
+final class FlatAst {
+  static final int NODE_SIZE = 4;
+  static final int NONE = -1;
+
+  // Expressions.                  A          B           C
+  static final int LITERAL = 0;    // constant
+  static final int VARIABLE = 1;   // name
+  static final int ASSIGN = 2;     // name       value
+  static final int ADD = 3;        // left       right       operator
+  static final int SUBTRACT = 4;   // left       right       operator
+  static final int MULTIPLY = 5;   // left       right       operator
+  static final int DIVIDE = 6;     // left       right       operator
+  static final int GREATER = 7;    // left       right       operator
+  static final int GREATER_EQUAL = 8;
+  static final int LESS = 9;
+  static final int LESS_EQUAL = 10;
+  static final int EQUAL = 11;     // left       right
+  static final int NOT_EQUAL = 12; // left       right
+  static final int AND = 13;       // left       right
+  static final int OR = 14;        // left       right
+  static final int NEGATE = 15;    // operand                operator
+  static final int NOT = 16;       // operand
+  static final int CALL = 17;      // callee     arguments   paren
+  static final int READ = 18;
+  static final int RAND = 19;
+
+  // Statements.
+  static final int EXPRESSION = 20; // expression
+  static final int PRINT = 21;      // expression
+  static final int VAR = 22;        // name      initializer
+  static final int BLOCK = 23;      //           statements
+  static final int IF = 24;         // condition then        else
+  static final int WHILE = 25;      // condition body
+  static final int FUNCTION = 26;   // name      parameters  body
+  static final int RETURN = 27;     // value                 keyword
+  static final int STRING_LOOP = 28; // name     iterable    body
+  static final int ERROR = 29;      // token     message
+
+  // Made by the optimizer.
+  static final int COUNTER = 30;       // slot
+  static final int COUNTING_LOOP = 31; // loop      limit       body
+  // Operators whose operands are known to be numbers.
+  static final int NUMBER_ADD = 32;    // left       right
+  static final int NUMBER_SUBTRACT = 33;
+  static final int NUMBER_MULTIPLY = 34;
+  static final int NUMBER_DIVIDE = 35;
+  static final int NUMBER_GREATER = 36;
+  static final int NUMBER_GREATER_EQUAL = 37;
+  static final int NUMBER_LESS = 38;
+  static final int NUMBER_LESS_EQUAL = 39;
+
+  int[] nodes = new int[NODE_SIZE * 256];
+  int[] offsets = new int[256];
+  int nodeCount = 0;
+  int[] lists = new int[256];
+  int listsSize = 0;
+  Object[] constants = new Object[64];
+  int constantCount = 0;
+
+  private final Map<Object, Integer> values = new HashMap<>();
+  private final Encoder encoder = new Encoder();
+
+  // Encodes a statement and everything under it. Returns its node.
+  int add(Stmt statement) {
+    return statement.accept(encoder);
+  }
+
+  // Encodes the statements as one list. Returns the list's index.
+  int addAll(List<Stmt> statements) {
+    int[] encoded = new int[statements.size()];
+    for (int i = 0; i < encoded.length; i++) {
+      encoded[i] = add(statements.get(i));
+    }
+    return list(encoded);
+  }
+
+  int kind(int node) {
+    return nodes[node * NODE_SIZE];
+  }
+
+  private int node(int kind, int a, int b, int c, Token token) {
+    if ((nodeCount + 1) * NODE_SIZE > nodes.length) {
+      nodes = Arrays.copyOf(nodes, nodes.length * 2);
+      offsets = Arrays.copyOf(offsets, offsets.length * 2);
+    }
+
+    int base = nodeCount * NODE_SIZE;
+    nodes[base] = kind;
+    nodes[base + 1] = a;
+    nodes[base + 2] = b;
+    nodes[base + 3] = c;
+    offsets[nodeCount] = token == null ? -1 : token.offset;
+    return nodeCount++;
+  }
+
+  private int list(int[] elements) {
+    while (listsSize + elements.length + 1 > lists.length) {
+      lists = Arrays.copyOf(lists, lists.length * 2);
+    }
+
+    int start = listsSize;
+    lists[listsSize++] = elements.length;
+    System.arraycopy(elements, 0, lists, listsSize, elements.length);
+    listsSize += elements.length;
+    return start;
+  }
+
+  // Tokens are never shared; equal values are.
+  private int constant(Object value) {
+    if (!(value instanceof Token)) {
+      Integer known = values.get(value);
+      if (known != null) return known;
+      values.put(value, constantCount);
+    }
+
+    if (constantCount == constants.length) {
+      constants = Arrays.copyOf(constants, constantCount * 2);
+    }
+    constants[constantCount] = value;
+    return constantCount++;
+  }
+
+  private class Encoder implements Stmt.Visitor<Integer>, Expr.Visitor<Integer> {
+    private int encode(Expr expr) {
+      return expr == null ? NONE : expr.accept(this);
+    }
+
+    private int encode(Stmt stmt) {
+      return stmt == null ? NONE : stmt.accept(this);
+    }
+
+    @Override
+    public Integer visitBlockStmt(Stmt.Block stmt) {
+      return node(BLOCK, NONE, addAll(stmt.statements), NONE, null);
+    }
+
+    @Override
+    public Integer visitExpressionStmt(Stmt.Expression stmt) {
+      return node(EXPRESSION, encode(stmt.expression), NONE, NONE, null);
+    }
+
+    @Override
+    public Integer visitFunctionStmt(Stmt.Function stmt) {
+      int[] parameters = new int[stmt.params.size()];
+      for (int i = 0; i < parameters.length; i++) {
+        parameters[i] = constant(stmt.params.get(i));
+      }
+      int body = addAll(stmt.body);
+      return node(FUNCTION, constant(stmt.name), list(parameters), body,
+          stmt.name);
+    }
+
+    @Override
+    public Integer visitIfStmt(Stmt.If stmt) {
+      int condition = encode(stmt.condition);
+      int thenBranch = encode(stmt.thenBranch);
+      int elseBranch = encode(stmt.elseBranch);
+      return node(IF, condition, thenBranch, elseBranch, null);
+    }
+
+    @Override
+    public Integer visitPrintStmt(Stmt.Print stmt) {
+      return node(PRINT, encode(stmt.expression), NONE, NONE, null);
+    }
+
+    @Override
+    public Integer visitReturnStmt(Stmt.Return stmt) {
+      return node(RETURN, encode(stmt.value), NONE, constant(stmt.keyword),
+          stmt.keyword);
+    }
+
+    @Override
+    public Integer visitVarStmt(Stmt.Var stmt) {
+      int initializer = encode(stmt.initializer);
+      return node(VAR, constant(stmt.name), initializer, NONE, stmt.name);
+    }
+
+    @Override
+    public Integer visitWhileStmt(Stmt.While stmt) {
+      int condition = encode(stmt.condition);
+      int body = encode(stmt.body);
+      return node(WHILE, condition, body, NONE, null);
+    }
+
+    @Override
+    public Integer visitStringLoopStmt(Stmt.StringLoop stmt) {
+      int iterable = encode(stmt.iterable);
+      int body = encode(stmt.body);
+      return node(STRING_LOOP, constant(stmt.name), iterable, body, stmt.name);
+    }
+
+    @Override
+    public Integer visitErrorStmt(Stmt.Error stmt) {
+      return node(ERROR, constant(stmt.token), constant(stmt.message), NONE,
+          stmt.token);
+    }
+
+    // The loop's counter fields stay in the Stmt, in the constant pool.
+    @Override
+    public Integer visitCountingLoopStmt(Stmt.CountingLoop stmt) {
+      int limit = encode(stmt.limit);
+      int body = encode(stmt.body);
+      return node(COUNTING_LOOP, constant(stmt), limit, body, stmt.name);
+    }
+
+    @Override
+    public Integer visitAssignExpr(Expr.Assign expr) {
+      int value = encode(expr.value);
+      return node(ASSIGN, constant(expr.name), value, NONE, expr.name);
+    }
+
+    @Override
+    public Integer visitBinaryExpr(Expr.Binary expr) {
+      int kind;
+      switch (expr.operator.type) {
+        case PLUS: kind = ADD; break;
+        case MINUS: kind = SUBTRACT; break;
+        case STAR: kind = MULTIPLY; break;
+        case SLASH: kind = DIVIDE; break;
+        case GREATER: kind = GREATER; break;
+        case GREATER_EQUAL: kind = GREATER_EQUAL; break;
+        case LESS: kind = LESS; break;
+        case LESS_EQUAL: kind = LESS_EQUAL; break;
+        case EQUAL_EQUAL: kind = EQUAL; break;
+        case BANG_EQUAL: kind = NOT_EQUAL; break;
+        default:
+          throw new IllegalArgumentException(
+              "Unknown binary operator " + expr.operator.type + ".");
+      }
+
+      int left = encode(expr.left);
+      int right = encode(expr.right);
+      return node(kind, left, right, constant(expr.operator), expr.operator);
+    }
+
+    @Override
+    public Integer visitCallExpr(Expr.Call expr) {
+      int callee = encode(expr.callee);
+      int[] arguments = new int[expr.arguments.size()];
+      for (int i = 0; i < arguments.length; i++) {
+        arguments[i] = encode(expr.arguments.get(i));
+      }
+      return node(CALL, callee, list(arguments), constant(expr.paren),
+          expr.paren);
+    }
+
+    @Override
+    public Integer visitGroupingExpr(Expr.Grouping expr) {
+      return encode(expr.expression);
+    }
+
+    @Override
+    public Integer visitLiteralExpr(Expr.Literal expr) {
+      return node(LITERAL, constant(expr.value), NONE, NONE, null);
+    }
+
+    @Override
+    public Integer visitLogicalExpr(Expr.Logical expr) {
+      int left = encode(expr.left);
+      int right = encode(expr.right);
+      int kind = expr.operator.type == TokenType.OR ? OR : AND;
+      return node(kind, left, right, NONE, expr.operator);
+    }
+
+    @Override
+    public Integer visitUnaryExpr(Expr.Unary expr) {
+      int operand = encode(expr.right);
+      if (expr.operator.type == TokenType.BANG) {
+        return node(NOT, operand, NONE, NONE, expr.operator);
+      }
+      return node(NEGATE, operand, NONE, constant(expr.operator),
+          expr.operator);
+    }
+
+    @Override
+    public Integer visitVariableExpr(Expr.Variable expr) {
+      return node(VARIABLE, constant(expr.name), NONE, NONE, expr.name);
+    }
+
+    @Override
+    public Integer visitDynamicExpr(Expr.Dynamic expr) {
+      return node(LITERAL, constant(expr.value), NONE, NONE, expr.token);
+    }
+
+    @Override
+    public Integer visitReadExpr(Expr.Read expr) {
+      return node(READ, NONE, NONE, NONE, null);
+    }
+
+    @Override
+    public Integer visitRandExpr(Expr.Rand expr) {
+      return node(RAND, NONE, NONE, NONE, null);
+    }
+
+    @Override
+    public Integer visitCounterExpr(Expr.Counter expr) {
+      return node(COUNTER, expr.slot, NONE, NONE, expr.name);
+    }
+
+    @Override
+    public Integer visitNumericExpr(Expr.Numeric expr) {
+      int kind;
+      switch (expr.operator.type) {
+        case PLUS: kind = NUMBER_ADD; break;
+        case MINUS: kind = NUMBER_SUBTRACT; break;
+        case STAR: kind = NUMBER_MULTIPLY; break;
+        case SLASH: kind = NUMBER_DIVIDE; break;
+        case GREATER: kind = NUMBER_GREATER; break;
+        case GREATER_EQUAL: kind = NUMBER_GREATER_EQUAL; break;
+        case LESS: kind = NUMBER_LESS; break;
+        case LESS_EQUAL: kind = NUMBER_LESS_EQUAL; break;
+        default:
+          throw new IllegalArgumentException(
+              "Unknown numeric operator " + expr.operator.type + ".");
+      }
+
+      int left = encode(expr.left);
+      int right = encode(expr.right);
+      return node(kind, left, right, NONE, expr.operator);
+    }
+  }
+}
@@ -0,0 +1,404 @@
+package translation;
+
+import static translation.FlatAst.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a FlatAst. It behaves exactly like Interpreter, whose natives,
+ * input and helpers it inherits, but instead of visiting node objects it
+ * switches on the kind stored in the node array.
+ */
+class FlatInterpreter extends Interpreter {
+  private Environment environment = globals;
+  private int[] nodes;
+  private int[] lists;
+  private Object[] constants;
+  // Set by a return statement, which then makes execute() return true
+  // all the way out to the function call. Unwinding with the Return
+  // exception instead costs a trip through every frame's handler table,
+  // because execute() calls itself and cannot be inlined into one piece.
+  private Object returnValue = null;
+  // Set instead by a return whose value is a call to a FlatFunction, for
+  // the function that is returning to make in its place.
+  private FlatFunction tailFunction = null;
+  private List<Object> tailArguments = null;
+
+  // A function declared in flat code.
+  private class FlatFunction implements LoxCallable {
+    private final int declaration;
+    private final Environment closure;
+
+    FlatFunction(int declaration, Environment closure) {
+      this.declaration = declaration;
+      this.closure = closure;
+    }
+
+    @Override
+    public int arity() {
+      return lists[nodes[declaration * NODE_SIZE + 2]];
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+      FlatFunction function = this;
+      functionDepth++;
+      try {
+        while (true) {
+          int base = function.declaration * NODE_SIZE;
+          int parameters = nodes[base + 2];
+          Environment environment = new Environment(function.closure);
+          for (int i = 0; i < arguments.size(); i++) {
+            environment.define(name(lists[parameters + 1 + i]), arguments.get(i));
+          }
+
+          if (!executeBlock(nodes[base + 3], environment)) return null;
+
+          if (tailFunction != null) {
+            function = tailFunction;
+            arguments = tailArguments;
+            tailFunction = null;
+            tailArguments = null;
+            continue;
+          }
+
+          Object value = returnValue;
+          returnValue = null;
+          return value;
+        }
+      } finally {
+        functionDepth--;
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "<fn " + name(nodes[declaration * NODE_SIZE + 1]) + ">";
+    }
+  }
+
+  // Runs the statements in the given list of the tree.
+  void interpret(FlatAst ast, int statements) {
+    load(ast);
+    try {
+      int count = lists[statements];
+      for (int i = 1; i <= count; i++) {
+        run(lists[statements + i]);
+      }
+    } catch (RuntimeError error) {
+      Lox.runtimeError(error);
+    }
+  }
+
+  // Runs one top-level statement. Returns false if it hit a runtime error.
+  boolean interpretStatement(FlatAst ast, int statement) {
+    load(ast);
+    try {
+      run(statement);
+      return true;
+    } catch (RuntimeError error) {
+      Lox.runtimeError(error);
+      return false;
+    }
+  }
+
+  // The tree's arrays are replaced as it grows, so pick up the current
+  // ones before running anything new.
+  private void load(FlatAst ast) {
+    nodes = ast.nodes;
+    lists = ast.lists;
+    constants = ast.constants;
+  }
+
+  // A return outside any function ends up where the tree interpreter's
+  // would: as a Return exception nobody catches.
+  private void run(int statement) {
+    if (execute(statement)) throw new Return(returnValue);
+  }
+
+  // Returns true if a return statement ran.
+  private boolean executeBlock(int statements, Environment environment) {
+    Environment previous = this.environment;
+    try {
+      this.environment = environment;
+
+      int count = lists[statements];
+      for (int i = 1; i <= count; i++) {
+        if (execute(lists[statements + i])) return true;
+      }
+      return false;
+    } finally {
+      this.environment = previous;
+    }
+  }
+
+  // Returns true if a return statement ran.
+  private boolean execute(int node) {
+    int base = node * NODE_SIZE;
+    int a = nodes[base + 1];
+    int b = nodes[base + 2];
+    int c = nodes[base + 3];
+
+    switch (nodes[base]) {
+      case EXPRESSION:
+        evaluate(a);
+        return false;
+      case PRINT:
+        System.out.println(stringify(evaluate(a)));
+        return false;
+      case VAR: {
+        Object value = b == NONE ? null : evaluate(b);
+        environment.define(name(a), value);
+        return false;
+      }
+      case BLOCK:
+        return executeBlock(b, new Environment(environment));
+      case IF:
+        if (isTruthy(evaluate(a))) return execute(b);
+        if (c != NONE) return execute(c);
+        return false;
+      case WHILE:
+        while (isTruthy(evaluate(a))) {
+          if (execute(b)) return true;
+        }
+        return false;
+      case FUNCTION:
+        environment.define(name(a), new FlatFunction(node, environment));
+        return false;
+      case RETURN:
+        if (a != NONE && nodes[a * NODE_SIZE] == CALL && functionDepth > 0) {
+          return tailCall(a);
+        }
+        returnValue = a == NONE ? null : evaluate(a);
+        return true;
+      case STRING_LOOP: {
+        Object iterable = evaluate(b);
+        if (!(iterable instanceof String)) {
+          throw new RuntimeError((Token) constants[a],
+              "Loop expression must be a string.");
+        }
+
+        String string = (String) iterable;
+        for (int i = 0; i < string.length(); i++) {
+          environment.define(name(a), String.valueOf(string.charAt(i)));
+          if (execute(c)) return true;
+        }
+        return false;
+      }
+      case COUNTING_LOOP:
+        return countingLoop((Stmt.CountingLoop) constants[a], b, c);
+      case ERROR:
+        // Only reachable if a caller runs a tree that had syntax errors.
+        throw new RuntimeError((Token) constants[a], (String) constants[b]);
+      default:
+        throw new IllegalStateException(
+            "Node " + node + " is not a statement.");
+    }
+  }
+
+  private Object evaluate(int node) {
+    int base = node * NODE_SIZE;
+    int a = nodes[base + 1];
+    int b = nodes[base + 2];
+    int c = nodes[base + 3];
+
+    switch (nodes[base]) {
+      case LITERAL:
+        return constants[a];
+      case VARIABLE:
+        return environment.get((Token) constants[a]);
+      case ASSIGN: {
+        Object value = evaluate(b);
+        environment.assign((Token) constants[a], value);
+        return value;
+      }
+      case ADD: {
+        Object left = evaluate(a);
+        Object right = evaluate(b);
+        if (left instanceof Double && right instanceof Double) {
+          return (double) left + (double) right;
+        }
+        if (left instanceof String && right instanceof String) {
+          return (String) left + (String) right;
+        }
+        Token operator = (Token) constants[c];
+        throw new RuntimeError(operator, "Operands must be two numbers or two strings" + Lox.atLine(operator));
+      }
+      case SUBTRACT:
+      case MULTIPLY:
+      case DIVIDE:
+      case GREATER:
+      case GREATER_EQUAL:
+      case LESS:
+      case LESS_EQUAL:
+        return arithmetic(nodes[base], evaluate(a), evaluate(b), c);
+      case EQUAL: {
+        Object left = evaluate(a);
+        return isEqual(left, evaluate(b));
+      }
+      case NOT_EQUAL: {
+        Object left = evaluate(a);
+        return !isEqual(left, evaluate(b));
+      }
+      case AND: {
+        Object left = evaluate(a);
+        return isTruthy(left) ? evaluate(b) : left;
+      }
+      case OR: {
+        Object left = evaluate(a);
+        return isTruthy(left) ? left : evaluate(b);
+      }
+      case NEGATE: {
+        Object right = evaluate(a);
+        checkNumberOperand((Token) constants[c], right);
+        return -(double) right;
+      }
+      case NOT:
+        return !isTruthy(evaluate(a));
+      case CALL:
+        return call(a, b, (Token) constants[c]);
+      case READ:
+        return read();
+      case RAND:
+        return getNextPredefinedNumber();
+      case COUNTER:
+        return counters[a];
+      case NUMBER_ADD:
+        return evaluateNumber(a) + evaluateNumber(b);
+      case NUMBER_SUBTRACT:
+        return evaluateNumber(a) - evaluateNumber(b);
+      case NUMBER_MULTIPLY:
+        return evaluateNumber(a) * evaluateNumber(b);
+      case NUMBER_DIVIDE:
+        return evaluateNumber(a) / evaluateNumber(b);
+      case NUMBER_GREATER:
+        return evaluateNumber(a) > evaluateNumber(b);
+      case NUMBER_GREATER_EQUAL:
+        return evaluateNumber(a) >= evaluateNumber(b);
+      case NUMBER_LESS:
+        return evaluateNumber(a) < evaluateNumber(b);
+      case NUMBER_LESS_EQUAL:
+        return evaluateNumber(a) <= evaluateNumber(b);
+      default:
+        throw new IllegalStateException(
+            "Node " + node + " is not an expression.");
+    }
+  }
+
+  // Like Interpreter.evaluateNumber(): counters and arithmetic on numbers
+  // yield a double without boxing it.
+  private double evaluateNumber(int node) {
+    int base = node * NODE_SIZE;
+    int a = nodes[base + 1];
+    int b = nodes[base + 2];
+
+    switch (nodes[base]) {
+      case COUNTER:
+        return counters[a];
+      case NUMBER_ADD:
+        return evaluateNumber(a) + evaluateNumber(b);
+      case NUMBER_SUBTRACT:
+        return evaluateNumber(a) - evaluateNumber(b);
+      case NUMBER_MULTIPLY:
+        return evaluateNumber(a) * evaluateNumber(b);
+      case NUMBER_DIVIDE:
+        return evaluateNumber(a) / evaluateNumber(b);
+      default:
+        return (double) evaluate(node);
+    }
+  }
+
+  // Like Interpreter.visitCountingLoopStmt(). Returns true if a return
+  // statement ran.
+  private boolean countingLoop(Stmt.CountingLoop loop, int limit, int body) {
+    double enclosing = counters[loop.slot];
+    try {
+      long counter = loop.start;
+      while (Math.abs(counter) <= CountingLoopConverter.MAX_EXACT) {
+        counters[loop.slot] = counter;
+        if (!counts(loop, counter, evaluate(limit))) return false;
+        if (execute(body)) return true;
+        counter += loop.step;
+      }
+
+      double value = counter;
+      while (true) {
+        counters[loop.slot] = value;
+        if (!counts(loop, value, evaluate(limit))) return false;
+        if (execute(body)) return true;
+        value += loop.step;
+      }
+    } finally {
+      counters[loop.slot] = enclosing;
+    }
+  }
+
+  private Object arithmetic(int kind, Object left, Object right, int operator) {
+    checkNumberOperands((Token) constants[operator], left, right);
+    double x = (double) left;
+    double y = (double) right;
+    switch (kind) {
+      case SUBTRACT: return x - y;
+      case MULTIPLY: return x * y;
+      case DIVIDE: return x / y;
+      case GREATER: return x > y;
+      case GREATER_EQUAL: return x >= y;
+      case LESS: return x < y;
+      default: return x <= y;
+    }
+  }
+
+  private Object call(int calleeNode, int argumentList, Token paren) {
+    Object callee = evaluate(calleeNode);
+    List<Object> arguments = evaluateArguments(argumentList);
+    return checkCall(callee, arguments, paren).call(this, arguments);
+  }
+
+  // Runs a return of the given call node. A call to a FlatFunction is left
+  // for FlatFunction.call() to make, so tail recursion runs in constant
+  // stack.
+  private boolean tailCall(int node) {
+    int base = node * NODE_SIZE;
+    Object callee = evaluate(nodes[base + 1]);
+    List<Object> arguments = evaluateArguments(nodes[base + 2]);
+    LoxCallable function = checkCall(callee, arguments, (Token) constants[nodes[base + 3]]);
+
+    if (function instanceof FlatFunction) {
+      tailFunction = (FlatFunction) function;
+      tailArguments = arguments;
+      returnValue = null;
+    } else {
+      returnValue = function.call(this, arguments);
+    }
+    return true;
+  }
+
+  private List<Object> evaluateArguments(int argumentList) {
+    int count = lists[argumentList];
+    List<Object> arguments = new ArrayList<>(count);
+    for (int i = 1; i <= count; i++) {
+      arguments.add(evaluate(lists[argumentList + i]));
+    }
+    return arguments;
+  }
+
+  // The callee as something that can be called with the arguments.
+  private LoxCallable checkCall(Object callee, List<Object> arguments, Token paren) {
+    if (!(callee instanceof LoxCallable)) {
+      throw new RuntimeError(paren, "Can only call functions and classes" + Lox.atLine(paren));
+    }
+
+    LoxCallable function = (LoxCallable)callee;
+
+    if (arguments.size() != function.arity()) {
+      throw new RuntimeError(paren, "Expected " + function.arity() + " arguments but got " + arguments.size() + Lox.atLine(paren) + ".");
+    }
+
+    return function;
+  }
+
+  private String name(int constant) {
+    return ((Token) constants[constant]).lexeme;
+  }
+}
@@ -0,0 +1,125 @@
+package translation;
+
+import java.util.List;
+
+/**
+ * A for loop stepping one variable, recognized in the shape the parser
+ * gives
+ *
+ *   for (var name = start; name < limit; name = name + step) body
+ *
+ * which is a block of the var and a while whose body is a block of the
+ * body and the increment. The condition may use any of <, <=, > and >=
+ * with the variable on the left, and the increment may subtract instead.
+ */
+final class ForLoop {
+  final Token name;
+  final Expr start;
+  final Expr.Binary condition;
+  // name + step or name - step.
+  final Expr.Binary increment;
+  final Stmt body;
+
+  private ForLoop(Token name, Expr start, Expr.Binary condition,
+      Expr.Binary increment, Stmt body) {
+    this.name = name;
+    this.start = start;
+    this.condition = condition;
+    this.increment = increment;
+    this.body = body;
+  }
+
+  // The loop a block is, or null.
+  static ForLoop match(Stmt.Block block) {
+    if (block.statements.size() != 2) return null;
+    if (!(block.statements.get(0) instanceof Stmt.Var)
+        || !(block.statements.get(1) instanceof Stmt.While)) {
+      return null;
+    }
+
+    Stmt.Var variable = (Stmt.Var) block.statements.get(0);
+    Stmt.While loop = (Stmt.While) block.statements.get(1);
+    Token name = variable.name;
+    if (variable.initializer == null || !isComparison(loop.condition, name)) return null;
+    if (!(loop.body instanceof Stmt.Block)) return null;
+
+    List<Stmt> parts = ((Stmt.Block) loop.body).statements;
+    if (parts.size() != 2) return null;
+    Expr.Binary increment = increment(parts.get(1), name);
+    if (increment == null) return null;
+
+    return new ForLoop(name, variable.initializer, (Expr.Binary) loop.condition,
+        increment, parts.get(0));
+  }
+
+  Expr limit() {
+    return condition.right;
+  }
+
+  // The literal added by the increment, or null if it is not a number
+  // literal. Negative if the increment subtracts.
+  Double step() {
+    if (!(increment.right instanceof Expr.Literal)) return null;
+    Object value = ((Expr.Literal) increment.right).value;
+    if (!(value instanceof Double)) return null;
+    return increment.kind == Expr.ADD ? (double) value : -(double) value;
+  }
+
+  // True if only the increment changes the variable: the body and the
+  // limit never assign or redeclare it, and the body declares no
+  // functions, which could capture it and read it later.
+  boolean isOnlyStepped() {
+    Names inBody = Names.of(body);
+    Names inLimit = Names.of(new Stmt.Expression(limit()));
+    if (inBody.declarations(name.lexeme) > 0 || inBody.isAssigned(name.lexeme)
+        || inLimit.isAssigned(name.lexeme)) {
+      return false;
+    }
+
+    boolean[] declaresFunction = {false};
+    new TreeRewriter() {
+      @Override
+      public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        declaresFunction[0] = true;
+        return stmt;
+      }
+    }.rewrite(body);
+    return !declaresFunction[0];
+  }
+
+  private static boolean isComparison(Expr expr, Token name) {
+    if (!(expr instanceof Expr.Binary)) return false;
+    Expr.Binary binary = (Expr.Binary) expr;
+    switch (binary.kind) {
+      case Expr.LESS:
+      case Expr.LESS_EQUAL:
+      case Expr.GREATER:
+      case Expr.GREATER_EQUAL:
+        return isVariable(binary.left, name);
+      default:
+        return false;
+    }
+  }
+
+  // The value of name = name + step or name = name - step.
+  private static Expr.Binary increment(Stmt stmt, Token name) {
+    if (!(stmt instanceof Stmt.Expression)) return null;
+    Expr expr = ((Stmt.Expression) stmt).expression;
+    if (!(expr instanceof Expr.Assign)) return null;
+
+    Expr.Assign assign = (Expr.Assign) expr;
+    if (!assign.name.lexeme.equals(name.lexeme)
+        || !(assign.value instanceof Expr.Binary)) {
+      return null;
+    }
+
+    Expr.Binary value = (Expr.Binary) assign.value;
+    if (value.kind != Expr.ADD && value.kind != Expr.SUBTRACT) return null;
+    return isVariable(value.left, name) ? value : null;
+  }
+
+  private static boolean isVariable(Expr expr, Token name) {
+    return expr instanceof Expr.Variable
+        && ((Expr.Variable) expr).name.lexeme.equals(name.lexeme);
+  }
+}
@@ -0,0 +1,251 @@
+package translation;
+
+import static translation.TokenType.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Keeps a document parsed while it is being edited, for editors and other
+ * tools that reparse on every change.
+ *
+ * The document is held as chunks, one per top-level declaration, each
+ * running from its first token up to the first token of the next. An edit
+ * reparses the chunks it touches plus the one before, which may end in an
+ * 'if' the edit gives an 'else' to. Chunks after the edit keep their
+ * tokens and trees and are only moved to their new offset and line.
+ *
+ * If the reparsed text does not end cleanly on the next chunk boundary (an
+ * unclosed brace or string, or a declaration that fails right at the
+ * boundary) the region is grown until it does, so the result is always
+ * what parsing the whole document again would give.
+ *
+ * Errors never stop the parse. They are collected as diagnostics and each
+ * declaration that failed becomes a Stmt.Error.
+ */
+class IncrementalParser {
+  private static class Chunk {
+    int start;
+    int line;
+    final Stmt statement;
+    final List<Token> tokens;
+    List<Diagnostic> diagnostics;
+
+    Chunk(int start, int line, Stmt statement, List<Token> tokens,
+          List<Diagnostic> diagnostics) {
+      this.start = start;
+      this.line = line;
+      this.statement = statement;
+      this.tokens = tokens;
+      this.diagnostics = diagnostics;
+    }
+
+    void move(int offsetDelta, int lineDelta) {
+      if (offsetDelta == 0 && lineDelta == 0) return;
+
+      start += offsetDelta;
+      line += lineDelta;
+      for (Token token : tokens) {
+        token.offset += offsetDelta;
+        token.line += lineDelta;
+      }
+      if (diagnostics.isEmpty()) return;
+
+      List<Diagnostic> moved = new ArrayList<>(diagnostics.size());
+      for (Diagnostic diagnostic : diagnostics) {
+        moved.add(diagnostic.moved(lineDelta, offsetDelta));
+      }
+      diagnostics = moved;
+    }
+  }
+
+  // Feeds the parser the tokens of [start, end) and then EOF, noting what
+  // lies on the other side of end.
+  private class Region implements Supplier<Token> {
+    private final Scanner scanner;
+    private final int end;
+    final List<Token> tokens = new ArrayList<>();
+    Token boundary = null;
+    boolean aligned = true;
+    private Token eof = null;
+
+    Region(int start, int line, int end, List<Diagnostic> diagnostics) {
+      this.scanner = new Scanner(text, start, line);
+      this.end = end;
+      scanner.reportTo(diagnostics);
+    }
+
+    @Override
+    public Token get() {
+      if (eof != null) return eof;
+
+      Token token = scanner.nextToken();
+      if (token.offset < end) {
+        tokens.add(token);
+        return token;
+      }
+
+      // The next chunk has to begin exactly where this one ends. If the
+      // scanner overshot, a token or comment runs across the boundary.
+      // The EOF is kept with the tokens so that it moves with the last
+      // chunk, which may have reported an error at it.
+      boundary = token;
+      aligned = token.offset == end;
+      eof = new Token(EOF, "", null, token.line, end);
+      tokens.add(eof);
+      return eof;
+    }
+  }
+
+  private final StringBuilder text;
+  private final int maxDepth;
+  private final List<Chunk> chunks = new ArrayList<>();
+
+  IncrementalParser(String text, int maxDepth) {
+    this.text = new StringBuilder(text);
+    this.maxDepth = maxDepth;
+    chunks.addAll(parse(0, 1, text.length()));
+  }
+
+  // Replaces removed characters at offset with inserted and brings the
+  // tree up to date.
+  void edit(int offset, int removed, String inserted) {
+    int offsetDelta = inserted.length() - removed;
+    int lineDelta = newlines(inserted, 0, inserted.length())
+        - newlines(text, offset, offset + removed);
+
+    int first = Math.max(0, chunkAt(offset) - 1);
+    int last = chunkAt(offset + removed);
+    text.replace(offset, offset + removed, inserted);
+
+    for (;;) {
+      int start = 0;
+      int line = 1;
+      if (first < chunks.size()) {
+        start = chunks.get(first).start;
+        line = chunks.get(first).line;
+      }
+      int end = text.length();
+      if (last + 1 < chunks.size()) {
+        end = chunks.get(last + 1).start + offsetDelta;
+      }
+
+      List<Chunk> parsed = parse(start, line, end);
+      if (parsed != null) {
+        for (int i = last + 1; i < chunks.size(); i++) {
+          chunks.get(i).move(offsetDelta, lineDelta);
+        }
+        List<Chunk> replaced = chunks.subList(first, last + 1);
+        replaced.clear();
+        replaced.addAll(parsed);
+        return;
+      }
+
+      // Take in as many chunks again as the region already has, so text
+      // that never balances costs a linear amount of work overall.
+      last = Math.min(chunks.size() - 1, last + Math.max(1, last - first + 1));
+    }
+  }
+
+  // The document as it stands. Only valid until the next edit.
+  CharSequence text() {
+    return text;
+  }
+
+  // One statement per top-level declaration, in order.
+  List<Stmt> statements() {
+    List<Stmt> statements = new ArrayList<>(chunks.size());
+    for (Chunk chunk : chunks) {
+      if (chunk.statement != null) statements.add(chunk.statement);
+    }
+    return statements;
+  }
+
+  List<Diagnostic> diagnostics() {
+    List<Diagnostic> diagnostics = new ArrayList<>();
+    for (Chunk chunk : chunks) diagnostics.addAll(chunk.diagnostics);
+    return diagnostics;
+  }
+
+  // Parses [start, end) into chunks, or returns null if the region has to
+  // grow to be parsed the way the whole document would be.
+  private List<Chunk> parse(int start, int line, int end) {
+    List<Diagnostic> diagnostics = new ArrayList<>();
+    Region region = new Region(start, line, end, diagnostics);
+    Parser parser = new Parser(region);
+    parser.setMaxDepth(maxDepth);
+    parser.reportTo(diagnostics);
+
+    List<Chunk> parsed = new ArrayList<>();
+    int chunkStart = start;
+    int chunkLine = line;
+    int tokensTaken = 0;
+    int diagnosticsTaken = 0;
+    Stmt statement;
+    while ((statement = parser.nextDeclaration()) != null) {
+      // Fetching the next declaration's first token also scans whatever
+      // lies between, so errors found there belong to this chunk.
+      Token next = parser.upcoming();
+      int tokensEnd = region.tokens.size();
+      int nextStart = end;
+      if (next.type != EOF) {
+        tokensEnd--;
+        nextStart = next.offset;
+      }
+
+      parsed.add(new Chunk(chunkStart, chunkLine, statement,
+          new ArrayList<>(region.tokens.subList(tokensTaken, tokensEnd)),
+          new ArrayList<>(diagnostics.subList(diagnosticsTaken, diagnostics.size()))));
+      // Not next.line: a string token carries the line it ends on.
+      chunkLine += newlines(text, chunkStart, nextStart);
+      chunkStart = nextStart;
+      tokensTaken = tokensEnd;
+      diagnosticsTaken = diagnostics.size();
+    }
+
+    if (end < text.length()) {
+      if (!region.aligned) return null;
+      // An 'else' would have continued the last declaration.
+      if (region.boundary.type == ELSE) return null;
+      // A failed declaration may have run into the boundary, and its
+      // recovery would have carried on past it.
+      if (!parsed.isEmpty()
+          && parsed.get(parsed.size() - 1).statement instanceof Stmt.Error) {
+        return null;
+      }
+    }
+
+    // Only comments or stray characters: keep a chunk anyway so their
+    // errors are not lost.
+    if (parsed.isEmpty()) {
+      parsed.add(new Chunk(start, line, null, Collections.emptyList(),
+          new ArrayList<>(diagnostics)));
+    }
+    return parsed;
+  }
+
+  // Index of the last chunk starting at or before offset.
+  private int chunkAt(int offset) {
+    int low = 0;
+    int high = chunks.size() - 1;
+    while (low < high) {
+      int middle = (low + high + 1) >>> 1;
+      if (chunks.get(middle).start <= offset) {
+        low = middle;
+      } else {
+        high = middle - 1;
+      }
+    }
+    return low;
+  }
+
+  private static int newlines(CharSequence text, int from, int to) {
+    int count = 0;
+    for (int i = from; i < to; i++) {
+      if (text.charAt(i) == '\n') count++;
+    }
+    return count;
+  }
+}
@@ -0,0 +1,222 @@
+package translation;
+
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replaces calls to small functions with the expression they return, so a
+ * call like sq(a + 1) costs no environment, argument list or unwinding.
+ *
+ * A function is inlined if:
+ *
+ * - it is declared at the top level and Names says it is fixed, so its
+ *   name always means this function once the declaration has run;
+ * - its body is a single return of an expression of at most MAX_SIZE
+ *   nodes, and that expression does not call the function itself;
+ * - every other name in that expression is only ever declared at the top
+ *   level, so it means the same at the call site as in the function.
+ *
+ * Only calls that come after the declaration in the program are inlined,
+ * with as many arguments as the function has parameters, so none of them
+ * can fail in a way the inlined code would not.
+ *
+ * Parameters are renamed to temporaries declared just before the statement
+ * the call is in, and each argument is assigned to its temporary in order
+ * before the body is evaluated:
+ *
+ *   (($inline0 = a + 1) or true) and $inline0 * $inline0
+ *
+ * A literal argument is substituted as it is, unless the body assigns the
+ * parameter. Calls in the inlined body are inlined in turn, at most
+ * MAX_DEPTH deep, and never into a function that is already being inlined.
+ */
+class Inliner extends TreeRewriter {
+  static final int MAX_SIZE = 16;
+  static final int MAX_DEPTH = 4;
+
+  private final Names program;
+  private final Map<String, Integer> topLevel = new HashMap<>();
+  // Null unless --optimize-report asked for one.
+  private final PrintStream report;
+  private final Map<String, Stmt.Function> inlinable = new HashMap<>();
+  private final Deque<String> inlining = new ArrayDeque<>();
+  private List<Token> temporaries = new ArrayList<>();
+  private int count = 0;
+
+  Inliner(Names program, PrintStream report) {
+    this.program = program;
+    this.report = report;
+  }
+
+  // Rewrites a whole program.
+  List<Stmt> inline(List<Stmt> statements) {
+    for (Stmt statement : statements) {
+      if (statement instanceof Stmt.Var) {
+        topLevel.merge(((Stmt.Var) statement).name.lexeme, 1, Integer::sum);
+      } else if (statement instanceof Stmt.Function) {
+        topLevel.merge(((Stmt.Function) statement).name.lexeme, 1, Integer::sum);
+      }
+    }
+
+    List<Stmt> rewritten = new ArrayList<>();
+    for (Stmt statement : statements) {
+      rewriteInto(statement, rewritten);
+      // Decided on the function as written: calls inlined into its body
+      // leave it a declaration of temporaries and a return.
+      if (statement instanceof Stmt.Function && isInlinable((Stmt.Function) statement)) {
+        Stmt.Function function = (Stmt.Function) statement;
+        inlinable.put(function.name.lexeme, function);
+      }
+    }
+    return rewritten;
+  }
+
+  // Adds the rewritten statement to statements, after the temporaries its
+  // inlined calls need.
+  private void rewriteInto(Stmt statement, List<Stmt> statements) {
+    List<Token> enclosing = temporaries;
+    temporaries = new ArrayList<>();
+    try {
+      Stmt rewritten = statement.accept(this);
+      for (Token temporary : temporaries) statements.add(new Stmt.Var(temporary, null));
+      if (rewritten != null) statements.add(rewritten);
+    } finally {
+      temporaries = enclosing;
+    }
+  }
+
+  @Override
+  List<Stmt> rewrite(List<Stmt> statements) {
+    List<Stmt> rewritten = new ArrayList<>();
+    for (Stmt statement : statements) rewriteInto(statement, rewritten);
+    return rewritten.equals(statements) ? statements : rewritten;
+  }
+
+  // A statement that is not in a list, like a branch, goes in a block with
+  // its temporaries. It cannot be a declaration, so that changes no scope.
+  @Override
+  Stmt rewrite(Stmt stmt) {
+    if (stmt == null) return null;
+    List<Stmt> statements = new ArrayList<>();
+    rewriteInto(stmt, statements);
+    return statements.size() == 1 ? statements.get(0) : new Stmt.Block(statements);
+  }
+
+  private boolean isInlinable(Stmt.Function function) {
+    if (!program.isFixed(function.name.lexeme)) return false;
+    if (function.body.size() != 1 || !(function.body.get(0) instanceof Stmt.Return)) {
+      return false;
+    }
+
+    Stmt.Return body = (Stmt.Return) function.body.get(0);
+    if (body.value != null && size(body.value) > MAX_SIZE) return false;
+
+    Names names = Names.of(body);
+    if (names.called().contains(function.name.lexeme)) return false;
+    for (String name : names.used()) {
+      if (isParameter(function, name)) continue;
+      if (program.declarations(name) != topLevel.getOrDefault(name, 0)) return false;
+    }
+    return true;
+  }
+
+  private static boolean isParameter(Stmt.Function function, String name) {
+    for (Token param : function.params) {
+      if (param.lexeme.equals(name)) return true;
+    }
+    return false;
+  }
+
+  private static int size(Expr expr) {
+    int[] size = {0};
+    new TreeRewriter() {
+      @Override
+      Expr rewrite(Expr expr) {
+        if (expr != null) size[0]++;
+        return super.rewrite(expr);
+      }
+    }.rewrite(expr);
+    return size[0];
+  }
+
+  @Override
+  public Expr visitCallExpr(Expr.Call expr) {
+    Expr.Call call = (Expr.Call) super.visitCallExpr(expr);
+    if (!(call.callee instanceof Expr.Variable)) return call;
+
+    String name = ((Expr.Variable) call.callee).name.lexeme;
+    Stmt.Function function = inlinable.get(name);
+    if (function == null || function.params.size() != call.arguments.size()
+        || inlining.contains(name) || inlining.size() >= MAX_DEPTH) {
+      return call;
+    }
+
+    if (report != null) {
+      report.println("[line " + call.paren.line + "] Inlined " + name + ".");
+    }
+    return inline(function, call.arguments);
+  }
+
+  private Expr inline(Stmt.Function function, List<Expr> arguments) {
+    Expr value = ((Stmt.Return) function.body.get(0)).value;
+    if (value == null) value = new Expr.Literal(null);
+    Names body = Names.of(function.body.get(0));
+
+    Map<String, Expr> substitutes = new HashMap<>();
+    Map<String, Token> renamed = new HashMap<>();
+    List<Expr.Assign> assignments = new ArrayList<>();
+    for (int i = 0; i < arguments.size(); i++) {
+      String param = function.params.get(i).lexeme;
+      Expr argument = arguments.get(i);
+      if (argument instanceof Expr.Literal && !body.isAssigned(param)) {
+        substitutes.put(param, argument);
+        continue;
+      }
+
+      Token temporary = new Token(TokenType.IDENTIFIER, "$inline" + count++, null,
+          function.params.get(i).line);
+      temporaries.add(temporary);
+      renamed.put(param, temporary);
+      substitutes.put(param, new Expr.Variable(temporary));
+      assignments.add(new Expr.Assign(temporary, argument));
+    }
+
+    Expr result = new TreeRewriter() {
+      @Override
+      public Expr visitVariableExpr(Expr.Variable expr) {
+        Expr substitute = substitutes.get(expr.name.lexeme);
+        return substitute != null ? substitute : expr;
+      }
+
+      @Override
+      public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr assigned = rewrite(expr.value);
+        Token temporary = renamed.get(expr.name.lexeme);
+        if (temporary != null) return new Expr.Assign(temporary, assigned);
+        return assigned == expr.value ? expr : new Expr.Assign(expr.name, assigned);
+      }
+    }.rewrite(value);
+
+    inlining.push(function.name.lexeme);
+    try {
+      result = rewrite(result);
+    } finally {
+      inlining.pop();
+    }
+
+    // Each assignment yields a value that is discarded; "or true" makes
+    // sure "and" goes on to the next one.
+    Token or = new Token(TokenType.OR, "or", null, function.name.line);
+    Token and = new Token(TokenType.AND, "and", null, function.name.line);
+    for (int i = assignments.size() - 1; i >= 0; i--) {
+      Expr evaluated = Expr.Logical.of(assignments.get(i), or, new Expr.Literal(true));
+      result = Expr.Logical.of(evaluated, and, result);
+    }
+    return result;
+  }
+}
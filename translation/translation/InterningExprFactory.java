@@ -0,0 +1,144 @@
+package translation;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Builds each distinct expression only once.
+ *
+ * Two expressions are the same if they are the same kind of node with the
+ * same operator, name or value and the same children. Children are
+ * interned before their parent, so comparing them by identity is enough
+ * and each lookup costs a single hash of the node's own fields. Repeated
+ * literal tables and conditions in generated scripts then share one tree.
+ *
+ * Operators and names are compared by type and lexeme, and a shared node
+ * keeps the token of its first occurrence. The lines of every occurrence
+ * are kept in a side table keyed by that token, see lines(). Nodes are
+ * never changed after they are made, so sharing them is safe; the
+ * interpreter keeps no state in the tree.
+ *
+ * Methods are synchronized because a lazily parsed function body may be
+ * parsed on the interpreter's thread while a streaming parser is still
+ * running on its own.
+ */
+class InterningExprFactory extends ExprFactory {
+  private final Map<List<Object>, Expr> nodes = new HashMap<>();
+  // Lines each shared node's token stands for: a count followed by the
+  // lines in the order they were parsed.
+  private final Map<Token, int[]> lines = new IdentityHashMap<>();
+  private final Expr read = new Expr.Read();
+  private final Expr rand = new Expr.Rand();
+
+  @Override
+  synchronized Expr assign(Token name, Expr value) {
+    return intern(Arrays.asList(Expr.Assign.class, name.lexeme, value), name,
+        () -> new Expr.Assign(name, value));
+  }
+
+  @Override
+  synchronized Expr binary(Expr left, Token operator, Expr right) {
+    return intern(
+        Arrays.asList(Expr.Binary.class, left, operator.type, right), operator,
+        () -> Expr.Binary.of(left, operator, right));
+  }
+
+  @Override
+  synchronized Expr call(Expr callee, Token paren, List<Expr> arguments) {
+    List<Expr> copy = List.copyOf(arguments);
+    return intern(Arrays.asList(Expr.Call.class, callee, copy), paren,
+        () -> new Expr.Call(callee, paren, copy));
+  }
+
+  @Override
+  synchronized Expr grouping(Expr expression) {
+    return intern(Arrays.asList(Expr.Grouping.class, expression), null,
+        () -> new Expr.Grouping(expression));
+  }
+
+  @Override
+  synchronized Expr literal(Object value) {
+    return intern(Arrays.asList(Expr.Literal.class, value), null,
+        () -> new Expr.Literal(value));
+  }
+
+  @Override
+  synchronized Expr logical(Expr left, Token operator, Expr right) {
+    return intern(
+        Arrays.asList(Expr.Logical.class, left, operator.type, right), operator,
+        () -> Expr.Logical.of(left, operator, right));
+  }
+
+  @Override
+  synchronized Expr unary(Token operator, Expr right) {
+    return intern(Arrays.asList(Expr.Unary.class, operator.type, right),
+        operator, () -> Expr.Unary.of(operator, right));
+  }
+
+  @Override
+  synchronized Expr variable(Token name) {
+    return intern(Arrays.asList(Expr.Variable.class, name.lexeme), name,
+        () -> new Expr.Variable(name));
+  }
+
+  @Override
+  Expr read() {
+    return read;
+  }
+
+  @Override
+  Expr rand() {
+    return rand;
+  }
+
+  // Every line the token's node stood for in the source, or null if the
+  // token is not in a node made by this factory.
+  synchronized int[] lines(Token token) {
+    int[] recorded = lines.get(token);
+    if (recorded == null) return null;
+    return Arrays.copyOfRange(recorded, 1, recorded[0] + 1);
+  }
+
+  // How many distinct expressions were made.
+  synchronized int size() {
+    return nodes.size();
+  }
+
+  private Expr intern(List<Object> key, Token occurrence,
+                      Supplier<Expr> maker) {
+    Expr expr = nodes.get(key);
+    if (expr == null) {
+      expr = maker.get();
+      nodes.put(key, expr);
+    }
+    if (occurrence != null) record(tokenOf(expr), occurrence.line);
+    return expr;
+  }
+
+  private void record(Token token, int line) {
+    int[] recorded = lines.get(token);
+    if (recorded == null) {
+      recorded = new int[] {0, 0, 0, 0};
+    } else if (recorded[recorded[0]] == line) {
+      // Still on the same line as last time.
+      return;
+    } else if (recorded[0] + 1 == recorded.length) {
+      recorded = Arrays.copyOf(recorded, recorded.length * 2);
+    }
+    recorded[++recorded[0]] = line;
+    lines.put(token, recorded);
+  }
+
+  private static Token tokenOf(Expr expr) {
+    if (expr instanceof Expr.Assign) return ((Expr.Assign) expr).name;
+    if (expr instanceof Expr.Binary) return ((Expr.Binary) expr).operator;
+    if (expr instanceof Expr.Call) return ((Expr.Call) expr).paren;
+    if (expr instanceof Expr.Logical) return ((Expr.Logical) expr).operator;
+    if (expr instanceof Expr.Unary) return ((Expr.Unary) expr).operator;
+    return ((Expr.Variable) expr).name;
+  }
+}
@@ -14,6 +14,14 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
     private static final List<Integer> predefinedNumbers = List.of(57, 97, 28, 7, 71, 1, 79, 83, 64, 82, 89, 24);
     private int currentIndex = 0;
     private final BufferedReader reader;
+    // How many function calls are running. A return outside all of them
+    // has no call to hand a tail call to.
+    int functionDepth = 0;
+    final TailCall tailCall = new TailCall();
+    // What Counter expressions read: the counter of the CountingLoop running
+    // in each slot. A loop puts back the value it found when it ends, for a
+    // loop in the same slot further up the call stack.
+    final double[] counters = new double[CountingLoopConverter.MAX_NESTING];
 
     public Interpreter() {
         this.reader = new BufferedReader(new InputStreamReader(System.in));
@@ -76,6 +84,10 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitReadExpr(Expr.Read expr) {
+        return read();
+    }
+
+    Object read() {
         System.out.print("input required > ");
         System.out.flush();
         try {
@@ -93,7 +105,7 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return getNextPredefinedNumber();
     }
 
-    private double getNextPredefinedNumber() {
+    double getNextPredefinedNumber() {
         double number = predefinedNumbers.get(currentIndex);
         currentIndex = (currentIndex + 1) % predefinedNumbers.size();
         return number;
@@ -110,6 +122,17 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
     }
 
+    // Runs one top-level statement. Returns false if it hit a runtime error.
+    boolean interpret(Stmt statement) {
+        try {
+            execute(statement);
+            return true;
+        } catch (RuntimeError error) {
+            Lox.runtimeError(error);
+            return false;
+        }
+    }
+
     @Override
     public Object visitLiteralExpr(Expr.Literal expr) {
         return expr.value;
@@ -117,31 +140,12 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitLogicalExpr(Expr.Logical expr) {
-        Object left = evaluate(expr.left);
-
-        if (expr.operator.type == TokenType.OR) {
-            if (isTruthy(left)) return left;
-        } else {
-            if (!isTruthy(left)) return left;
-        }
-
-        return evaluate(expr.right);
+        throw unspecialized(expr);
     }
 
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
-        Object right = evaluate(expr.right);
-
-        switch (expr.operator.type) {
-            case BANG:
-                return !isTruthy(right);
-            case MINUS:
-                checkNumberOperand(expr.operator, right);
-                return -(double)right;
-        }
-
-        // Unreachable.
-        return null;
+        throw unspecialized(expr);
     }
 
     @Override
@@ -149,30 +153,30 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return environment.get(expr.name);
     }
 
-    private void checkNumberOperand(Token operator, Object operand) {
+    void checkNumberOperand(Token operator, Object operand) {
         if (operand instanceof Double) return;
-        throw new RuntimeError(operator, "Operand must be a number at line " + operator.line);
+        throw new RuntimeError(operator, "Operand must be a number" + Lox.atLine(operator));
     }
 
-    private void checkNumberOperands(Token operator, Object left, Object right) {
+    void checkNumberOperands(Token operator, Object left, Object right) {
         if (left instanceof Double && right instanceof Double) return;
-        throw new RuntimeError(operator, "Operands must be numbers at line " + operator.line);
+        throw new RuntimeError(operator, "Operands must be numbers" + Lox.atLine(operator));
     }
 
-    private boolean isTruthy(Object object) {
+    static boolean isTruthy(Object object) {
         if (object == null) return false;
         if (object instanceof Boolean) return (boolean)object;
         return true;
     }
 
-    private boolean isEqual(Object a, Object b) {
+    static boolean isEqual(Object a, Object b) {
         if (a == null && b == null) return true;
         if (a == null) return false;
 
         return a.equals(b);
     }
 
-    private String stringify(Object object) {
+    String stringify(Object object) {
         if (object == null) return "nil";
 
         if (object instanceof Double) {
@@ -190,11 +194,11 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return evaluate(expr.expression);
     }
 
-    private Object evaluate(Expr expr) {
+    Object evaluate(Expr expr) {
         return expr.accept(this);
     }
 
-    private void execute(Stmt stmt) {
+    void execute(Stmt stmt) {
         stmt.accept(this);
     }
 
@@ -249,6 +253,22 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value instanceof Expr.Call && functionDepth > 0) {
+            Expr.Call call = (Expr.Call) stmt.value;
+            Object callee = evaluate(call.callee);
+            List<Object> arguments = evaluateArguments(call);
+            LoxCallable function = checkCall(call, callee, arguments);
+
+            // Let the returning function's LoxFunction.call() make the call
+            // in its own frame, so tail recursion runs in constant stack.
+            if (function instanceof LoxFunction) {
+                tailCall.function = (LoxFunction) function;
+                tailCall.arguments = arguments;
+                throw tailCall;
+            }
+            throw new Return(function.call(this, arguments));
+        }
+
         Object value = null;
         if (stmt.value != null) value = evaluate(stmt.value);
 
@@ -290,6 +310,56 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitErrorStmt(Stmt.Error stmt) {
+        // Only reachable if a caller runs a tree that had syntax errors.
+        throw new RuntimeError(stmt.token, stmt.message);
+    }
+
+    @Override
+    public Void visitCountingLoopStmt(Stmt.CountingLoop stmt) {
+        double enclosing = counters[stmt.slot];
+        try {
+            long counter = stmt.start;
+            while (Math.abs(counter) <= CountingLoopConverter.MAX_EXACT) {
+                counters[stmt.slot] = counter;
+                if (!counts(stmt, counter, evaluate(stmt.limit))) return null;
+                execute(stmt.body);
+                counter += stmt.step;
+            }
+
+            // Past MAX_EXACT a double skips integers, so go on rounding the
+            // way adding to the variable would have.
+            double value = counter;
+            while (true) {
+                counters[stmt.slot] = value;
+                if (!counts(stmt, value, evaluate(stmt.limit))) return null;
+                execute(stmt.body);
+                value += stmt.step;
+            }
+        } finally {
+            counters[stmt.slot] = enclosing;
+        }
+    }
+
+    // Whether a CountingLoop runs its body again: its condition, with the
+    // same error for a limit that is not a number.
+    boolean counts(Stmt.CountingLoop stmt, double counter, Object limit) {
+        if (!(limit instanceof Double)) checkNumberOperands(stmt.operator, counter, limit);
+        double bound = (double) limit;
+        switch (stmt.operator.type) {
+            case LESS: return counter < bound;
+            case LESS_EQUAL: return counter <= bound;
+            case GREATER: return counter > bound;
+            default: return counter >= bound;
+        }
+    }
+
+    @Override
+    public Object visitCounterExpr(Expr.Counter expr) {
+        return counters[expr.slot];
+    }
+
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
@@ -299,69 +369,246 @@ class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
+        throw unspecialized(expr);
+    }
+
+    // Every operator node is visited by its own method below, so the
+    // general methods for Binary, Logical and Unary are never reached.
+    private static IllegalStateException unspecialized(Expr expr) {
+        return new IllegalStateException("No visit method for " + expr.getClass().getSimpleName() + ".");
+    }
+
+    // Each operator has its own node class, so the methods below are what
+    // actually run: no switch on the operator, and a call site that only
+    // ever sees one node type.
+
+    @Override
+    public Object visitAddExpr(Expr.Add expr) {
+        Object left = evaluate(expr.left);
+        Object right = evaluate(expr.right);
+        if (left instanceof Double && right instanceof Double) {
+            return (double) left + (double) right;
+        }
+        if (left instanceof String && right instanceof String) {
+            return (String) left + (String) right;
+        }
+        throw new RuntimeError(expr.operator, "Operands must be two numbers or two strings" + Lox.atLine(expr.operator));
+    }
+
+    @Override
+    public Object visitSubtractExpr(Expr.Subtract expr) {
+        Object left = evaluate(expr.left);
+        Object right = evaluate(expr.right);
+        checkNumberOperands(expr.operator, left, right);
+        return (double) left - (double) right;
+    }
+
+    @Override
+    public Object visitMultiplyExpr(Expr.Multiply expr) {
+        Object left = evaluate(expr.left);
+        Object right = evaluate(expr.right);
+        checkNumberOperands(expr.operator, left, right);
+        return (double) left * (double) right;
+    }
+
+    @Override
+    public Object visitDivideExpr(Expr.Divide expr) {
+        Object left = evaluate(expr.left);
+        Object right = evaluate(expr.right);
+        checkNumberOperands(expr.operator, left, right);
+        return (double) left / (double) right;
+    }
+
+    @Override
+    public Object visitGreaterExpr(Expr.Greater expr) {
+        Object left = evaluate(expr.left);
+        Object right = evaluate(expr.right);
+        checkNumberOperands(expr.operator, left, right);
+        return (double) left > (double) right;
+    }
+
+    @Override
+    public Object visitGreaterEqualExpr(Expr.GreaterEqual expr) {
+        Object left = evaluate(expr.left);
+        Object right = evaluate(expr.right);
+        checkNumberOperands(expr.operator, left, right);
+        return (double) left >= (double) right;
+    }
+
+    @Override
+    public Object visitLessExpr(Expr.Less expr) {
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
+        checkNumberOperands(expr.operator, left, right);
+        return (double) left < (double) right;
+    }
+
+    @Override
+    public Object visitLessEqualExpr(Expr.LessEqual expr) {
+        Object left = evaluate(expr.left);
+        Object right = evaluate(expr.right);
+        checkNumberOperands(expr.operator, left, right);
+        return (double) left <= (double) right;
+    }
+
+    @Override
+    public Object visitEqualExpr(Expr.Equal expr) {
+        Object left = evaluate(expr.left);
+        return isEqual(left, evaluate(expr.right));
+    }
+
+    @Override
+    public Object visitNotEqualExpr(Expr.NotEqual expr) {
+        Object left = evaluate(expr.left);
+        return !isEqual(left, evaluate(expr.right));
+    }
+
+    @Override
+    public Object visitAndExpr(Expr.And expr) {
+        Object left = evaluate(expr.left);
+        if (!isTruthy(left)) return left;
+        return evaluate(expr.right);
+    }
+
+    @Override
+    public Object visitOrExpr(Expr.Or expr) {
+        Object left = evaluate(expr.left);
+        if (isTruthy(left)) return left;
+        return evaluate(expr.right);
+    }
+
+    @Override
+    public Object visitNotExpr(Expr.Not expr) {
+        return !isTruthy(evaluate(expr.right));
+    }
+
+    @Override
+    public Object visitNegateExpr(Expr.Negate expr) {
+        Object right = evaluate(expr.right);
+        checkNumberOperand(expr.operator, right);
+        return -(double) right;
+    }
 
+    // TypeInference proved both operands of these are numbers, so they only
+    // cast them, through evaluateNumber().
+
+    // The value of an expression known to be a number. A counter, and an
+    // arithmetic operator on numbers, yield a double here without boxing
+    // it, so only the outermost of i * 2 + 1 allocates.
+    double evaluateNumber(Expr expr) {
+        switch (expr.kind) {
+            case Expr.COUNTER:
+                return counters[((Expr.Counter) expr).slot];
+            case Expr.GROUPING:
+                return evaluateNumber(((Expr.Grouping) expr).expression);
+            case Expr.NUMBER_ADD: {
+                Expr.Numeric numeric = (Expr.Numeric) expr;
+                return evaluateNumber(numeric.left) + evaluateNumber(numeric.right);
+            }
+            case Expr.NUMBER_SUBTRACT: {
+                Expr.Numeric numeric = (Expr.Numeric) expr;
+                return evaluateNumber(numeric.left) - evaluateNumber(numeric.right);
+            }
+            case Expr.NUMBER_MULTIPLY: {
+                Expr.Numeric numeric = (Expr.Numeric) expr;
+                return evaluateNumber(numeric.left) * evaluateNumber(numeric.right);
+            }
+            case Expr.NUMBER_DIVIDE: {
+                Expr.Numeric numeric = (Expr.Numeric) expr;
+                return evaluateNumber(numeric.left) / evaluateNumber(numeric.right);
+            }
+            default:
+                return (double) evaluate(expr);
+        }
+    }
+
+    @Override
+    public Object visitNumericExpr(Expr.Numeric expr) {
+        double left = evaluateNumber(expr.left);
+        double right = evaluateNumber(expr.right);
         switch (expr.operator.type) {
-            case GREATER:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left > (double) right;
-            case GREATER_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left >= (double) right;
-            case LESS:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left < (double) right;
-            case LESS_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left <= (double) right;
-            case MINUS:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left - (double) right;
-            case PLUS:
-                if (left instanceof Double && right instanceof Double) {
-                    return (double) left + (double) right;
-                }
-                if (left instanceof String && right instanceof String) {
-                    return (String) left + (String) right;
-                }
-                throw new RuntimeError(expr.operator, "Operands must be two numbers or two strings at line " + expr.operator.line);
-            case SLASH:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left / (double) right;
-            case STAR:
-                checkNumberOperands(expr.operator, left, right);
-                return (double) left * (double) right;
-            case BANG_EQUAL:
-                return !isEqual(left, right);
-            case EQUAL_EQUAL:
-                return isEqual(left, right);
+            case PLUS: return left + right;
+            case MINUS: return left - right;
+            case STAR: return left * right;
+            case SLASH: return left / right;
+            case GREATER: return left > right;
+            case GREATER_EQUAL: return left >= right;
+            case LESS: return left < right;
+            case LESS_EQUAL: return left <= right;
         }
 
         // Unreachable.
         return null;
     }
 
+    @Override
+    public Object visitNumberAddExpr(Expr.NumberAdd expr) {
+        return evaluateNumber(expr.left) + evaluateNumber(expr.right);
+    }
+
+    @Override
+    public Object visitNumberSubtractExpr(Expr.NumberSubtract expr) {
+        return evaluateNumber(expr.left) - evaluateNumber(expr.right);
+    }
+
+    @Override
+    public Object visitNumberMultiplyExpr(Expr.NumberMultiply expr) {
+        return evaluateNumber(expr.left) * evaluateNumber(expr.right);
+    }
+
+    @Override
+    public Object visitNumberDivideExpr(Expr.NumberDivide expr) {
+        return evaluateNumber(expr.left) / evaluateNumber(expr.right);
+    }
+
+    @Override
+    public Object visitNumberGreaterExpr(Expr.NumberGreater expr) {
+        return evaluateNumber(expr.left) > evaluateNumber(expr.right);
+    }
+
+    @Override
+    public Object visitNumberGreaterEqualExpr(Expr.NumberGreaterEqual expr) {
+        return evaluateNumber(expr.left) >= evaluateNumber(expr.right);
+    }
+
+    @Override
+    public Object visitNumberLessExpr(Expr.NumberLess expr) {
+        return evaluateNumber(expr.left) < evaluateNumber(expr.right);
+    }
+
+    @Override
+    public Object visitNumberLessEqualExpr(Expr.NumberLessEqual expr) {
+        return evaluateNumber(expr.left) <= evaluateNumber(expr.right);
+    }
+
     @Override
     public Object visitCallExpr(Expr.Call expr) {
         Object callee = evaluate(expr.callee);
+        List<Object> arguments = evaluateArguments(expr);
+        return checkCall(expr, callee, arguments).call(this, arguments);
+    }
 
+    private List<Object> evaluateArguments(Expr.Call expr) {
         List<Object> arguments = new ArrayList<>();
         for (Expr argument : expr.arguments) {
             arguments.add(evaluate(argument));
         }
+        return arguments;
+    }
 
+    // The callee as something that can be called with the arguments.
+    private LoxCallable checkCall(Expr.Call expr, Object callee, List<Object> arguments) {
         if (!(callee instanceof LoxCallable)) {
-            throw new RuntimeError(expr.paren, "Can only call functions and classes at line " + expr.paren.line);
+            throw new RuntimeError(expr.paren, "Can only call functions and classes" + Lox.atLine(expr.paren));
         }
 
         LoxCallable function = (LoxCallable)callee;
 
         if (arguments.size() != function.arity()) {
-            throw new RuntimeError(expr.paren, "Expected " + function.arity() + " arguments but got " + arguments.size() + " at line " + expr.paren.line + ".");
+            throw new RuntimeError(expr.paren, "Expected " + function.arity() + " arguments but got " + arguments.size() + Lox.atLine(expr.paren) + ".");
         }
 
-        return function.call(this, arguments);
+        return function;
     }
 
     @Override
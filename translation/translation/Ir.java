@@ -0,0 +1,330 @@
+package translation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A program in SSA form: a mid-level representation between the syntax
+ * tree and whatever runs it, built by IrBuilder and rewritten by the passes
+ * IrPassManager runs.
+ *
+ * Each function is a list of basic blocks, the first being its entry.
+ * A block is a list of instructions, phis first and a terminator last.
+ * Every instruction that yields a value is that value, and is defined
+ * exactly once; a phi picks one of its operands by which predecessor
+ * control came from, the operands being in the order of the block's
+ * predecessors.
+ *
+ * A variable that lives in an environment, because a nested function can
+ * see it, because it is global or because a string loop defines it, is
+ * not a value: it is read with LOAD, assigned with STORE and declared
+ * with DEFINE, by name, in the scope ENTER_SCOPE and EXIT_SCOPE bracket.
+ * Every other variable is only a name for values.
+ *
+ * Operators have the same checks as in the tree, reported at the token
+ * they carry; ones marked numeric have operands that are known to be
+ * numbers, as for Expr.Numeric.
+ */
+final class Ir {
+  private Ir() {}
+
+  // Opcodes.                        operands          value / token
+  static final int CONST = 0;        //                 value
+  static final int PARAM = 1;        //                 index
+  static final int PHI = 2;          // one per predecessor
+  static final int COPY = 3;         // value
+  static final int ADD = 4;          // left right      / operator
+  static final int SUBTRACT = 5;
+  static final int MULTIPLY = 6;
+  static final int DIVIDE = 7;
+  static final int GREATER = 8;
+  static final int GREATER_EQUAL = 9;
+  static final int LESS = 10;
+  static final int LESS_EQUAL = 11;
+  static final int EQUAL = 12;       // left right
+  static final int NOT_EQUAL = 13;   // left right
+  static final int NEGATE = 14;      // operand         / operator
+  static final int NOT = 15;         // operand
+  static final int LOAD = 16;        //                 / name
+  static final int STORE = 17;       // value           / name
+  static final int DEFINE = 18;      // value           / name
+  static final int ENTER_SCOPE = 19;
+  static final int EXIT_SCOPE = 20;
+  static final int CLOSURE = 21;     //                 Function
+  static final int CALL = 22;        // callee arguments / paren
+  static final int PRINT = 23;       // value
+  static final int READ = 24;
+  static final int RAND = 25;
+  static final int LENGTH = 26;      // string          / loop variable
+  static final int CHAR_AT = 27;     // string index
+
+  // Terminators.
+  static final int JUMP = 28;        //                 targets: next
+  static final int BRANCH = 29;      // condition       targets: then, else
+  static final int RETURN = 30;      // value
+  static final int FAIL = 31;        //                 message / token
+
+  static final String[] NAMES = {
+    "const", "param", "phi", "copy", "add", "subtract", "multiply", "divide",
+    "greater", "greater_equal", "less", "less_equal", "equal", "not_equal",
+    "negate", "not", "load", "store", "define", "enter_scope", "exit_scope",
+    "closure", "call", "print", "read", "rand", "length", "char_at",
+    "jump", "branch", "return", "fail",
+  };
+
+  // A whole program: the top level, run as a function of no parameters,
+  // and every function declared in it.
+  static final class Program {
+    final List<Function> functions = new ArrayList<>();
+
+    Function script() {
+      return functions.get(0);
+    }
+  }
+
+  static final class Function {
+    final String name;
+    final List<Token> params;
+    final List<Block> blocks = new ArrayList<>();
+    private int values = 0;
+    private int blockIds = 0;
+
+    Function(String name, List<Token> params) {
+      this.name = name;
+      this.params = params;
+    }
+
+    Block entry() {
+      return blocks.get(0);
+    }
+
+    Block newBlock() {
+      Block block = new Block(blockIds++);
+      blocks.add(block);
+      return block;
+    }
+
+    Instruction newInstruction(int op) {
+      return new Instruction(op, values++);
+    }
+
+    // Replaces every use of from with to.
+    void replaceUses(Instruction from, Instruction to) {
+      for (Block block : blocks) {
+        for (Instruction instruction : block.instructions) {
+          instruction.operands.replaceAll(operand -> operand == from ? to : operand);
+        }
+      }
+    }
+
+    // The blocks reachable from the entry, in reverse postorder.
+    List<Block> reversePostorder() {
+      List<Block> order = new ArrayList<>();
+      Set<Block> visited = new HashSet<>();
+      postorder(entry(), visited, order);
+      Collections.reverse(order);
+      return order;
+    }
+
+    private static void postorder(Block block, Set<Block> visited, List<Block> order) {
+      // Iterative, since a long program is a long chain of blocks.
+      List<Block> stack = new ArrayList<>();
+      List<Integer> next = new ArrayList<>();
+      visited.add(block);
+      stack.add(block);
+      next.add(0);
+      while (!stack.isEmpty()) {
+        int top = stack.size() - 1;
+        List<Block> successors = stack.get(top).successors();
+        int index = next.get(top);
+        if (index < successors.size()) {
+          next.set(top, index + 1);
+          Block successor = successors.get(index);
+          if (visited.add(successor)) {
+            stack.add(successor);
+            next.add(0);
+          }
+        } else {
+          order.add(stack.remove(top));
+          next.remove(top);
+        }
+      }
+    }
+
+    // The immediate dominator of every reachable block, the entry being
+    // its own. From Cooper, Harvey and Kennedy, "A Simple, Fast Dominance
+    // Algorithm".
+    Map<Block, Block> dominators() {
+      List<Block> order = reversePostorder();
+      Map<Block, Integer> number = new HashMap<>();
+      for (int i = 0; i < order.size(); i++) number.put(order.get(i), i);
+
+      Map<Block, Block> idom = new HashMap<>();
+      idom.put(entry(), entry());
+      boolean changed = true;
+      while (changed) {
+        changed = false;
+        for (Block block : order.subList(1, order.size())) {
+          Block dominator = null;
+          for (Block predecessor : block.predecessors) {
+            if (!idom.containsKey(predecessor)) continue;
+            dominator = dominator == null
+                ? predecessor : intersect(predecessor, dominator, idom, number);
+          }
+          if (dominator != idom.get(block)) {
+            idom.put(block, dominator);
+            changed = true;
+          }
+        }
+      }
+      return idom;
+    }
+
+    private static Block intersect(Block a, Block b, Map<Block, Block> idom,
+        Map<Block, Integer> number) {
+      while (a != b) {
+        while (number.get(a) > number.get(b)) a = idom.get(a);
+        while (number.get(b) > number.get(a)) b = idom.get(b);
+      }
+      return a;
+    }
+  }
+
+  static final class Block {
+    final int id;
+    final List<Instruction> instructions = new ArrayList<>();
+    final List<Block> predecessors = new ArrayList<>();
+
+    Block(int id) {
+      this.id = id;
+    }
+
+    Instruction terminator() {
+      if (instructions.isEmpty()) return null;
+      Instruction last = instructions.get(instructions.size() - 1);
+      return last.isTerminator() ? last : null;
+    }
+
+    List<Block> successors() {
+      Instruction terminator = terminator();
+      return terminator == null ? List.of() : terminator.targets;
+    }
+
+    // Adds an instruction before the terminator, if there is one.
+    void add(Instruction instruction) {
+      instruction.block = this;
+      int at = terminator() == null ? instructions.size() : instructions.size() - 1;
+      instructions.add(at, instruction);
+    }
+
+    // Adds an instruction after the phis.
+    void addAfterPhis(Instruction instruction) {
+      instruction.block = this;
+      int at = 0;
+      while (at < instructions.size() && instructions.get(at).op == PHI) at++;
+      instructions.add(at, instruction);
+    }
+
+    // Forgets the edge from predecessor, and the phi operands for it.
+    void removePredecessor(Block predecessor) {
+      int index = predecessors.indexOf(predecessor);
+      predecessors.remove(index);
+      for (Instruction instruction : instructions) {
+        if (instruction.op == PHI) instruction.operands.remove(index);
+      }
+    }
+  }
+
+  static final class Instruction {
+    int op;
+    final int id;
+    final List<Instruction> operands = new ArrayList<>();
+    // The constant, parameter index, Function or FAIL message.
+    Object value;
+    // The token errors are reported at, or the name of a LOAD, STORE or
+    // DEFINE.
+    Token token;
+    // For operators: both operands are known to be numbers.
+    boolean numeric;
+    // The variable a COPY or PHI is a value of, if any, for the dump.
+    String name;
+    // Where control goes next, for a terminator.
+    final List<Block> targets = new ArrayList<>();
+    Block block;
+
+    private Instruction(int op, int id) {
+      this.op = op;
+      this.id = id;
+    }
+
+    boolean isTerminator() {
+      return op >= JUMP;
+    }
+
+    // Whether it yields a value other instructions can use.
+    boolean hasValue() {
+      switch (op) {
+        case STORE:
+        case DEFINE:
+        case ENTER_SCOPE:
+        case EXIT_SCOPE:
+        case PRINT:
+          return false;
+        default:
+          return !isTerminator();
+      }
+    }
+
+    boolean isOperator() {
+      return op >= ADD && op <= NOT;
+    }
+
+    // Whether running it can do anything but yield its value: change or
+    // read state, print, fail, or end the block.
+    boolean hasEffects() {
+      switch (op) {
+        case CONST:
+        case PARAM:
+        case PHI:
+        case COPY:
+        case EQUAL:
+        case NOT_EQUAL:
+        case NOT:
+        case CLOSURE:
+        case CHAR_AT:
+          return false;
+        case ADD:
+        case SUBTRACT:
+        case MULTIPLY:
+        case DIVIDE:
+        case GREATER:
+        case GREATER_EQUAL:
+        case LESS:
+        case LESS_EQUAL:
+        case NEGATE:
+          return !numeric;
+        default:
+          return true;
+      }
+    }
+
+    // Whether two of these with the same operands always yield the same
+    // value, so a second one can use the first one's.
+    boolean isRepeatable() {
+      switch (op) {
+        case CONST:
+        case COPY:
+        case CHAR_AT:
+        case LENGTH:
+          return true;
+        default:
+          return isOperator();
+      }
+    }
+  }
+}
@@ -0,0 +1,578 @@
+package translation;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Lowers a whole program to Ir, building SSA form as it goes with the
+ * algorithm of Braun et al., "Simple and Efficient Construction of Static
+ * Single Assignment Form": each block maps the variables assigned in it to
+ * their values, a read in a block with several predecessors makes a phi,
+ * and a loop header is sealed, its phis completed, once its back edge is
+ * known.
+ *
+ * Variables are found by name in a stack of scopes, as the interpreter
+ * does at runtime. A name some function declared inside the current one
+ * uses, or one a string loop in it declares, stays in an environment (see
+ * Ir), as does any name not declared in the current function. Every
+ * assignment of any other variable is a COPY named after it, which
+ * IrCopyPropagator removes.
+ */
+class IrBuilder implements Stmt.Visitor<Void>, Expr.Visitor<Ir.Instruction> {
+  // A variable that is only a name for values. Every declaration is a new
+  // one, so shadowing needs nothing special.
+  private static final class Variable {
+    final String name;
+
+    Variable(String name) {
+      this.name = name;
+    }
+  }
+
+  private final Ir.Program program;
+  private final Ir.Function function;
+  private final Set<String> inEnvironment;
+  private final List<Map<String, Variable>> scopes = new ArrayList<>();
+  private final Map<Ir.Block, Map<Variable, Ir.Instruction>> definitions = new HashMap<>();
+  private final Map<Ir.Block, Map<Variable, Ir.Instruction>> incompletePhis = new HashMap<>();
+  private final Set<Ir.Block> sealed = new HashSet<>();
+  // The counter of the CountingLoop running in each slot.
+  private final Map<Integer, Variable> counters = new HashMap<>();
+  private Ir.Block current;
+
+  private IrBuilder(Ir.Program program, String name, List<Token> params, List<Stmt> body) {
+    this.program = program;
+    this.function = new Ir.Function(uniqueName(program, name), params);
+    this.inEnvironment = inEnvironment(body);
+    program.functions.add(function);
+
+    scopes.add(new HashMap<>());
+    current = function.newBlock();
+    seal(current);
+    for (int i = 0; i < params.size(); i++) {
+      Ir.Instruction param = emit(Ir.PARAM, null);
+      param.value = i;
+      declare(params.get(i), param);
+    }
+  }
+
+  static Ir.Program lower(List<Stmt> statements) {
+    Ir.Program program = new Ir.Program();
+    new IrBuilder(program, "script", List.of(), statements).build(statements);
+    return program;
+  }
+
+  private Ir.Function build(List<Stmt> body) {
+    lowerAll(body);
+    if (current != null) {
+      Ir.Instruction nil = constant(null);
+      terminate(Ir.RETURN, null).operands.add(nil);
+    }
+    return function;
+  }
+
+  // Functions are printed by name, so two of the same name are told apart.
+  private static String uniqueName(Ir.Program program, String name) {
+    int same = 0;
+    for (Ir.Function function : program.functions) {
+      if (function.name.equals(name) || function.name.startsWith(name + "#")) same++;
+    }
+    return same == 0 ? name : name + "#" + (same + 1);
+  }
+
+  // The names in body that have to stay in an environment.
+  private static Set<String> inEnvironment(List<Stmt> body) {
+    Set<String> names = new HashSet<>();
+    TreeRewriter finder = new TreeRewriter() {
+      @Override
+      public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        names.addAll(Names.of(stmt).used());
+        return stmt;
+      }
+
+      @Override
+      public Stmt visitStringLoopStmt(Stmt.StringLoop stmt) {
+        names.add(stmt.name.lexeme);
+        return super.visitStringLoopStmt(stmt);
+      }
+    };
+    for (Stmt statement : body) finder.rewrite(statement);
+    return names;
+  }
+
+  // Whether a block declares anything in an environment, and so needs a
+  // scope of its own at runtime. Declarations in nested blocks do not
+  // count, but a string loop's variable is declared wherever the loop is.
+  private boolean declaresInEnvironment(List<Stmt> statements) {
+    boolean[] declares = {false};
+    TreeRewriter finder = new TreeRewriter() {
+      @Override
+      public Stmt visitBlockStmt(Stmt.Block stmt) {
+        return stmt;
+      }
+
+      @Override
+      public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        declares[0] |= inEnvironment.contains(stmt.name.lexeme);
+        return stmt;
+      }
+
+      @Override
+      public Stmt visitVarStmt(Stmt.Var stmt) {
+        declares[0] |= inEnvironment.contains(stmt.name.lexeme);
+        return stmt;
+      }
+
+      @Override
+      public Stmt visitStringLoopStmt(Stmt.StringLoop stmt) {
+        declares[0] = true;
+        return super.visitStringLoopStmt(stmt);
+      }
+    };
+    for (Stmt statement : statements) finder.rewrite(statement);
+    return declares[0];
+  }
+
+  // Emitting.
+
+  private Ir.Instruction emit(int op, Token token, Ir.Instruction... operands) {
+    Ir.Instruction instruction = function.newInstruction(op);
+    instruction.token = token;
+    for (Ir.Instruction operand : operands) instruction.operands.add(operand);
+    block().add(instruction);
+    return instruction;
+  }
+
+  // The block being filled. Code after a return has no predecessors, and
+  // goes in a block of its own that DCE removes.
+  private Ir.Block block() {
+    if (current == null) {
+      current = function.newBlock();
+      seal(current);
+    }
+    return current;
+  }
+
+  private Ir.Instruction constant(Object value) {
+    Ir.Instruction constant = emit(Ir.CONST, null);
+    constant.value = value;
+    return constant;
+  }
+
+  // Ends the current block. Nothing is reachable after that until code
+  // goes on in another block. Ending a block that has already ended, as
+  // a loop body that returns does, does nothing.
+  private Ir.Instruction terminate(int op, Token token, Ir.Block... targets) {
+    Ir.Instruction terminator = function.newInstruction(op);
+    terminator.token = token;
+    if (current == null) return terminator;
+
+    current.add(terminator);
+    for (Ir.Block target : targets) {
+      terminator.targets.add(target);
+      target.predecessors.add(current);
+    }
+    current = null;
+    return terminator;
+  }
+
+  private void jump(Ir.Block target) {
+    terminate(Ir.JUMP, null, target);
+  }
+
+  private void branch(Ir.Instruction condition, Ir.Block then, Ir.Block otherwise) {
+    terminate(Ir.BRANCH, null, then, otherwise).operands.add(condition);
+  }
+
+  // Variables.
+
+  private Variable lookup(String name) {
+    for (int i = scopes.size() - 1; i >= 0; i--) {
+      Variable variable = scopes.get(i).get(name);
+      if (variable != null) return variable;
+    }
+    return null;
+  }
+
+  private void declare(Token name, Ir.Instruction value) {
+    if (inEnvironment.contains(name.lexeme)) {
+      emit(Ir.DEFINE, name, value);
+      return;
+    }
+    Variable variable = new Variable(name.lexeme);
+    scopes.get(scopes.size() - 1).put(name.lexeme, variable);
+    assign(variable, value);
+  }
+
+  private Ir.Instruction assign(Variable variable, Ir.Instruction value) {
+    Ir.Instruction copy = emit(Ir.COPY, null, value);
+    copy.name = variable.name;
+    write(variable, block(), copy);
+    return copy;
+  }
+
+  private void write(Variable variable, Ir.Block block, Ir.Instruction value) {
+    definitions.computeIfAbsent(block, b -> new HashMap<>()).put(variable, value);
+  }
+
+  private Ir.Instruction read(Variable variable, Ir.Block block) {
+    Ir.Instruction value = definitions.getOrDefault(block, Map.of()).get(variable);
+    return value != null ? value : readRecursive(variable, block);
+  }
+
+  private Ir.Instruction readRecursive(Variable variable, Ir.Block block) {
+    Ir.Instruction value;
+    if (!sealed.contains(block)) {
+      value = phi(variable, block);
+      incompletePhis.computeIfAbsent(block, b -> new HashMap<>()).put(variable, value);
+    } else if (block.predecessors.size() == 1) {
+      value = read(variable, block.predecessors.get(0));
+    } else if (block.predecessors.isEmpty()) {
+      // Unreachable, or read before any declaration ran.
+      value = function.newInstruction(Ir.CONST);
+      block.addAfterPhis(value);
+    } else {
+      value = phi(variable, block);
+      write(variable, block, value);
+      addPhiOperands(variable, value);
+    }
+    write(variable, block, value);
+    return value;
+  }
+
+  private Ir.Instruction phi(Variable variable, Ir.Block block) {
+    Ir.Instruction phi = function.newInstruction(Ir.PHI);
+    phi.name = variable.name;
+    block.addAfterPhis(phi);
+    return phi;
+  }
+
+  private void addPhiOperands(Variable variable, Ir.Instruction phi) {
+    for (Ir.Block predecessor : phi.block.predecessors) {
+      phi.operands.add(read(variable, predecessor));
+    }
+  }
+
+  // No more predecessors will be added to block.
+  private void seal(Ir.Block block) {
+    Map<Variable, Ir.Instruction> phis = incompletePhis.remove(block);
+    sealed.add(block);
+    if (phis == null) return;
+    for (Map.Entry<Variable, Ir.Instruction> entry : phis.entrySet()) {
+      addPhiOperands(entry.getKey(), entry.getValue());
+    }
+  }
+
+  // Statements.
+
+  private void lowerAll(List<Stmt> statements) {
+    for (Stmt statement : statements) lower(statement);
+  }
+
+  private void lower(Stmt stmt) {
+    stmt.accept(this);
+  }
+
+  private Ir.Instruction lower(Expr expr) {
+    return expr.accept(this);
+  }
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    boolean scoped = declaresInEnvironment(stmt.statements);
+    if (scoped) emit(Ir.ENTER_SCOPE, null);
+    scopes.add(new HashMap<>());
+    lowerAll(stmt.statements);
+    scopes.remove(scopes.size() - 1);
+    if (scoped) emit(Ir.EXIT_SCOPE, null);
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    lower(stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitFunctionStmt(Stmt.Function stmt) {
+    Ir.Function nested = new IrBuilder(program, stmt.name.lexeme, stmt.params, stmt.body)
+        .build(stmt.body);
+    Ir.Instruction closure = emit(Ir.CLOSURE, stmt.name);
+    closure.value = nested;
+    declare(stmt.name, closure);
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    Ir.Instruction condition = lower(stmt.condition);
+    Ir.Block then = function.newBlock();
+    Ir.Block join = function.newBlock();
+    Ir.Block otherwise = stmt.elseBranch == null ? join : function.newBlock();
+    branch(condition, then, otherwise);
+
+    seal(then);
+    current = then;
+    lower(stmt.thenBranch);
+    jump(join);
+
+    if (stmt.elseBranch != null) {
+      seal(otherwise);
+      current = otherwise;
+      lower(stmt.elseBranch);
+      jump(join);
+    }
+
+    seal(join);
+    current = join;
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    emit(Ir.PRINT, null, lower(stmt.expression));
+    return null;
+  }
+
+  @Override
+  public Void visitReturnStmt(Stmt.Return stmt) {
+    Ir.Instruction value = stmt.value == null ? constant(null) : lower(stmt.value);
+    terminate(Ir.RETURN, stmt.keyword).operands.add(value);
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    Ir.Instruction value = stmt.initializer == null
+        ? constant(null) : lower(stmt.initializer);
+    declare(stmt.name, value);
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    Ir.Block header = function.newBlock();
+    jump(header);
+    current = header;
+    Ir.Instruction condition = lower(stmt.condition);
+    Ir.Block body = function.newBlock();
+    Ir.Block exit = function.newBlock();
+    branch(condition, body, exit);
+
+    seal(body);
+    current = body;
+    lower(stmt.body);
+    jump(header);
+
+    seal(header);
+    seal(exit);
+    current = exit;
+    return null;
+  }
+
+  @Override
+  public Void visitStringLoopStmt(Stmt.StringLoop stmt) {
+    Ir.Instruction string = lower(stmt.iterable);
+    Ir.Instruction length = emit(Ir.LENGTH, stmt.name, string);
+    Variable index = new Variable("$index");
+    Ir.Instruction start = constant(0.0);
+    write(index, current, start);
+
+    Ir.Block header = function.newBlock();
+    jump(header);
+    current = header;
+    Ir.Instruction more = emit(Ir.LESS, null, read(index, header), length);
+    more.numeric = true;
+    Ir.Block body = function.newBlock();
+    Ir.Block exit = function.newBlock();
+    branch(more, body, exit);
+
+    seal(body);
+    current = body;
+    Ir.Instruction at = read(index, body);
+    emit(Ir.DEFINE, stmt.name, emit(Ir.CHAR_AT, null, string, at));
+    lower(stmt.body);
+    if (current != null) {
+      Ir.Instruction next = emit(Ir.ADD, null, read(index, current), constant(1.0));
+      next.numeric = true;
+      write(index, current, next);
+      jump(header);
+    }
+
+    seal(header);
+    seal(exit);
+    current = exit;
+    return null;
+  }
+
+  @Override
+  public Void visitErrorStmt(Stmt.Error stmt) {
+    terminate(Ir.FAIL, stmt.token).value = stmt.message;
+    return null;
+  }
+
+  @Override
+  public Void visitCountingLoopStmt(Stmt.CountingLoop stmt) {
+    Variable counter = new Variable(stmt.name.lexeme);
+    Ir.Instruction start = constant((double) stmt.start);
+    write(counter, current, start);
+
+    Ir.Block header = function.newBlock();
+    jump(header);
+    current = header;
+    Ir.Instruction limit = lower(stmt.limit);
+    // The same check and error as the loop's own.
+    Ir.Instruction more = emit(comparison(stmt.operator), stmt.operator,
+        read(counter, current), limit);
+    Ir.Block body = function.newBlock();
+    Ir.Block exit = function.newBlock();
+    branch(more, body, exit);
+
+    seal(body);
+    current = body;
+    Variable enclosing = counters.put(stmt.slot, counter);
+    lower(stmt.body);
+    counters.put(stmt.slot, enclosing);
+    if (current != null) {
+      Ir.Instruction next = emit(Ir.ADD, null, read(counter, current),
+          constant((double) stmt.step));
+      next.numeric = true;
+      write(counter, current, next);
+      jump(header);
+    }
+
+    seal(header);
+    seal(exit);
+    current = exit;
+    return null;
+  }
+
+  private static int comparison(Token operator) {
+    switch (operator.type) {
+      case GREATER: return Ir.GREATER;
+      case GREATER_EQUAL: return Ir.GREATER_EQUAL;
+      case LESS: return Ir.LESS;
+      default: return Ir.LESS_EQUAL;
+    }
+  }
+
+  // Expressions.
+
+  @Override
+  public Ir.Instruction visitAssignExpr(Expr.Assign expr) {
+    Ir.Instruction value = lower(expr.value);
+    Variable variable = lookup(expr.name.lexeme);
+    if (variable == null) {
+      emit(Ir.STORE, expr.name, value);
+      return value;
+    }
+    return assign(variable, value);
+  }
+
+  @Override
+  public Ir.Instruction visitBinaryExpr(Expr.Binary expr) {
+    return operator(expr.operator, lower(expr.left), lower(expr.right));
+  }
+
+  @Override
+  public Ir.Instruction visitNumericExpr(Expr.Numeric expr) {
+    Ir.Instruction instruction = operator(expr.operator, lower(expr.left), lower(expr.right));
+    instruction.numeric = true;
+    return instruction;
+  }
+
+  private Ir.Instruction operator(Token operator, Ir.Instruction left, Ir.Instruction right) {
+    int op;
+    switch (operator.type) {
+      case PLUS: op = Ir.ADD; break;
+      case MINUS: op = Ir.SUBTRACT; break;
+      case STAR: op = Ir.MULTIPLY; break;
+      case SLASH: op = Ir.DIVIDE; break;
+      case EQUAL_EQUAL: op = Ir.EQUAL; break;
+      case BANG_EQUAL: op = Ir.NOT_EQUAL; break;
+      default: op = comparison(operator);
+    }
+    return emit(op, operator, left, right);
+  }
+
+  @Override
+  public Ir.Instruction visitCallExpr(Expr.Call expr) {
+    List<Ir.Instruction> operands = new ArrayList<>();
+    operands.add(lower(expr.callee));
+    for (Expr argument : expr.arguments) operands.add(lower(argument));
+    return emit(Ir.CALL, expr.paren, operands.toArray(new Ir.Instruction[0]));
+  }
+
+  @Override
+  public Ir.Instruction visitGroupingExpr(Expr.Grouping expr) {
+    return lower(expr.expression);
+  }
+
+  @Override
+  public Ir.Instruction visitLiteralExpr(Expr.Literal expr) {
+    return constant(expr.value);
+  }
+
+  @Override
+  public Ir.Instruction visitLogicalExpr(Expr.Logical expr) {
+    Ir.Instruction left = lower(expr.left);
+    Ir.Block right = function.newBlock();
+    Ir.Block join = function.newBlock();
+    if (expr.kind == Expr.OR) {
+      branch(left, join, right);
+    } else {
+      branch(left, right, join);
+    }
+
+    seal(right);
+    current = right;
+    Ir.Instruction value = lower(expr.right);
+    jump(join);
+
+    seal(join);
+    current = join;
+    Ir.Instruction phi = function.newInstruction(Ir.PHI);
+    phi.operands.add(left);
+    phi.operands.add(value);
+    join.addAfterPhis(phi);
+    return phi;
+  }
+
+  @Override
+  public Ir.Instruction visitUnaryExpr(Expr.Unary expr) {
+    Ir.Instruction operand = lower(expr.right);
+    return emit(expr.kind == Expr.NOT ? Ir.NOT : Ir.NEGATE, expr.operator, operand);
+  }
+
+  @Override
+  public Ir.Instruction visitVariableExpr(Expr.Variable expr) {
+    Variable variable = lookup(expr.name.lexeme);
+    if (variable == null) return emit(Ir.LOAD, expr.name);
+    return read(variable, block());
+  }
+
+  @Override
+  public Ir.Instruction visitDynamicExpr(Expr.Dynamic expr) {
+    return constant(expr.value);
+  }
+
+  @Override
+  public Ir.Instruction visitReadExpr(Expr.Read expr) {
+    return emit(Ir.READ, null);
+  }
+
+  @Override
+  public Ir.Instruction visitRandExpr(Expr.Rand expr) {
+    return emit(Ir.RAND, null);
+  }
+
+  @Override
+  public Ir.Instruction visitCounterExpr(Expr.Counter expr) {
+    return read(counters.get(expr.slot), block());
+  }
+}
@@ -0,0 +1,117 @@
+package translation;
+
+/**
+ * Evaluates operators whose operands are constants, the way the
+ * interpreter would, and turns branches on a constant into jumps. An
+ * operator that would fail at runtime is left to fail there.
+ *
+ * A folded instruction becomes a CONST in place, so its uses need no
+ * rewriting. The edge a folded branch no longer takes is removed, with
+ * the phi operands for it; IrDeadCodeEliminator removes what that leaves
+ * unreachable.
+ */
+class IrConstantFolder implements IrPass {
+  // What an instruction cannot be folded to.
+  private static final Object NONE = new Object();
+
+  @Override
+  public boolean run(Ir.Function function) {
+    boolean changed = false;
+    for (Ir.Block block : function.blocks) {
+      for (Ir.Instruction instruction : block.instructions) {
+        if (instruction.op == Ir.BRANCH) {
+          changed |= foldBranch(instruction);
+          continue;
+        }
+
+        Object value = fold(instruction);
+        if (value == NONE) continue;
+        instruction.op = Ir.CONST;
+        instruction.value = value;
+        instruction.numeric = false;
+        instruction.operands.clear();
+        changed = true;
+      }
+    }
+    return changed;
+  }
+
+  private static boolean foldBranch(Ir.Instruction branch) {
+    Ir.Instruction condition = branch.operands.get(0);
+    if (condition.op != Ir.CONST) return false;
+
+    boolean taken = Interpreter.isTruthy(condition.value);
+    Ir.Block target = branch.targets.get(taken ? 0 : 1);
+    Ir.Block dropped = branch.targets.get(taken ? 1 : 0);
+    dropped.removePredecessor(branch.block);
+    branch.op = Ir.JUMP;
+    branch.operands.clear();
+    branch.targets.clear();
+    branch.targets.add(target);
+    return true;
+  }
+
+  private static Object fold(Ir.Instruction instruction) {
+    if (instruction.op == Ir.CONST) return NONE;
+    for (Ir.Instruction operand : instruction.operands) {
+      if (operand.op != Ir.CONST) return NONE;
+    }
+
+    switch (instruction.op) {
+      case Ir.ADD:
+      case Ir.SUBTRACT:
+      case Ir.MULTIPLY:
+      case Ir.DIVIDE:
+      case Ir.GREATER:
+      case Ir.GREATER_EQUAL:
+      case Ir.LESS:
+      case Ir.LESS_EQUAL:
+      case Ir.EQUAL:
+      case Ir.NOT_EQUAL:
+        return binary(instruction.op, instruction.operands.get(0).value,
+            instruction.operands.get(1).value);
+      case Ir.NEGATE: {
+        Object operand = instruction.operands.get(0).value;
+        return operand instanceof Double ? -(double) operand : NONE;
+      }
+      case Ir.NOT:
+        return !Interpreter.isTruthy(instruction.operands.get(0).value);
+      case Ir.LENGTH: {
+        Object string = instruction.operands.get(0).value;
+        return string instanceof String ? (double) ((String) string).length() : NONE;
+      }
+      case Ir.CHAR_AT: {
+        Object string = instruction.operands.get(0).value;
+        Object index = instruction.operands.get(1).value;
+        if (!(string instanceof String) || !(index instanceof Double)) return NONE;
+        int at = (int) (double) index;
+        if (at != (double) index || at < 0 || at >= ((String) string).length()) return NONE;
+        return String.valueOf(((String) string).charAt(at));
+      }
+      default:
+        return NONE;
+    }
+  }
+
+  private static Object binary(int op, Object left, Object right) {
+    if (op == Ir.EQUAL) return Interpreter.isEqual(left, right);
+    if (op == Ir.NOT_EQUAL) return !Interpreter.isEqual(left, right);
+    if (op == Ir.ADD && left instanceof String && right instanceof String) {
+      return (String) left + (String) right;
+    }
+    if (!(left instanceof Double) || !(right instanceof Double)) return NONE;
+
+    double x = (double) left;
+    double y = (double) right;
+    switch (op) {
+      case Ir.ADD: return x + y;
+      case Ir.SUBTRACT: return x - y;
+      case Ir.MULTIPLY: return x * y;
+      case Ir.DIVIDE: return x / y;
+      case Ir.GREATER: return x > y;
+      case Ir.GREATER_EQUAL: return x >= y;
+      case Ir.LESS: return x < y;
+      default: return x <= y;
+    }
+  }
+}
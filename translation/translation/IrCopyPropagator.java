@@ -0,0 +1,64 @@
+package translation;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Replaces every use of a COPY with what it copies, and every use of a phi
+ * whose operands are all one value, or the phi itself around a loop, with
+ * that value. Removing one phi can leave another with only one value, so
+ * this goes on until none is left.
+ */
+class IrCopyPropagator implements IrPass {
+  @Override
+  public boolean run(Ir.Function function) {
+    Map<Ir.Instruction, Ir.Instruction> replaced = new HashMap<>();
+    boolean progress = true;
+    while (progress) {
+      progress = false;
+      for (Ir.Block block : function.blocks) {
+        for (Ir.Instruction instruction : block.instructions) {
+          if (replaced.containsKey(instruction)) continue;
+          Ir.Instruction value = null;
+          if (instruction.op == Ir.COPY) {
+            value = resolve(instruction.operands.get(0), replaced);
+          } else if (instruction.op == Ir.PHI) {
+            value = onlyValue(instruction, replaced);
+          }
+          if (value != null) {
+            replaced.put(instruction, value);
+            progress = true;
+          }
+        }
+      }
+    }
+    if (replaced.isEmpty()) return false;
+
+    for (Ir.Block block : function.blocks) {
+      block.instructions.removeIf(replaced::containsKey);
+      for (Ir.Instruction instruction : block.instructions) {
+        instruction.operands.replaceAll(operand -> resolve(operand, replaced));
+      }
+    }
+    return true;
+  }
+
+  // The one value other than itself a phi can have, or null.
+  private static Ir.Instruction onlyValue(Ir.Instruction phi,
+      Map<Ir.Instruction, Ir.Instruction> replaced) {
+    Ir.Instruction value = null;
+    for (Ir.Instruction operand : phi.operands) {
+      Ir.Instruction resolved = resolve(operand, replaced);
+      if (resolved == phi || resolved == value) continue;
+      if (value != null) return null;
+      value = resolved;
+    }
+    return value;
+  }
+
+  private static Ir.Instruction resolve(Ir.Instruction value,
+      Map<Ir.Instruction, Ir.Instruction> replaced) {
+    while (replaced.containsKey(value)) value = replaced.get(value);
+    return value;
+  }
+}
@@ -0,0 +1,87 @@
+package translation;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Removes blocks control cannot reach, and instructions whose values
+ * nothing that has an effect ever uses, including phis that only feed
+ * each other around a loop. A jump to a block nothing else jumps to is
+ * dead too: the block is merged into the one jumping.
+ */
+class IrDeadCodeEliminator implements IrPass {
+  @Override
+  public boolean run(Ir.Function function) {
+    boolean changed = removeUnreachable(function);
+
+    // Everything an instruction with an effect uses, however indirectly,
+    // is live.
+    Set<Ir.Instruction> live = new HashSet<>();
+    Deque<Ir.Instruction> work = new ArrayDeque<>();
+    for (Ir.Block block : function.blocks) {
+      for (Ir.Instruction instruction : block.instructions) {
+        if (instruction.hasEffects() && live.add(instruction)) work.add(instruction);
+      }
+    }
+    while (!work.isEmpty()) {
+      for (Ir.Instruction operand : work.remove().operands) {
+        if (live.add(operand)) work.add(operand);
+      }
+    }
+
+    for (Ir.Block block : function.blocks) {
+      changed |= block.instructions.removeIf(instruction -> !live.contains(instruction));
+    }
+    return mergeJumps(function) || changed;
+  }
+
+  private static boolean mergeJumps(Ir.Function function) {
+    boolean changed = false;
+    for (Ir.Block block : function.blocks) {
+      // Each merge may leave another jump at the end of block.
+      while (true) {
+        Ir.Instruction jump = block.terminator();
+        // Empty once merged into a block before it.
+        if (jump == null || jump.op != Ir.JUMP) break;
+        Ir.Block next = jump.targets.get(0);
+        if (next == block || next.predecessors.size() != 1
+            || next.instructions.get(0).op == Ir.PHI) {
+          break;
+        }
+
+        block.instructions.remove(jump);
+        for (Ir.Instruction instruction : next.instructions) {
+          instruction.block = block;
+          block.instructions.add(instruction);
+        }
+        next.instructions.clear();
+        for (Ir.Block successor : block.successors()) {
+          successor.predecessors.replaceAll(
+              predecessor -> predecessor == next ? block : predecessor);
+        }
+        next.predecessors.clear();
+        changed = true;
+      }
+    }
+    function.blocks.removeIf(block -> block.instructions.isEmpty());
+    return changed;
+  }
+
+  private static boolean removeUnreachable(Ir.Function function) {
+    Set<Ir.Block> reachable = new HashSet<>(function.reversePostorder());
+    if (reachable.size() == function.blocks.size()) return false;
+
+    for (Ir.Block block : function.blocks) {
+      if (reachable.contains(block)) continue;
+      List<Ir.Block> successors = block.successors();
+      for (Ir.Block successor : successors) {
+        if (reachable.contains(successor)) successor.removePredecessor(block);
+      }
+    }
+    function.blocks.removeIf(block -> !reachable.contains(block));
+    return true;
+  }
+}
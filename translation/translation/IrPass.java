@@ -0,0 +1,9 @@
+package translation;
+
+/**
+ * A rewrite of one Ir function, run by IrPassManager.
+ */
+interface IrPass {
+  // Rewrites function in place. Returns true if anything changed.
+  boolean run(Ir.Function function);
+}
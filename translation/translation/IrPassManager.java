@@ -0,0 +1,65 @@
+package translation;
+
+import java.io.PrintStream;
+import java.util.List;
+
+/**
+ * Runs the Ir passes over every function of a program, round after round
+ * until a whole round changes nothing, since each pass leaves work for the
+ * others: folding makes copies and dead branches, copy propagation makes
+ * operands the same for value numbering, and all of them leave dead code.
+ *
+ * The function is verified before the first pass and after every pass
+ * that changed it. At the end its blocks are laid out in reverse
+ * postorder, so each comes after the blocks that dominate it.
+ */
+class IrPassManager {
+  static final int MAX_ROUNDS = 8;
+
+  private final List<IrPass> passes = List.of(
+      new IrConstantFolder(),
+      new IrCopyPropagator(),
+      new IrValueNumbering(),
+      new IrDeadCodeEliminator());
+  // Null unless --optimize-report asked for one.
+  private final PrintStream report;
+
+  IrPassManager(PrintStream report) {
+    this.report = report;
+  }
+
+  void run(Ir.Program program) {
+    for (Ir.Function function : program.functions) run(function);
+  }
+
+  private void run(Ir.Function function) {
+    IrVerifier.verify(function);
+    for (int round = 0; round < MAX_ROUNDS; round++) {
+      boolean changed = false;
+      for (IrPass pass : passes) {
+        if (!pass.run(function)) continue;
+        changed = true;
+        try {
+          IrVerifier.verify(function);
+        } catch (IllegalStateException e) {
+          throw new IllegalStateException(
+              "After " + pass.getClass().getSimpleName() + ": " + e.getMessage(), e);
+        }
+      }
+      if (!changed) {
+        if (report != null) {
+          report.println("IR passes settled on " + function.name + " after "
+              + (round + 1) + (round == 0 ? " round." : " rounds."));
+        }
+        break;
+      }
+    }
+
+    // Every block is reachable once IrDeadCodeEliminator has run.
+    List<Ir.Block> order = function.reversePostorder();
+    if (order.size() == function.blocks.size()) {
+      function.blocks.clear();
+      function.blocks.addAll(order);
+    }
+  }
+}
@@ -0,0 +1,113 @@
+package translation;
+
+import java.util.List;
+
+/**
+ * Prints Ir as text, for --dump-ir:
+ *
+ *   fun add(a, b) {
+ *   b0:
+ *     %0 = param 0  ; a
+ *     %1 = param 1  ; b
+ *     %2 = add %0, %1
+ *     return %2
+ *   }
+ *
+ * A block with more than one predecessor lists them, which is the order
+ * of its phis' operands. Values that are a variable's say so after a
+ * semicolon, and operators whose operands are known to be numbers are
+ * prefixed with "number".
+ */
+class IrPrinter {
+  private IrPrinter() {}
+
+  static String print(Ir.Program program) {
+    StringBuilder builder = new StringBuilder();
+    for (Ir.Function function : program.functions) print(function, builder);
+    return builder.toString();
+  }
+
+  private static void print(Ir.Function function, StringBuilder builder) {
+    builder.append("fun ").append(function.name).append("(");
+    for (int i = 0; i < function.params.size(); i++) {
+      if (i > 0) builder.append(", ");
+      builder.append(function.params.get(i).lexeme);
+    }
+    builder.append(") {\n");
+
+    for (Ir.Block block : function.blocks) {
+      builder.append(label(block)).append(":");
+      if (block.predecessors.size() > 1 || block.predecessors.isEmpty() && block != function.entry()) {
+        builder.append("  ; from");
+        if (block.predecessors.isEmpty()) builder.append(" nowhere");
+        for (Ir.Block predecessor : block.predecessors) {
+          builder.append(" ").append(label(predecessor));
+        }
+      }
+      builder.append("\n");
+      for (Ir.Instruction instruction : block.instructions) {
+        builder.append("  ").append(print(instruction)).append("\n");
+      }
+    }
+    builder.append("}\n");
+  }
+
+  static String print(Ir.Instruction instruction) {
+    StringBuilder builder = new StringBuilder();
+    if (instruction.hasValue()) builder.append(value(instruction)).append(" = ");
+    if (instruction.numeric) builder.append("number ");
+    builder.append(Ir.NAMES[instruction.op]);
+
+    String separator = " ";
+    switch (instruction.op) {
+      case Ir.CONST:
+        builder.append(" ").append(constant(instruction.value));
+        break;
+      case Ir.PARAM:
+        builder.append(" ").append(instruction.value);
+        break;
+      case Ir.LOAD:
+      case Ir.STORE:
+      case Ir.DEFINE:
+        builder.append(" ").append(instruction.token.lexeme);
+        separator = ", ";
+        break;
+      case Ir.CLOSURE:
+        builder.append(" ").append(((Ir.Function) instruction.value).name);
+        break;
+      case Ir.FAIL:
+        builder.append(" ").append(constant(instruction.value));
+        break;
+    }
+
+    List<Ir.Instruction> operands = instruction.operands;
+    for (int i = 0; i < operands.size(); i++) {
+      builder.append(i == 0 ? separator : ", ").append(value(operands.get(i)));
+    }
+    for (int i = 0; i < instruction.targets.size(); i++) {
+      builder.append(i == 0 && operands.isEmpty() ? " " : ", ")
+          .append(label(instruction.targets.get(i)));
+    }
+
+    if (instruction.name != null) builder.append("  ; ").append(instruction.name);
+    return builder.toString();
+  }
+
+  static String value(Ir.Instruction instruction) {
+    return "%" + instruction.id;
+  }
+
+  static String label(Ir.Block block) {
+    return "b" + block.id;
+  }
+
+  private static String constant(Object value) {
+    if (value == null) return "nil";
+    if (value instanceof String) return "\"" + value + "\"";
+    if (value instanceof Double) {
+      String text = value.toString();
+      return text.endsWith(".0") ? text.substring(0, text.length() - 2) : text;
+    }
+    return value.toString();
+  }
+}
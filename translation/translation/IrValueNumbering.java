@@ -0,0 +1,80 @@
+package translation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Global value numbering: an instruction that always yields the same value
+ * for the same operands (see Ir.Instruction.isRepeatable()), with the same
+ * operands as one that dominates it, uses that one's value instead. So do
+ * phis of one block with the same operands.
+ *
+ * An operator that would fail does so at the earlier instruction, which
+ * runs first, so reusing its value fails no differently.
+ */
+class IrValueNumbering implements IrPass {
+  @Override
+  public boolean run(Ir.Function function) {
+    Map<Ir.Block, Ir.Block> idom = function.dominators();
+    Map<List<Object>, List<Ir.Instruction>> seen = new HashMap<>();
+    Map<Ir.Instruction, Ir.Instruction> replaced = new HashMap<>();
+
+    // In reverse postorder, a block comes after every block dominating it.
+    for (Ir.Block block : function.reversePostorder()) {
+      for (Ir.Instruction instruction : block.instructions) {
+        if (!instruction.isRepeatable() && instruction.op != Ir.PHI) continue;
+
+        List<Object> key = key(instruction, replaced);
+        List<Ir.Instruction> candidates = seen.computeIfAbsent(key, k -> new ArrayList<>());
+        Ir.Instruction earlier = null;
+        for (Ir.Instruction candidate : candidates) {
+          if (dominates(candidate.block, block, idom)) {
+            earlier = candidate;
+            break;
+          }
+        }
+        if (earlier != null) {
+          replaced.put(instruction, earlier);
+        } else {
+          candidates.add(instruction);
+        }
+      }
+    }
+    if (replaced.isEmpty()) return false;
+
+    for (Ir.Block block : function.blocks) {
+      block.instructions.removeIf(replaced::containsKey);
+      for (Ir.Instruction instruction : block.instructions) {
+        instruction.operands.replaceAll(operand -> replaced.getOrDefault(operand, operand));
+      }
+    }
+    return true;
+  }
+
+  // What two instructions with the same value have in common. Constants
+  // are compared with equals(), which tells 0 and -0 apart.
+  private static List<Object> key(Ir.Instruction instruction,
+      Map<Ir.Instruction, Ir.Instruction> replaced) {
+    List<Object> key = new ArrayList<>();
+    key.add(instruction.op);
+    key.add(instruction.op == Ir.PHI ? instruction.block : null);
+    key.add(instruction.value == null ? null : Arrays.asList(instruction.value.getClass(), instruction.value));
+    for (Ir.Instruction operand : instruction.operands) {
+      key.add(replaced.getOrDefault(operand, operand));
+    }
+    return key;
+  }
+
+  private static boolean dominates(Ir.Block dominator, Ir.Block block,
+      Map<Ir.Block, Ir.Block> idom) {
+    while (true) {
+      if (block == dominator) return true;
+      Ir.Block parent = idom.get(block);
+      if (parent == block) return false;
+      block = parent;
+    }
+  }
+}
@@ -0,0 +1,155 @@
+package translation;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Checks that a function is well-formed Ir, throwing IllegalStateException
+ * at the first thing that is not:
+ *
+ * - every block ends with its only terminator, and its phis come first,
+ *   one operand per predecessor;
+ * - a block is a predecessor of another exactly as often as it targets it;
+ * - every operand is an instruction of the function that yields a value;
+ * - every value dominates its uses, a phi operand the predecessor it is
+ *   for, within reachable code.
+ *
+ * IrPassManager verifies after every pass, so a broken pass is caught
+ * where it went wrong.
+ */
+class IrVerifier {
+  private final Ir.Function function;
+  // Where each instruction is in its block.
+  private final Map<Ir.Instruction, Integer> positions = new HashMap<>();
+  private Map<Ir.Block, Ir.Block> idom;
+
+  private IrVerifier(Ir.Function function) {
+    this.function = function;
+  }
+
+  static void verify(Ir.Function function) {
+    new IrVerifier(function).verify();
+  }
+
+  private void verify() {
+    Set<Ir.Block> blocks = new HashSet<>(function.blocks);
+    if (!function.entry().predecessors.isEmpty()) fail("the entry has predecessors");
+
+    for (Ir.Block block : function.blocks) {
+      checkShape(block);
+      checkEdges(block, blocks);
+      for (int i = 0; i < block.instructions.size(); i++) {
+        positions.put(block.instructions.get(i), i);
+      }
+    }
+
+    idom = function.dominators();
+    for (Ir.Block block : function.blocks) {
+      if (!idom.containsKey(block)) continue;
+      for (Ir.Instruction instruction : block.instructions) checkOperands(instruction);
+    }
+  }
+
+  private void checkShape(Ir.Block block) {
+    List<Ir.Instruction> instructions = block.instructions;
+    if (instructions.isEmpty() || !instructions.get(instructions.size() - 1).isTerminator()) {
+      fail(IrPrinter.label(block) + " does not end with a terminator");
+    }
+
+    boolean phis = true;
+    for (int i = 0; i < instructions.size(); i++) {
+      Ir.Instruction instruction = instructions.get(i);
+      if (instruction.block != block) {
+        fail(IrPrinter.value(instruction) + " is not marked as in " + IrPrinter.label(block));
+      }
+      if (instruction.isTerminator() && i != instructions.size() - 1) {
+        fail(IrPrinter.label(block) + " has a terminator before its end");
+      }
+      if (instruction.op == Ir.PHI) {
+        if (!phis) fail(IrPrinter.value(instruction) + " is a phi after other instructions");
+        if (instruction.operands.size() != block.predecessors.size()) {
+          fail(IrPrinter.value(instruction) + " has " + instruction.operands.size()
+              + " operands for " + block.predecessors.size() + " predecessors");
+        }
+      } else {
+        phis = false;
+      }
+    }
+
+    Ir.Instruction terminator = block.terminator();
+    int targets = terminator.op == Ir.JUMP ? 1 : terminator.op == Ir.BRANCH ? 2 : 0;
+    if (terminator.targets.size() != targets) {
+      fail(IrPrinter.label(block) + " ends with " + terminator.targets.size() + " targets");
+    }
+  }
+
+  private void checkEdges(Ir.Block block, Set<Ir.Block> blocks) {
+    for (Ir.Block target : block.successors()) {
+      if (!blocks.contains(target)) {
+        fail(IrPrinter.label(block) + " jumps to a block not in the function");
+      }
+      if (count(target.predecessors, block) != count(block.successors(), target)) {
+        fail(IrPrinter.label(target) + " does not list " + IrPrinter.label(block)
+            + " as a predecessor as often as it is targeted");
+      }
+    }
+    for (Ir.Block predecessor : block.predecessors) {
+      if (!predecessor.successors().contains(block)) {
+        fail(IrPrinter.label(block) + " lists " + IrPrinter.label(predecessor)
+            + " as a predecessor, which does not target it");
+      }
+    }
+  }
+
+  private static int count(List<Ir.Block> blocks, Ir.Block block) {
+    int count = 0;
+    for (Ir.Block each : blocks) {
+      if (each == block) count++;
+    }
+    return count;
+  }
+
+  private void checkOperands(Ir.Instruction instruction) {
+    for (int i = 0; i < instruction.operands.size(); i++) {
+      Ir.Instruction operand = instruction.operands.get(i);
+      if (operand == null || !positions.containsKey(operand)) {
+        fail(IrPrinter.value(instruction) + " uses a value not in the function");
+      }
+      if (!operand.hasValue()) {
+        fail(IrPrinter.value(instruction) + " uses " + IrPrinter.value(operand)
+            + ", which has no value");
+      }
+
+      if (instruction.op == Ir.PHI) {
+        // Available at the end of the predecessor it comes from.
+        Ir.Block predecessor = instruction.block.predecessors.get(i);
+        if (idom.containsKey(predecessor) && !dominates(operand.block, predecessor)) {
+          fail(IrPrinter.value(operand) + " does not dominate " + IrPrinter.label(predecessor)
+              + " for " + IrPrinter.value(instruction));
+        }
+      } else if (operand.block == instruction.block
+          ? positions.get(operand) >= positions.get(instruction)
+          : !dominates(operand.block, instruction.block)) {
+        fail(IrPrinter.value(operand) + " does not dominate its use in "
+            + IrPrinter.value(instruction));
+      }
+    }
+  }
+
+  private boolean dominates(Ir.Block dominator, Ir.Block block) {
+    if (!idom.containsKey(dominator)) return false;
+    while (true) {
+      if (block == dominator) return true;
+      Ir.Block parent = idom.get(block);
+      if (parent == block) return false;
+      block = parent;
+    }
+  }
+
+  private void fail(String message) {
+    throw new IllegalStateException("Invalid IR in " + function.name + ": " + message + ".");
+  }
+}
@@ -0,0 +1,244 @@
+package translation;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough JSON for the language server.
+ *
+ * Objects read as Map<String, Object>, arrays as List<Object>, numbers as
+ * Double, and the rest as String, Boolean or null. write() takes the same
+ * shapes back, printing whole numbers without a fraction so request ids
+ * round-trip unchanged.
+ */
+class Json {
+  static class ParseError extends RuntimeException {
+    ParseError(String message) {
+      super(message);
+    }
+  }
+
+  private final String text;
+  private int current = 0;
+
+  private Json(String text) {
+    this.text = text;
+  }
+
+  static Object parse(String text) {
+    Json json = new Json(text);
+    Object value = json.value();
+    json.skipWhitespace();
+    if (json.current != text.length()) throw json.error("Unexpected text");
+    return value;
+  }
+
+  static String write(Object value) {
+    StringBuilder out = new StringBuilder();
+    write(value, out);
+    return out.toString();
+  }
+
+  private Object value() {
+    skipWhitespace();
+    if (current >= text.length()) throw error("Unexpected end");
+
+    char c = text.charAt(current);
+    switch (c) {
+      case '{': return object();
+      case '[': return array();
+      case '"': return string();
+      case 't': return literal("true", true);
+      case 'f': return literal("false", false);
+      case 'n': return literal("null", null);
+      default:
+        if (c == '-' || (c >= '0' && c <= '9')) return number();
+        throw error("Unexpected '" + c + "'");
+    }
+  }
+
+  private Map<String, Object> object() {
+    Map<String, Object> object = new LinkedHashMap<>();
+    current++;
+    skipWhitespace();
+    if (match('}')) return object;
+
+    do {
+      skipWhitespace();
+      if (current >= text.length() || text.charAt(current) != '"') {
+        throw error("Expect member name");
+      }
+      String name = string();
+      skipWhitespace();
+      expect(':');
+      object.put(name, value());
+      skipWhitespace();
+    } while (match(','));
+    expect('}');
+    return object;
+  }
+
+  private List<Object> array() {
+    List<Object> array = new ArrayList<>();
+    current++;
+    skipWhitespace();
+    if (match(']')) return array;
+
+    do {
+      array.add(value());
+      skipWhitespace();
+    } while (match(','));
+    expect(']');
+    return array;
+  }
+
+  private String string() {
+    StringBuilder value = new StringBuilder();
+    current++;
+    for (;;) {
+      if (current >= text.length()) throw error("Unterminated string");
+
+      char c = text.charAt(current++);
+      if (c == '"') return value.toString();
+      if (c != '\\') {
+        value.append(c);
+        continue;
+      }
+
+      if (current >= text.length()) throw error("Unterminated string");
+      char escape = text.charAt(current++);
+      switch (escape) {
+        case '"':
+        case '\\':
+        case '/':
+          value.append(escape);
+          break;
+        case 'b': value.append('\b'); break;
+        case 'f': value.append('\f'); break;
+        case 'n': value.append('\n'); break;
+        case 'r': value.append('\r'); break;
+        case 't': value.append('\t'); break;
+        case 'u':
+          if (current + 4 > text.length()) throw error("Bad escape");
+          try {
+            value.append((char) Integer.parseInt(
+                text.substring(current, current + 4), 16));
+          } catch (NumberFormatException e) {
+            throw error("Bad escape");
+          }
+          current += 4;
+          break;
+        default:
+          throw error("Bad escape");
+      }
+    }
+  }
+
+  private Double number() {
+    int start = current;
+    if (text.charAt(current) == '-') current++;
+    while (current < text.length()
+        && "0123456789.eE+-".indexOf(text.charAt(current)) >= 0) {
+      current++;
+    }
+
+    try {
+      return Double.parseDouble(text.substring(start, current));
+    } catch (NumberFormatException e) {
+      throw error("Bad number");
+    }
+  }
+
+  private Object literal(String word, Object value) {
+    if (!text.startsWith(word, current)) throw error("Unexpected text");
+    current += word.length();
+    return value;
+  }
+
+  private void skipWhitespace() {
+    while (current < text.length()
+        && Character.isWhitespace(text.charAt(current))) {
+      current++;
+    }
+  }
+
+  private boolean match(char expected) {
+    if (current < text.length() && text.charAt(current) == expected) {
+      current++;
+      return true;
+    }
+    return false;
+  }
+
+  private void expect(char expected) {
+    if (!match(expected)) throw error("Expect '" + expected + "'");
+  }
+
+  private ParseError error(String message) {
+    return new ParseError(message + " at offset " + current + ".");
+  }
+
+  private static void write(Object value, StringBuilder out) {
+    if (value == null) {
+      out.append("null");
+    } else if (value instanceof String) {
+      writeString((String) value, out);
+    } else if (value instanceof Number) {
+      double number = ((Number) value).doubleValue();
+      if (number == Math.rint(number) && Math.abs(number) < 1e15) {
+        out.append((long) number);
+      } else {
+        out.append(number);
+      }
+    } else if (value instanceof Boolean) {
+      out.append(value);
+    } else if (value instanceof Map) {
+      out.append('{');
+      boolean first = true;
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        if (!first) out.append(',');
+        first = false;
+        writeString(entry.getKey().toString(), out);
+        out.append(':');
+        write(entry.getValue(), out);
+      }
+      out.append('}');
+    } else if (value instanceof List) {
+      out.append('[');
+      boolean first = true;
+      for (Object element : (List<?>) value) {
+        if (!first) out.append(',');
+        first = false;
+        write(element, out);
+      }
+      out.append(']');
+    } else {
+      throw new IllegalArgumentException(
+          "Can't write " + value.getClass().getName() + " as JSON.");
+    }
+  }
+
+  private static void writeString(String value, StringBuilder out) {
+    out.append('"');
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '"': out.append("\\\""); break;
+        case '\\': out.append("\\\\"); break;
+        case '\n': out.append("\\n"); break;
+        case '\r': out.append("\\r"); break;
+        case '\t': out.append("\\t"); break;
+        default:
+          if (c < 0x20) {
+            out.append(String.format("\\u%04x", (int) c));
+          } else {
+            out.append(c);
+          }
+          break;
+      }
+    }
+    out.append('"');
+  }
+}
@@ -0,0 +1,500 @@
+package translation;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A language server speaking LSP over stdin and stdout, started with
+ * "lox lsp". It publishes syntax errors and answers go-to-definition and
+ * hover.
+ *
+ * Each open document keeps an IncrementalParser, so an edit only reparses
+ * the declarations it touches. Analysis (collecting diagnostics and
+ * building the SymbolIndex) waits until edits pause for DEBOUNCE_MILLIS,
+ * and gives up as soon as a newer edit arrives. Queries are answered from
+ * the last finished analysis.
+ *
+ * All document work happens on one worker thread, in the order messages
+ * arrived. The message loop only reads, decodes and hands off, so a slow
+ * analysis never holds up reading the next message.
+ */
+class LanguageServer {
+  private static final long DEBOUNCE_MILLIS = 50;
+  // How long exit waits for work queued before it.
+  private static final long DRAIN_SECONDS = 10;
+
+  // JSON-RPC error codes.
+  private static final int PARSE_ERROR = -32700;
+  private static final int INVALID_REQUEST = -32600;
+  private static final int METHOD_NOT_FOUND = -32601;
+  private static final int INTERNAL_ERROR = -32603;
+
+  // What one analysis found, for the text as it stood at version.
+  private static class Analysis {
+    final int version;
+    final int[] lineStarts;
+    final SymbolIndex index;
+
+    Analysis(int version, int[] lineStarts, SymbolIndex index) {
+      this.version = version;
+      this.lineStarts = lineStarts;
+      this.index = index;
+    }
+
+    int offset(Map<?, ?> position) {
+      int line = number(position.get("line"));
+      int character = number(position.get("character"));
+      if (line >= lineStarts.length) return lineStarts[lineStarts.length - 1];
+      return lineStarts[line] + character;
+    }
+
+    Map<String, Object> range(int offset, int length) {
+      Map<String, Object> range = new LinkedHashMap<>();
+      range.put("start", position(offset));
+      range.put("end", position(offset + length));
+      return range;
+    }
+
+    private Map<String, Object> position(int offset) {
+      int line = Arrays.binarySearch(lineStarts, offset);
+      if (line < 0) line = -line - 2;
+      Map<String, Object> position = new LinkedHashMap<>();
+      position.put("line", line);
+      position.put("character", offset - lineStarts[line]);
+      return position;
+    }
+  }
+
+  private static class Document {
+    final String uri;
+    // Changes the message loop has seen.
+    volatile int received = 0;
+    // Only touched by the message loop.
+    ScheduledFuture<?> pending = null;
+    // Only touched on the worker.
+    IncrementalParser parser;
+    int applied = 0;
+    Analysis analysis = null;
+
+    Document(String uri) {
+      this.uri = uri;
+    }
+  }
+
+  private final InputStream in;
+  private final OutputStream out;
+  private final int maxDepth;
+  private final ScheduledExecutorService worker;
+  private final Map<String, Document> documents = new ConcurrentHashMap<>();
+  private boolean shuttingDown = false;
+
+  LanguageServer(InputStream in, OutputStream out, int maxDepth) {
+    this.in = new BufferedInputStream(in);
+    this.out = out;
+    this.maxDepth = maxDepth;
+    this.worker = Executors.newSingleThreadScheduledExecutor(task -> {
+      Thread thread = Lox.newThread(task, "lox-analysis");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  // Serves until the client says exit or closes the input. Returns the
+  // exit code the protocol asks for.
+  int run() throws IOException {
+    for (;;) {
+      String content = read();
+      if (content == null) return finish();
+
+      Map<?, ?> message;
+      try {
+        Object parsed = Json.parse(content);
+        if (!(parsed instanceof Map)) throw new Json.ParseError("Expect an object.");
+        message = (Map<?, ?>) parsed;
+      } catch (Json.ParseError error) {
+        sendError(null, PARSE_ERROR, error.getMessage());
+        continue;
+      }
+
+      Object method = message.get("method");
+      if (method == null) continue; // A response to us. We never ask.
+      if (method.equals("exit")) return finish();
+
+      Object id = message.get("id");
+      try {
+        dispatch((String) method, id, (Map<?, ?>) message.get("params"));
+      } catch (RuntimeException error) {
+        // Fields missing or of the wrong type. A bad notification has no
+        // one to tell, and neither takes the server down.
+        if (id != null) sendError(id, INVALID_REQUEST, "Malformed request: " + error);
+        else System.err.println("Malformed notification: " + error);
+      }
+    }
+  }
+
+  private void dispatch(String method, Object id, Map<?, ?> params) {
+    if (shuttingDown && id != null) {
+      sendError(id, INVALID_REQUEST, "The server is shutting down.");
+      return;
+    }
+
+    switch (method) {
+      case "initialize":
+        respond(id, capabilities());
+        break;
+      case "shutdown":
+        shuttingDown = true;
+        // Answered on the worker, so the reply comes after the answers
+        // and diagnostics for everything sent before it.
+        submit(() -> respond(id, null));
+        worker.shutdown();
+        break;
+      case "textDocument/didOpen":
+        didOpen((Map<?, ?>) params.get("textDocument"));
+        break;
+      case "textDocument/didChange":
+        didChange(params);
+        break;
+      case "textDocument/didClose":
+        didClose((Map<?, ?>) params.get("textDocument"));
+        break;
+      case "textDocument/definition":
+        query(id, params, this::definition);
+        break;
+      case "textDocument/hover":
+        query(id, params, this::hover);
+        break;
+      default:
+        // Notifications we don't handle, like "initialized" and
+        // "$/cancelRequest", are simply dropped.
+        if (id != null) sendError(id, METHOD_NOT_FOUND, "Unknown method " + method + ".");
+        break;
+    }
+  }
+
+  // Lets the worker finish the work already queued, so nothing the client
+  // sent before leaving goes unanswered, and returns the exit code.
+  private int finish() {
+    worker.shutdown();
+    try {
+      worker.awaitTermination(DRAIN_SECONDS, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return shuttingDown ? 0 : 1;
+  }
+
+  private Map<String, Object> capabilities() {
+    Map<String, Object> sync = new LinkedHashMap<>();
+    sync.put("openClose", true);
+    sync.put("change", 2); // Incremental.
+
+    Map<String, Object> capabilities = new LinkedHashMap<>();
+    capabilities.put("textDocumentSync", sync);
+    capabilities.put("definitionProvider", true);
+    capabilities.put("hoverProvider", true);
+
+    Map<String, Object> serverInfo = new LinkedHashMap<>();
+    serverInfo.put("name", "lox");
+
+    Map<String, Object> result = new LinkedHashMap<>();
+    result.put("capabilities", capabilities);
+    result.put("serverInfo", serverInfo);
+    return result;
+  }
+
+  private void didOpen(Map<?, ?> item) {
+    Document document = new Document((String) item.get("uri"));
+    String text = (String) item.get("text");
+    documents.put(document.uri, document);
+    submit(() -> {
+      document.parser = new IncrementalParser(text, maxDepth);
+      analyze(document, () -> false);
+    });
+  }
+
+  private void didChange(Map<?, ?> params) {
+    Map<?, ?> item = (Map<?, ?>) params.get("textDocument");
+    Document document = documents.get((String) item.get("uri"));
+    if (document == null) return;
+
+    List<?> changes = (List<?>) params.get("contentChanges");
+    int version = ++document.received;
+    submit(() -> {
+      for (Object change : changes) apply(document.parser, (Map<?, ?>) change);
+      document.applied = version;
+    });
+
+    // Each change pushes the analysis back, so typing is never interrupted
+    // by work whose result is about to be thrown away.
+    if (document.pending != null) document.pending.cancel(false);
+    if (worker.isShutdown()) return;
+    document.pending = worker.schedule(() -> {
+      try {
+        if (document.received != version) return;
+        // A query may have needed this version analyzed already.
+        Analysis done = document.analysis;
+        if (done != null && done.version == version) return;
+        analyze(document, () -> document.received != version);
+      } catch (RuntimeException error) {
+        System.err.println("Analysis failed: " + error);
+      }
+    }, DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+  }
+
+  private void didClose(Map<?, ?> item) {
+    Document document = documents.remove((String) item.get("uri"));
+    if (document == null) return;
+
+    if (document.pending != null) document.pending.cancel(false);
+    submit(() -> publishDiagnostics(document.uri, new ArrayList<>()));
+  }
+
+  private static void apply(IncrementalParser parser, Map<?, ?> change) {
+    String text = (String) change.get("text");
+    Map<?, ?> range = (Map<?, ?>) change.get("range");
+    CharSequence current = parser.text();
+    if (range == null) {
+      parser.edit(0, current.length(), text);
+      return;
+    }
+
+    int start = offset(current, (Map<?, ?>) range.get("start"));
+    int end = Math.max(start, offset(current, (Map<?, ?>) range.get("end")));
+    parser.edit(start, end - start, text);
+  }
+
+  // Edits arrive between analyses, so positions in them are found in the
+  // text itself rather than through the last analysis's line table.
+  private static int offset(CharSequence text, Map<?, ?> position) {
+    int line = number(position.get("line"));
+    int character = number(position.get("character"));
+
+    int offset = 0;
+    for (int i = 0; i < line; i++) {
+      while (offset < text.length() && text.charAt(offset) != '\n') offset++;
+      if (offset == text.length()) return offset;
+      offset++;
+    }
+    return Math.min(offset + character, text.length());
+  }
+
+  private interface Query {
+    Object answer(Document document, Analysis analysis, int offset);
+  }
+
+  // Runs after every change that arrived before the query, and answers
+  // from the matching analysis, making it first if the debounced one has
+  // not run yet.
+  private void query(Object id, Map<?, ?> params, Query query) {
+    Map<?, ?> item = (Map<?, ?>) params.get("textDocument");
+    Document document = documents.get((String) item.get("uri"));
+    if (document == null) {
+      respond(id, null);
+      return;
+    }
+
+    Map<?, ?> position = (Map<?, ?>) params.get("position");
+    submit(() -> {
+      try {
+        Analysis analysis = document.analysis;
+        if (analysis == null || analysis.version != document.applied) {
+          analysis = analyze(document, () -> false);
+        }
+        respond(id, query.answer(document, analysis, analysis.offset(position)));
+      } catch (RuntimeException error) {
+        sendError(id, INTERNAL_ERROR, error.toString());
+      }
+    });
+  }
+
+  private Object definition(Document document, Analysis analysis, int offset) {
+    SymbolIndex.Symbol symbol = analysis.index.at(offset);
+    if (symbol == null) return null;
+
+    Map<String, Object> location = new LinkedHashMap<>();
+    location.put("uri", document.uri);
+    location.put("range", analysis.range(symbol.offset, symbol.length));
+    return location;
+  }
+
+  private Object hover(Document document, Analysis analysis, int offset) {
+    SymbolIndex.Symbol symbol = analysis.index.at(offset);
+    if (symbol == null) return null;
+
+    Map<String, Object> contents = new LinkedHashMap<>();
+    contents.put("kind", "plaintext");
+    contents.put("value", symbol.description);
+    Map<String, Object> hover = new LinkedHashMap<>();
+    hover.put("contents", contents);
+    return hover;
+  }
+
+  // Returns null, and changes nothing, if superseded() turns true first.
+  private Analysis analyze(Document document, BooleanSupplier superseded) {
+    IncrementalParser parser = document.parser;
+    SymbolIndex index = SymbolIndex.build(parser.statements(), superseded);
+    if (index == null) return null;
+
+    Analysis analysis = new Analysis(document.applied,
+        lineStarts(parser.text()), index);
+    document.analysis = analysis;
+
+    List<Object> diagnostics = new ArrayList<>();
+    for (Diagnostic diagnostic : parser.diagnostics()) {
+      Map<String, Object> item = new LinkedHashMap<>();
+      item.put("range", analysis.range(
+          Math.max(diagnostic.offset, 0), diagnostic.length));
+      item.put("severity", 1); // Error.
+      item.put("source", "lox");
+      item.put("message", diagnostic.message);
+      diagnostics.add(item);
+    }
+    publishDiagnostics(document.uri, diagnostics);
+    return analysis;
+  }
+
+  private static int[] lineStarts(CharSequence text) {
+    int count = 1;
+    for (int i = 0; i < text.length(); i++) {
+      if (text.charAt(i) == '\n') count++;
+    }
+
+    int[] starts = new int[count];
+    int line = 1;
+    for (int i = 0; i < text.length(); i++) {
+      if (text.charAt(i) == '\n') starts[line++] = i + 1;
+    }
+    return starts;
+  }
+
+  private void publishDiagnostics(String uri, List<Object> diagnostics) {
+    Map<String, Object> params = new LinkedHashMap<>();
+    params.put("uri", uri);
+    params.put("diagnostics", diagnostics);
+
+    Map<String, Object> message = new LinkedHashMap<>();
+    message.put("jsonrpc", "2.0");
+    message.put("method", "textDocument/publishDiagnostics");
+    message.put("params", params);
+    send(message);
+  }
+
+  private void submit(Runnable task) {
+    if (worker.isShutdown()) return;
+    worker.execute(() -> {
+      try {
+        task.run();
+      } catch (RuntimeException error) {
+        System.err.println("Language server task failed: " + error);
+      }
+    });
+  }
+
+  private void respond(Object id, Object result) {
+    Map<String, Object> message = new LinkedHashMap<>();
+    message.put("jsonrpc", "2.0");
+    message.put("id", id);
+    message.put("result", result);
+    send(message);
+  }
+
+  private void sendError(Object id, int code, String text) {
+    Map<String, Object> error = new LinkedHashMap<>();
+    error.put("code", code);
+    error.put("message", text);
+
+    Map<String, Object> message = new LinkedHashMap<>();
+    message.put("jsonrpc", "2.0");
+    message.put("id", id);
+    message.put("error", error);
+    send(message);
+  }
+
+  // Reads one message body, or returns null at the end of the input. A
+  // message whose headers give no usable length is skipped.
+  private String read() throws IOException {
+    for (;;) {
+      int length = -1;
+      String problem = "no Content-Length";
+      for (;;) {
+        String header = readLine();
+        if (header == null) return null;
+        if (header.isEmpty()) break;
+
+        // Without a length the body is read as a header line, and since a
+        // body need not end in a newline, that line runs on into the next
+        // message's first header. Looking for the header anywhere in the
+        // line finds that message again.
+        int start = header.toLowerCase(Locale.ROOT).lastIndexOf("content-length");
+        if (start < 0) continue;
+        String rest = header.substring(start + "content-length".length()).trim();
+        if (!rest.startsWith(":")) continue;
+
+        String value = rest.substring(1).trim();
+        length = length(value);
+        if (length < 0) problem = "bad Content-Length \"" + value + "\"";
+      }
+
+      if (length < 0) {
+        System.err.println("Skipped a message with " + problem + ".");
+        continue;
+      }
+      byte[] body = in.readNBytes(length);
+      if (body.length < length) return null;
+      return new String(body, StandardCharsets.UTF_8);
+    }
+  }
+
+  // Returns -1 unless value is a length.
+  private static int length(String value) {
+    try {
+      return Math.max(Integer.parseInt(value), -1);
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private String readLine() throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    for (;;) {
+      int b = in.read();
+      if (b == -1) return null;
+      if (b == '\n') break;
+      if (b != '\r') line.write(b);
+    }
+    return line.toString(StandardCharsets.US_ASCII);
+  }
+
+  private synchronized void send(Map<String, Object> message) {
+    byte[] body = Json.write(message).getBytes(StandardCharsets.UTF_8);
+    try {
+      out.write(("Content-Length: " + body.length + "\r\n\r\n")
+          .getBytes(StandardCharsets.US_ASCII));
+      out.write(body);
+      out.flush();
+    } catch (IOException e) {
+      // The client has gone. The read loop will notice and stop.
+    }
+  }
+
+  private static int number(Object value) {
+    return ((Number) value).intValue();
+  }
+}
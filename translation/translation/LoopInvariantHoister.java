@@ -0,0 +1,157 @@
+package translation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Computes expressions whose value cannot change while a loop runs once
+ * per entry to the loop instead of once per iteration.
+ *
+ * An expression is invariant if it only reads variables the loop neither
+ * declares nor assigns, and calls nothing but pure natives (see
+ * SideEffects). If the loop calls anything else, a variable also has to be
+ * one that nothing in the program assigns, since the callee might. Only
+ * expressions with an operator or a call in them are worth the trouble.
+ *
+ * Each one gets a temporary declared just before the loop, and is
+ * replaced by
+ *
+ *   temporary or (temporary = expression)
+ *
+ * so it is still evaluated first exactly where it used to be. Hoisting it
+ * in front of the loop instead would evaluate it even when the loop or
+ * the branch it is in never runs, and an error it raises would come too
+ * early, or when it should not come at all. After the first time, every
+ * truthy value is reused; a nil or false result is simply computed again,
+ * which is still correct.
+ *
+ * Temporaries are named with a '$', which no identifier in a script can
+ * contain. Expressions inside functions declared in a loop are left alone:
+ * the function may run after the loop, when the value could differ.
+ */
+class LoopInvariantHoister extends TreeRewriter {
+  // Null when working on a statement on its own.
+  private final Names program;
+  private int temporaries = 0;
+
+  LoopInvariantHoister(Names program) {
+    this.program = program;
+  }
+
+  @Override
+  public Stmt visitWhileStmt(Stmt.While stmt) {
+    // Inner loops first.
+    Stmt.While loop = (Stmt.While) super.visitWhileStmt(stmt);
+    Hoist hoist = new Hoist(Names.of(loop));
+    Expr condition = hoist.rewrite(loop.condition);
+    Stmt body = hoist.rewrite(loop.body);
+    return hoist.around(new Stmt.While(condition, body), loop);
+  }
+
+  @Override
+  public Stmt visitStringLoopStmt(Stmt.StringLoop stmt) {
+    // The iterable is only evaluated once anyway.
+    Stmt.StringLoop loop = (Stmt.StringLoop) super.visitStringLoopStmt(stmt);
+    Hoist hoist = new Hoist(Names.of(loop));
+    Stmt body = hoist.rewrite(loop.body);
+    return hoist.around(new Stmt.StringLoop(loop.name, loop.iterable, body), loop);
+  }
+
+  @Override
+  public Stmt visitCountingLoopStmt(Stmt.CountingLoop stmt) {
+    Stmt.CountingLoop loop = (Stmt.CountingLoop) super.visitCountingLoopStmt(stmt);
+    Hoist hoist = new Hoist(Names.of(loop));
+    Expr limit = hoist.rewrite(loop.limit);
+    Stmt body = hoist.rewrite(loop.body);
+    return hoist.around(new Stmt.CountingLoop(loop.name, loop.start, loop.operator,
+        limit, loop.step, body, loop.slot), loop);
+  }
+
+  // Replaces the invariant expressions in one loop.
+  private class Hoist extends TreeRewriter {
+    private final Names loop;
+    private final boolean callsOut;
+    private final List<Token> hoisted = new ArrayList<>();
+
+    Hoist(Names loop) {
+      this.loop = loop;
+      boolean callsOut = false;
+      for (String callee : loop.called()) {
+        if (!SideEffects.isPureNative(callee, program)) callsOut = true;
+      }
+      this.callsOut = callsOut;
+    }
+
+    // The rewritten loop in a block with its temporaries, or the original
+    // loop if nothing was hoisted.
+    Stmt around(Stmt rewritten, Stmt original) {
+      if (hoisted.isEmpty()) return original;
+
+      List<Stmt> statements = new ArrayList<>();
+      for (Token temporary : hoisted) statements.add(new Stmt.Var(temporary, null));
+      statements.add(rewritten);
+      return new Stmt.Block(statements);
+    }
+
+    @Override
+    Expr rewrite(Expr expr) {
+      if (expr == null || !isWorthHoisting(expr) || !isInvariant(expr)) {
+        return super.rewrite(expr);
+      }
+
+      Token temporary = new Token(TokenType.IDENTIFIER,
+          "$invariant" + temporaries++, null, 0);
+      hoisted.add(temporary);
+      return Expr.Logical.of(new Expr.Variable(temporary),
+          new Token(TokenType.OR, "or", null, 0),
+          new Expr.Assign(temporary, expr));
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+      return stmt;
+    }
+
+    private boolean isWorthHoisting(Expr expr) {
+      while (expr instanceof Expr.Grouping) expr = ((Expr.Grouping) expr).expression;
+      return expr instanceof Expr.Binary || expr instanceof Expr.Logical
+          || expr instanceof Expr.Unary || expr instanceof Expr.Call;
+    }
+
+    private boolean isInvariant(Expr expr) {
+      if (expr instanceof Expr.Literal || expr instanceof Expr.Dynamic) return true;
+      if (expr instanceof Expr.Variable) {
+        String name = ((Expr.Variable) expr).name.lexeme;
+        if (loop.declarations(name) > 0 || loop.isAssigned(name)) return false;
+        return !callsOut || (program != null && !program.isAssigned(name));
+      }
+      if (expr instanceof Expr.Grouping) {
+        return isInvariant(((Expr.Grouping) expr).expression);
+      }
+      if (expr instanceof Expr.Binary) {
+        Expr.Binary binary = (Expr.Binary) expr;
+        return isInvariant(binary.left) && isInvariant(binary.right);
+      }
+      if (expr instanceof Expr.Logical) {
+        Expr.Logical logical = (Expr.Logical) expr;
+        return isInvariant(logical.left) && isInvariant(logical.right);
+      }
+      if (expr instanceof Expr.Unary) {
+        return isInvariant(((Expr.Unary) expr).right);
+      }
+      if (expr instanceof Expr.Call) {
+        Expr.Call call = (Expr.Call) expr;
+        if (!(call.callee instanceof Expr.Variable)
+            || !SideEffects.isPureNative(((Expr.Variable) call.callee).name.lexeme, program)) {
+          return false;
+        }
+        for (Expr argument : call.arguments) {
+          if (!isInvariant(argument)) return false;
+        }
+        return true;
+      }
+      // Assignments, read() and rand().
+      return false;
+    }
+  }
+}
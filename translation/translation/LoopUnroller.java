@@ -0,0 +1,147 @@
+package translation;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replaces a for loop that runs a known, small number of times with one
+ * copy of its body per iteration, in each of which the variable is the
+ * literal it would have held. Constant folding can then work on every
+ * copy.
+ *
+ * A ForLoop qualifies if its start, limit and step are number literals and
+ * only its increment changes the variable. The values the variable goes
+ * through are worked out here with the same double arithmetic and
+ * comparison the interpreter would use. The copies together may have at
+ * most budget nodes; a budget of 0 unrolls nothing.
+ *
+ * Each copy of a body that is a block is still a block, so variables it
+ * declares are new for every iteration as before.
+ */
+class LoopUnroller extends TreeRewriter {
+  static final int DEFAULT_BUDGET = 64;
+
+  private final int budget;
+  // Null unless --optimize-report asked for one.
+  private final PrintStream report;
+
+  LoopUnroller(int budget, PrintStream report) {
+    this.budget = budget;
+    this.report = report;
+  }
+
+  @Override
+  public Stmt visitBlockStmt(Stmt.Block stmt) {
+    // Inner loops first, so their copies count towards this one's size.
+    Stmt rewritten = super.visitBlockStmt(stmt);
+    if (!(rewritten instanceof Stmt.Block)) return rewritten;
+
+    ForLoop loop = ForLoop.match((Stmt.Block) rewritten);
+    if (loop == null) return rewritten;
+    List<Double> values = values(loop);
+    if (values == null) return rewritten;
+
+    if (report != null) {
+      report.println("[line " + loop.name.line + "] Unrolled loop over "
+          + loop.name.lexeme + ", " + values.size()
+          + (values.size() == 1 ? " iteration." : " iterations."));
+    }
+    List<Stmt> copies = new ArrayList<>();
+    for (double value : values) copies.add(new Copy(loop.name.lexeme, value).rewrite(loop.body));
+    return copies.isEmpty() ? null : new Stmt.Block(copies);
+  }
+
+  // The value of the variable in each iteration, or null if the loop does
+  // not qualify or its copies would not fit the budget.
+  private List<Double> values(ForLoop loop) {
+    Object start = constant(loop.start);
+    Object limit = constant(loop.limit());
+    Double step = loop.step();
+    if (!(start instanceof Double) || !(limit instanceof Double) || step == null) {
+      return null;
+    }
+    if (budget == 0 || !loop.isOnlyStepped()) return null;
+
+    int size = size(loop.body);
+    List<Double> values = new ArrayList<>();
+    double value = (double) start;
+    double bound = (double) limit;
+    while (isTrue(loop.condition.kind, value, bound)) {
+      if ((long) (values.size() + 1) * size > budget) return null;
+      values.add(value);
+      // x - k is exactly x + -k, so a negative step rounds the same.
+      value += step;
+    }
+    return values;
+  }
+
+  private static Object constant(Expr expr) {
+    return expr instanceof Expr.Literal ? ((Expr.Literal) expr).value : null;
+  }
+
+  private static boolean isTrue(int comparison, double value, double bound) {
+    switch (comparison) {
+      case Expr.LESS: return value < bound;
+      case Expr.LESS_EQUAL: return value <= bound;
+      case Expr.GREATER: return value > bound;
+      default: return value >= bound;
+    }
+  }
+
+  private static int size(Stmt stmt) {
+    int[] size = {0};
+    new TreeRewriter() {
+      @Override
+      Stmt rewrite(Stmt stmt) {
+        if (stmt != null) size[0]++;
+        return super.rewrite(stmt);
+      }
+
+      @Override
+      Expr rewrite(Expr expr) {
+        if (expr != null) size[0]++;
+        return super.rewrite(expr);
+      }
+    }.rewrite(stmt);
+    return size[0];
+  }
+
+  // A copy of a loop body with the variable replaced by a value. Every
+  // expression is a new node, so no two copies share one.
+  private static class Copy extends TreeRewriter {
+    private final String name;
+    private final double value;
+
+    Copy(String name, double value) {
+      this.name = name;
+      this.value = value;
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+      if (expr.name.lexeme.equals(name)) return new Expr.Literal(value);
+      return new Expr.Variable(expr.name);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+      return new Expr.Literal(expr.value);
+    }
+
+    @Override
+    public Expr visitDynamicExpr(Expr.Dynamic expr) {
+      return new Expr.Dynamic(expr.token, expr.value);
+    }
+
+    @Override
+    public Expr visitReadExpr(Expr.Read expr) {
+      return new Expr.Read();
+    }
+
+    @Override
+    public Expr visitRandExpr(Expr.Rand expr) {
+      return new Expr.Rand();
+    }
+  }
+}
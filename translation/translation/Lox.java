@@ -3,32 +3,186 @@ package translation;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
+import java.io.UncheckedIOException;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 
 public class Lox {
-  private static final Interpreter interpreter = new Interpreter();
+  private static Interpreter interpreter;
+  // Set with --flat, which runs programs as a FlatAst instead.
+  private static FlatInterpreter flatInterpreter = null;
+  private static FlatAst flatAst = null;
   static boolean hadError = false;
   static boolean hadRuntimeError = false;
+  private static boolean streaming = false;
+  private static boolean parallel = false;
+  private static boolean lazy = false;
+  private static boolean languageServer = false;
+  private static boolean flat = false;
+  private static boolean switchDispatch = false;
+  private static boolean optimize = false;
+  private static boolean dumpOptimized = false;
+  private static boolean optimizeReport = false;
+  private static boolean dumpIr = false;
+  private static int unrollBudget = LoopUnroller.DEFAULT_BUDGET;
+  // Set at the prompt, where later lines may still assign a line's
+  // variables, so no line can be optimized as a whole program.
+  private static boolean interactive = false;
+  private static InterningExprFactory interner = null;
+  // Set with --cache, which keeps parsed scripts on disk.
+  private static AstCache cache = null;
+  private static int maxDepth = Parser.DEFAULT_MAX_DEPTH;
+
+  // Stack reserved per level of nesting the parser allows. Parsing and
+  // evaluating one level each take a handful of frames; this leaves room
+  // for both, so deep input hits the depth limit rather than the end of
+  // the stack.
+  private static final long STACK_BYTES_PER_LEVEL = 2048;
+  private static final long BASE_STACK_BYTES = 1 << 20;
+  // The most --max-depth allows, which asks for about 200 MB of stack.
+  private static final int MAX_MAX_DEPTH = 100_000;
+
+  // How many parsed declarations the streaming parser may run ahead of
+  // the interpreter.
+  private static final int STREAM_BUFFER = 64;
+  private static final Stmt END_OF_STREAM = new Stmt.Expression(null);
 
   public static void main(String[] args) throws IOException {
-    if (args.length > 1) {
-      System.out.println("Usage: Lox [script]");
-      System.exit(64); 
-    } else if (args.length == 1) {
-      runFile(args[0]);
-      System.exit(0);
+    String path = null;
+    for (String arg : args) {
+      if (arg.equals("--stream")) {
+        streaming = true;
+      } else if (arg.equals("--lazy")) {
+        lazy = true;
+      } else if (arg.equals("--intern")) {
+        interner = new InterningExprFactory();
+      } else if (arg.equals("--flat")) {
+        flat = true;
+      } else if (arg.equals("--switch")) {
+        switchDispatch = true;
+      } else if (arg.equals("--optimize")) {
+        optimize = true;
+      } else if (arg.equals("--dump-optimized")) {
+        optimize = true;
+        dumpOptimized = true;
+      } else if (arg.equals("--dump-ir")) {
+        dumpIr = true;
+      } else if (arg.startsWith("--unroll-budget=")) {
+        // A budget of 0 turns unrolling off.
+        unrollBudget = number(arg.substring("--unroll-budget=".length()), 0, Integer.MAX_VALUE);
+      } else if (arg.equals("--optimize-report")) {
+        optimize = true;
+        optimizeReport = true;
+      } else if (arg.equals("--cache")) {
+        cache = new AstCache(Paths.get(System.getProperty("user.home"), ".cache", "lox"));
+      } else if (arg.startsWith("--cache=")) {
+        cache = new AstCache(Paths.get(arg.substring("--cache=".length())));
+      } else if (arg.equals("--parallel")) {
+        parallel = true;
+      } else if (arg.equals("lsp") && path == null) {
+        languageServer = true;
+      } else if (arg.startsWith("--max-depth=")) {
+        maxDepth = number(arg.substring("--max-depth=".length()), 1, MAX_MAX_DEPTH);
+      } else if (path == null && !languageServer && !arg.startsWith("--")) {
+        path = arg;
+      } else {
+        usage();
+      }
+    }
+
+    // The optimizer rewrites every function body up front, so there is
+    // nothing left for --lazy to put off.
+    if (optimize) lazy = false;
+    // An interned tree's lines live in the interner, not in the tree, so
+    // one loaded from the cache could not say which lines shared code
+    // stands for.
+    if (interner != null) cache = null;
+    // The IR is built from the whole program at once.
+    if (dumpIr) {
+      lazy = false;
+      streaming = false;
+    }
+
+    if (flat) {
+      // The whole tree is encoded before it runs, so there is nothing
+      // left for --lazy to put off.
+      lazy = false;
+      flatInterpreter = new FlatInterpreter();
+      flatAst = new FlatAst();
+      interpreter = flatInterpreter;
+    } else if (switchDispatch) {
+      interpreter = new SwitchInterpreter();
     } else {
-      runPrompt();
+      interpreter = new Interpreter();
     }
 
+    String script = path;
+    Thread main = newThread(() -> {
+      try {
+        if (languageServer) {
+          System.exit(new LanguageServer(System.in, System.out, maxDepth).run());
+        } else if (script != null) {
+          runFile(script);
+          System.exit(0);
+        } else {
+          runPrompt();
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }, "lox");
+    main.start();
+  }
+
+  private static void usage() {
+    System.out.println("Usage: Lox [--stream | --parallel] [--lazy] [--intern] [--flat | --switch] [--optimize | --dump-optimized] [--optimize-report] [--dump-ir] [--unroll-budget=N] [--cache[=DIR]] [--max-depth=N] [script | lsp]");
+    System.exit(64);
+  }
+
+  // Parses the value of a numeric argument, which must lie between min
+  // and max. Anything else gets the usage line, like any bad argument.
+  private static int number(String value, int min, int max) {
+    try {
+      int number = Integer.parseInt(value);
+      if (number >= min && number <= max) return number;
+    } catch (NumberFormatException e) {
+      // Not a number at all.
+    }
+    usage();
+    return min; // Not reached.
+  }
+
+  // Everything runs on threads whose stack is sized for maxDepth, so
+  // deeply nested scripts work without raising -Xss.
+  static Thread newThread(Runnable task, String name) {
+    long stackSize = BASE_STACK_BYTES + maxDepth * STACK_BYTES_PER_LEVEL;
+    Thread thread = new Thread(null, task, name, stackSize);
+    // The JVM exits with status 0 once its last thread ends, however that
+    // thread ended, so a crash has to set the status itself.
+    thread.setUncaughtExceptionHandler(Lox::crash);
+    return thread;
+  }
+
+  private static void crash(Thread thread, Throwable error) {
+    System.err.print("Exception in thread \"" + thread.getName() + "\" ");
+    error.printStackTrace();
+    System.exit(70);
   }
 
   private static void runFile(String path) throws IOException {
-    byte[] bytes = Files.readAllBytes(Paths.get(path));
-    run(new String(bytes, Charset.defaultCharset()));
+    // Scan straight out of the mapped file instead of copying it into a
+    // String first.
+    MappedSource source = MappedSource.map(Paths.get(path));
+    if (cache != null) {
+      runCached(source);
+    } else if (streaming) {
+      runStreaming(source);
+    } else {
+      run(source);
+    }
 
     // Indicate an error in the exit code.
     if (hadError) System.exit(65);
@@ -36,6 +190,7 @@ public class Lox {
   }
 
   private static void runPrompt() throws IOException {
+    interactive = true;
     InputStreamReader input = new InputStreamReader(System.in);
     BufferedReader reader = new BufferedReader(input);
 
@@ -48,14 +203,153 @@ public class Lox {
     }
   }
   
-  private static void run(String source){
-    Scanner scanner = new Scanner(source);
-    List<Token> tokens = scanner.scanTokens();
-    Parser parser = new Parser(tokens);
-    List<Stmt> statements = parser.parse();
+  private static void run(CharSequence source){
+    List<Stmt> statements = parse(source);
     if (hadError) return;
-    
-    interpreter.interpret(statements);
+
+    interpret(statements);
+  }
+
+  // Runs the tree cached for source, or parses it and caches the tree for
+  // the next run. The whole file is run at once, so this takes the place
+  // of --stream. Lazily parsed trees are not stored: writing one out
+  // would parse every body anyway. --intern turns the cache off.
+  private static void runCached(MappedSource source) {
+    String key = cache.key(source, maxDepth);
+    List<Stmt> statements = cache.load(key);
+    if (statements == null) {
+      statements = parse(source);
+      if (hadError) return;
+      if (!lazy) cache.store(key, statements);
+    }
+
+    interpret(statements);
+  }
+
+  private static List<Stmt> parse(CharSequence source) {
+    List<Stmt> statements = null;
+    // Interning depends on the order nodes are made in, so it always
+    // parses sequentially.
+    if (parallel && interner == null) {
+      statements = ParallelParser.parse(source, maxDepth, lazy);
+    }
+
+    // The sequential parser also handles everything the parallel one
+    // gave up on, which includes every script with errors.
+    if (statements == null) {
+      Parser parser = new Parser(new Scanner(source));
+      parser.setMaxDepth(maxDepth);
+      parser.setLazy(lazy);
+      if (interner != null) parser.setExprFactory(interner);
+      statements = parser.parse();
+    }
+    return statements;
+  }
+
+  private static void interpret(List<Stmt> statements) {
+    if (optimize) {
+      if (interactive) {
+        List<Stmt> optimized = new ArrayList<>();
+        for (Stmt statement : statements) {
+          Stmt kept = Optimizer.optimize(statement, unrollBudget);
+          if (kept != null) optimized.add(kept);
+        }
+        statements = optimized;
+      } else {
+        statements = Optimizer.optimize(statements, unrollBudget,
+            optimizeReport ? System.err : null);
+      }
+    }
+
+    // --dump-ir shows the program lowered to SSA form instead of running
+    // it, after the IR passes if it is being optimized.
+    if (dumpIr) {
+      Ir.Program program = IrBuilder.lower(statements);
+      if (optimize) new IrPassManager(optimizeReport ? System.err : null).run(program);
+      else program.functions.forEach(IrVerifier::verify);
+      System.out.print(IrPrinter.print(program));
+      return;
+    }
+
+    // --dump-optimized shows what would run instead of running it.
+    if (dumpOptimized) {
+      AstPrinter printer = new AstPrinter();
+      for (Stmt statement : statements) System.out.println(printer.print(statement));
+      return;
+    }
+
+    if (flatAst != null) {
+      flatInterpreter.interpret(flatAst, flatAst.addAll(statements));
+    } else {
+      interpreter.interpret(statements);
+    }
+  }
+
+  // Runs each top-level declaration as soon as it has been parsed. The
+  // parser works on its own thread, at most STREAM_BUFFER declarations
+  // ahead. Once a syntax error shows up nothing from that declaration on
+  // is executed, but the parser still reads the rest of the file so every
+  // error gets reported, just as it would without streaming.
+  private static void runStreaming(CharSequence source) {
+    BlockingQueue<Stmt> queue = new ArrayBlockingQueue<>(STREAM_BUFFER);
+    Thread parserThread = newThread(() -> {
+      try {
+        Parser parser = new Parser(new Scanner(source));
+        parser.setMaxDepth(maxDepth);
+        parser.setLazy(lazy);
+        if (interner != null) parser.setExprFactory(interner);
+        parser.parse(statement -> {
+          if (!hadError) put(queue, statement);
+        });
+      } finally {
+        put(queue, END_OF_STREAM);
+      }
+    }, "lox-parser");
+    parserThread.start();
+
+    boolean running = true;
+    for (;;) {
+      Stmt statement = take(queue);
+      if (statement == END_OF_STREAM) break;
+      if (!running) continue;
+
+      if (optimize) {
+        statement = Optimizer.optimize(statement, unrollBudget);
+        if (statement == null) continue;
+      }
+      if (dumpOptimized) {
+        System.out.println(new AstPrinter().print(statement));
+        continue;
+      }
+      if (flatAst != null) {
+        running = flatInterpreter.interpretStatement(flatAst, flatAst.add(statement));
+      } else {
+        running = interpreter.interpret(statement);
+      }
+    }
+
+    try {
+      parserThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static void put(BlockingQueue<Stmt> queue, Stmt statement) {
+    try {
+      queue.put(statement);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static Stmt take(BlockingQueue<Stmt> queue) {
+    try {
+      return queue.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return END_OF_STREAM;
+    }
   }
 
   public static void scan(String source, Scanner scanner){
@@ -74,11 +368,40 @@ public class Lox {
     }
   }
 
+  static void report(Diagnostic diagnostic) {
+    report(diagnostic.line, diagnostic.where, diagnostic.message);
+  }
+
   static void runtimeError(RuntimeError error) {
-      System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
+      System.err.println(error.getMessage() + "\n" + where(error.token));
       hadRuntimeError = true;
   }
 
+  // With --intern one token can stand for the same code on several lines,
+  // and there is no telling which of them was running.
+  private static String where(Token token) {
+    int[] lines = sharedLines(token);
+    if (lines == null) return "[line " + token.line + "]";
+
+    StringBuilder where = new StringBuilder("[lines ");
+    for (int i = 0; i < lines.length; i++) {
+      if (i > 0) where.append(", ");
+      where.append(lines[i]);
+    }
+    return where.append("]").toString();
+  }
+
+  // The " at line N" runtime error messages end with. It is left out for a
+  // token that stands for several lines, which where() lists instead.
+  static String atLine(Token token) {
+    return sharedLines(token) == null ? " at line " + token.line : "";
+  }
+
+  private static int[] sharedLines(Token token) {
+    int[] lines = interner == null ? null : interner.lines(token);
+    return lines == null || lines.length < 2 ? null : lines;
+  }
+
   private static void report(int line, String where,
                              String message) {
     System.err.println(
@@ -21,20 +21,34 @@ class LoxFunction implements LoxCallable {
     return declaration.params.size();
   }
 
+  // A return of a call to another LoxFunction hands that call back here
+  // as a TailCall, and the loop makes it in place of this one.
   @Override
   public Object call(Interpreter interpreter,
                 List<Object> arguments) {
-    Environment environment = new Environment(closure);
-    for (int i = 0; i < declaration.params.size(); i++) {
-      environment.define(declaration.params.get(i).lexeme,
-          arguments.get(i));
-    }
-
+    LoxFunction function = this;
+    interpreter.functionDepth++;
     try {
-        interpreter.executeBlock(declaration.body, environment);
-    } catch (Return returnValue) {
-        return returnValue.value;
+      while (true) {
+        Environment environment = new Environment(function.closure);
+        for (int i = 0; i < function.declaration.params.size(); i++) {
+          environment.define(function.declaration.params.get(i).lexeme,
+              arguments.get(i));
+        }
+
+        try {
+            interpreter.executeBlock(function.declaration.body, environment);
+        } catch (TailCall tailCall) {
+            function = tailCall.function;
+            arguments = tailCall.arguments;
+            continue;
+        } catch (Return returnValue) {
+            return returnValue.value;
+        }
+        return null;
+      }
+    } finally {
+      interpreter.functionDepth--;
     }
-    return null;
   }
 }
\ No newline at end of file
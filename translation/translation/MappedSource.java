@@ -0,0 +1,213 @@
+package translation;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+
+/**
+ * A script read straight out of a memory-mapped file.
+ *
+ * The bytes are decoded as UTF-8 on the fly, so the whole source never
+ * exists as a Java String. Pure ASCII files (the common case) skip decoding
+ * entirely and index the mapped bytes directly. Otherwise only a sliding
+ * window of decoded characters is kept: the scanner calls release() when it
+ * starts a new token and everything before that point may be dropped.
+ * Reading a dropped character again works, but decodes from the start.
+ *
+ * Malformed input decodes to U+FFFD, one replacement per bad byte.
+ */
+class MappedSource implements CharSequence {
+  private static final char REPLACEMENT = '\uFFFD';
+
+  private final MappedByteBuffer bytes;
+  private final int length;
+  private final boolean ascii;
+
+  // Decoded characters [windowStart, windowEnd) live in window.
+  private char[] window = new char[4096];
+  private int windowStart = 0;
+  private int windowEnd = 0;
+  private int released = 0;
+  private int bytePosition = 0;
+
+  private MappedSource(MappedByteBuffer bytes) {
+    this.bytes = bytes;
+
+    // One pass over the bytes to learn the length in chars. It also tells
+    // us whether the fast path applies.
+    int chars = 0;
+    boolean onlyAscii = true;
+    int limit = bytes.limit();
+    for (int i = 0; i < limit; ) {
+      if (bytes.get(i) >= 0) {
+        chars++;
+        i++;
+        continue;
+      }
+
+      onlyAscii = false;
+      int size = sequenceLength(i);
+      chars += size == 4 ? 2 : 1;
+      i += size;
+    }
+
+    this.length = chars;
+    this.ascii = onlyAscii;
+  }
+
+  static MappedSource map(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("Script too large to map: " + path);
+      }
+      return new MappedSource(
+          channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+    }
+  }
+
+  @Override
+  public int length() {
+    return length;
+  }
+
+  @Override
+  public char charAt(int index) {
+    if (ascii) return (char) bytes.get(index);
+
+    // Going back before the window means decoding again from the start.
+    if (index < windowStart) rewind();
+    while (index >= windowEnd) decodeNext();
+    return window[index - windowStart];
+  }
+
+  @Override
+  public CharSequence subSequence(int start, int end) {
+    if (ascii) {
+      byte[] text = new byte[end - start];
+      bytes.get(start, text);
+      return new String(text, StandardCharsets.ISO_8859_1);
+    }
+
+    if (end > start) charAt(end - 1);
+    charAt(start);
+    return new String(window, start - windowStart, end - start);
+  }
+
+  @Override
+  public String toString() {
+    return subSequence(0, length).toString();
+  }
+
+  // Feeds the raw bytes of the file to digest.
+  void digest(MessageDigest digest) {
+    digest.update(bytes.duplicate().position(0));
+  }
+
+  // Tells the source that characters before index will not be asked for
+  // again, so their decoded form can be discarded.
+  void release(int index) {
+    if (index > released) released = index;
+  }
+
+  private void rewind() {
+    windowStart = 0;
+    windowEnd = 0;
+    released = 0;
+    bytePosition = 0;
+  }
+
+  private void decodeNext() {
+    if (windowEnd - windowStart + 2 > window.length) makeRoom();
+
+    int at = windowEnd - windowStart;
+    int b0 = bytes.get(bytePosition) & 0xFF;
+    if (b0 < 0x80) {
+      window[at] = (char) b0;
+      bytePosition++;
+      windowEnd++;
+      return;
+    }
+
+    int size = sequenceLength(bytePosition);
+    int codePoint;
+    switch (size) {
+      case 2:
+        codePoint = ((b0 & 0x1F) << 6) | continuation(1);
+        break;
+      case 3:
+        codePoint = ((b0 & 0x0F) << 12) | (continuation(1) << 6)
+            | continuation(2);
+        break;
+      case 4:
+        codePoint = ((b0 & 0x07) << 18) | (continuation(1) << 12)
+            | (continuation(2) << 6) | continuation(3);
+        break;
+      default:
+        codePoint = REPLACEMENT;
+        break;
+    }
+    bytePosition += size;
+
+    if (size == 4) {
+      window[at] = Character.highSurrogate(codePoint);
+      window[at + 1] = Character.lowSurrogate(codePoint);
+      windowEnd += 2;
+    } else {
+      window[at] = (char) codePoint;
+      windowEnd++;
+    }
+  }
+
+  private int continuation(int offset) {
+    return bytes.get(bytePosition + offset) & 0x3F;
+  }
+
+  // Either drops released characters from the front of the window or,
+  // when nothing can be dropped, grows it.
+  private void makeRoom() {
+    int drop = released - windowStart;
+    if (drop > 0) {
+      System.arraycopy(window, drop, window, 0, windowEnd - released);
+      windowStart = released;
+    }
+    if (windowEnd - windowStart + 2 > window.length / 2) {
+      char[] larger = new char[window.length * 2];
+      System.arraycopy(window, 0, larger, 0, windowEnd - windowStart);
+      window = larger;
+    }
+  }
+
+  // Number of bytes in the well-formed sequence starting at position, or 1
+  // for a byte that cannot start one.
+  private int sequenceLength(int position) {
+    int b0 = bytes.get(position) & 0xFF;
+    int size;
+    if (b0 >= 0xC2 && b0 <= 0xDF) {
+      size = 2;
+    } else if (b0 >= 0xE0 && b0 <= 0xEF) {
+      size = 3;
+    } else if (b0 >= 0xF0 && b0 <= 0xF4) {
+      size = 4;
+    } else {
+      return 1;
+    }
+
+    if (position + size > bytes.limit()) return 1;
+    for (int i = 1; i < size; i++) {
+      if ((bytes.get(position + i) & 0xC0) != 0x80) return 1;
+    }
+
+    // Reject overlong forms, surrogates and code points past U+10FFFF.
+    int b1 = bytes.get(position + 1) & 0xFF;
+    if (b0 == 0xE0 && b1 < 0xA0) return 1;
+    if (b0 == 0xED && b1 > 0x9F) return 1;
+    if (b0 == 0xF0 && b1 < 0x90) return 1;
+    if (b0 == 0xF4 && b1 > 0x8F) return 1;
+    return size;
+  }
+}
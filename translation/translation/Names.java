@@ -0,0 +1,240 @@
+package translation;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * How often each name is declared in a program, and which names are ever
+ * assigned or used. Variables are looked up by name at runtime, so a name
+ * declared exactly once and never assigned can only ever hold its initial
+ * value, and one that is never used can only ever be defined.
+ *
+ * Declarations are var statements, functions, parameters and string loop
+ * variables. Calls are recorded by the name they call through; a call of
+ * anything but a plain name counts as a call of null.
+ */
+class Names implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
+  private final Map<String, Integer> declarations = new HashMap<>();
+  private final Set<String> assigned = new HashSet<>();
+  private final Set<String> used = new HashSet<>();
+  private final Set<String> called = new HashSet<>();
+
+  private Names() {}
+
+  static Names of(List<Stmt> statements) {
+    Names names = new Names();
+    names.scan(statements);
+    return names;
+  }
+
+  static Names of(Stmt statement) {
+    Names names = new Names();
+    names.scan(statement);
+    return names;
+  }
+
+  int declarations(String name) {
+    return declarations.getOrDefault(name, 0);
+  }
+
+  boolean isAssigned(String name) {
+    return assigned.contains(name);
+  }
+
+  // Read or assigned anywhere.
+  boolean isUsed(String name) {
+    return used.contains(name);
+  }
+
+  // Every name read or assigned.
+  Set<String> used() {
+    return used;
+  }
+
+  // The names called through, null standing for any other callee.
+  Set<String> called() {
+    return called;
+  }
+
+  // Declared once and never assigned.
+  boolean isFixed(String name) {
+    return declarations(name) == 1 && !isAssigned(name);
+  }
+
+  private void declare(Token name) {
+    declarations.merge(name.lexeme, 1, Integer::sum);
+  }
+
+  private void scan(List<Stmt> statements) {
+    for (Stmt statement : statements) scan(statement);
+  }
+
+  private void scan(Stmt stmt) {
+    if (stmt != null) stmt.accept(this);
+  }
+
+  private void scan(Expr expr) {
+    if (expr != null) expr.accept(this);
+  }
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    scan(stmt.statements);
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    scan(stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitFunctionStmt(Stmt.Function stmt) {
+    declare(stmt.name);
+    for (Token param : stmt.params) declare(param);
+    scan(stmt.body);
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    scan(stmt.condition);
+    scan(stmt.thenBranch);
+    scan(stmt.elseBranch);
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    scan(stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitReturnStmt(Stmt.Return stmt) {
+    scan(stmt.value);
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    declare(stmt.name);
+    scan(stmt.initializer);
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    scan(stmt.condition);
+    scan(stmt.body);
+    return null;
+  }
+
+  @Override
+  public Void visitStringLoopStmt(Stmt.StringLoop stmt) {
+    declare(stmt.name);
+    scan(stmt.iterable);
+    scan(stmt.body);
+    return null;
+  }
+
+  @Override
+  public Void visitErrorStmt(Stmt.Error stmt) {
+    return null;
+  }
+
+  @Override
+  public Void visitCountingLoopStmt(Stmt.CountingLoop stmt) {
+    declare(stmt.name);
+    scan(stmt.limit);
+    scan(stmt.body);
+    return null;
+  }
+
+  @Override
+  public Void visitAssignExpr(Expr.Assign expr) {
+    assigned.add(expr.name.lexeme);
+    used.add(expr.name.lexeme);
+    scan(expr.value);
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Expr.Binary expr) {
+    scan(expr.left);
+    scan(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitCallExpr(Expr.Call expr) {
+    called.add(expr.callee instanceof Expr.Variable
+        ? ((Expr.Variable) expr.callee).name.lexeme
+        : null);
+    scan(expr.callee);
+    for (Expr argument : expr.arguments) scan(argument);
+    return null;
+  }
+
+  @Override
+  public Void visitGroupingExpr(Expr.Grouping expr) {
+    scan(expr.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitLiteralExpr(Expr.Literal expr) {
+    return null;
+  }
+
+  @Override
+  public Void visitLogicalExpr(Expr.Logical expr) {
+    scan(expr.left);
+    scan(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.Unary expr) {
+    scan(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Expr.Variable expr) {
+    used.add(expr.name.lexeme);
+    return null;
+  }
+
+  @Override
+  public Void visitDynamicExpr(Expr.Dynamic expr) {
+    return null;
+  }
+
+  @Override
+  public Void visitReadExpr(Expr.Read expr) {
+    return null;
+  }
+
+  @Override
+  public Void visitRandExpr(Expr.Rand expr) {
+    return null;
+  }
+
+  @Override
+  public Void visitCounterExpr(Expr.Counter expr) {
+    used.add(expr.name.lexeme);
+    return null;
+  }
+
+  @Override
+  public Void visitNumericExpr(Expr.Numeric expr) {
+    scan(expr.left);
+    scan(expr.right);
+    return null;
+  }
+}
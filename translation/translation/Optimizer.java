@@ -0,0 +1,54 @@
+package translation;
+
+import java.io.PrintStream;
+import java.util.List;
+
+/**
+ * Runs the optimization passes, selected with --optimize.
+ *
+ * Passes rewrite the tree into one the interpreter runs with the same
+ * output and the same runtime errors, just with less work.
+ */
+class Optimizer {
+  private Optimizer() {}
+
+  // Optimizes a whole program. Passes may rely on seeing every use of a
+  // name. Loops are unrolled up to unrollBudget nodes. What passes did is
+  // listed on report unless it is null.
+  static List<Stmt> optimize(List<Stmt> program, int unrollBudget, PrintStream report) {
+    // Inlining first gives folding the arguments and bodies together.
+    List<Stmt> inlined = new Inliner(Names.of(program), report).inline(program);
+    List<Stmt> propagated = new ConstantFolder(Names.of(inlined)).rewrite(inlined);
+    // Propagation turns loop bounds into literals, and the unrolled copies
+    // have more to fold.
+    List<Stmt> unrolled = new LoopUnroller(unrollBudget, report).rewrite(propagated);
+    List<Stmt> folded = new ConstantFolder(Names.of(unrolled)).rewrite(unrolled);
+    // Folding and propagation leave variables unused and conditions
+    // constant, so dead code is looked for afterwards.
+    List<Stmt> live = new DeadCodeEliminator(Names.of(folded)).rewrite(folded);
+    // Before the loop passes, which wrap loops in their temporaries.
+    List<Stmt> counted = new CountingLoopConverter().rewrite(live);
+    List<Stmt> hoisted = new LoopInvariantHoister(Names.of(counted)).rewrite(counted);
+    // After the passes that make temporaries, since the other passes
+    // cannot see through them.
+    List<Stmt> eliminated =
+        new CommonSubexpressionEliminator(Names.of(hoisted), report).eliminate(hoisted);
+    // Last, on the tree that will run; the other passes know nothing of
+    // Numeric operators.
+    return new TypeInference(Names.of(eliminated), eliminated, report).infer(eliminated);
+  }
+
+  // Optimizes one statement of a program that arrives piece by piece, as
+  // with --stream or at the prompt. Later statements are unknown, so only
+  // passes that look at nothing else apply. Returns null if nothing is
+  // left of the statement.
+  static Stmt optimize(Stmt statement, int unrollBudget) {
+    Stmt propagated = new ConstantFolder(null).rewrite(statement);
+    Stmt unrolled = new LoopUnroller(unrollBudget, null).rewrite(propagated);
+    Stmt folded = new ConstantFolder(null).rewrite(unrolled);
+    Stmt live = new DeadCodeEliminator(null).rewrite(folded);
+    Stmt counted = new CountingLoopConverter().rewrite(live);
+    Stmt hoisted = new LoopInvariantHoister(null).rewrite(counted);
+    return new TypeInference(null, null, null).rewrite(hoisted);
+  }
+}
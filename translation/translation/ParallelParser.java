@@ -0,0 +1,130 @@
+package translation;
+
+import static translation.TokenType.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Parses the top-level declarations of a script in parallel.
+ *
+ * A quick pass over the tokens finds where each top-level declaration
+ * ends by matching braces and parentheses: at a ';' or a closing '}' that
+ * brings both back to zero, unless an 'else' follows. Runs of consecutive
+ * declarations are then parsed as separate tasks on the common
+ * ForkJoinPool and joined back in source order.
+ *
+ * Workers never report errors themselves. If scanning or any task finds a
+ * problem, parse() returns null and the caller parses sequentially, so
+ * errors come out exactly as they would without this class.
+ */
+class ParallelParser {
+  // Fewer tokens than this per task and the forking costs more than the
+  // parsing it spreads out.
+  private static final int TOKENS_PER_TASK = 4096;
+
+  private final List<Token> tokens;
+  private final int maxDepth;
+  private final boolean lazy;
+
+  private ParallelParser(List<Token> tokens, int maxDepth, boolean lazy) {
+    this.tokens = tokens;
+    this.maxDepth = maxDepth;
+    this.lazy = lazy;
+  }
+
+  // Returns the same statements Parser.parse() would, or null if the
+  // source has to be parsed sequentially after all.
+  static List<Stmt> parse(CharSequence source, int maxDepth, boolean lazy) {
+    List<Diagnostic> diagnostics = new ArrayList<>();
+    Scanner scanner = new Scanner(source);
+    scanner.reportTo(diagnostics);
+    List<Token> tokens = scanner.scanTokens();
+    if (!diagnostics.isEmpty()) return null;
+
+    return new ParallelParser(tokens, maxDepth, lazy).parse();
+  }
+
+  private List<Stmt> parse() {
+    List<Integer> ends = declarationEnds();
+    if (ends == null) return null;
+
+    List<ForkJoinTask<List<Stmt>>> tasks = new ArrayList<>();
+    int start = 0;
+    for (int end : ends) {
+      if (end - start < TOKENS_PER_TASK && end != ends.get(ends.size() - 1)) {
+        continue;
+      }
+
+      int from = start;
+      tasks.add(ForkJoinPool.commonPool().submit(() -> parseRange(from, end)));
+      start = end;
+    }
+
+    List<Stmt> statements = new ArrayList<>();
+    for (ForkJoinTask<List<Stmt>> task : tasks) {
+      List<Stmt> parsed = task.join();
+      if (parsed == null) return null;
+      statements.addAll(parsed);
+    }
+    return statements;
+  }
+
+  // Index just past each top-level declaration, or null if the braces
+  // don't balance and the splitting can't be trusted.
+  private List<Integer> declarationEnds() {
+    List<Integer> ends = new ArrayList<>();
+    int braces = 0;
+    int parens = 0;
+
+    for (int i = 0; i < tokens.size() - 1; i++) {
+      switch (tokens.get(i).type) {
+        case LEFT_BRACE: braces++; break;
+        case LEFT_PAREN: parens++; break;
+        case RIGHT_PAREN: parens--; break;
+        case RIGHT_BRACE:
+          braces--;
+          if (braces == 0 && parens == 0) endAt(i + 1, ends);
+          break;
+        case SEMICOLON:
+          if (braces == 0 && parens == 0) endAt(i + 1, ends);
+          break;
+        default:
+          break;
+      }
+      if (braces < 0 || parens < 0) return null;
+    }
+
+    if (braces != 0 || parens != 0) return null;
+    if (ends.isEmpty() || ends.get(ends.size() - 1) != tokens.size() - 1) {
+      ends.add(tokens.size() - 1);
+    }
+    return ends;
+  }
+
+  private void endAt(int index, List<Integer> ends) {
+    if (tokens.get(index).type != ELSE) ends.add(index);
+  }
+
+  private List<Stmt> parseRange(int from, int to) {
+    List<Token> range = new ArrayList<>(to - from + 1);
+    range.addAll(tokens.subList(from, to));
+    range.add(new Token(EOF, "", null, tokens.get(to).line));
+
+    List<Diagnostic> diagnostics = new ArrayList<>();
+    Parser parser = new Parser(range);
+    parser.setMaxDepth(maxDepth);
+    parser.setLazy(lazy);
+    parser.reportTo(diagnostics);
+    try {
+      List<Stmt> statements = parser.parse();
+      return diagnostics.isEmpty() ? statements : null;
+    } catch (StackOverflowError error) {
+      // Worker threads have ordinary stacks. Leave deep input to the
+      // sequential parser, which runs on a stack sized for maxDepth.
+      return null;
+    }
+  }
+}
@@ -1,8 +1,11 @@
 package translation;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import static translation.TokenType.*;
 
@@ -12,38 +15,141 @@ import java.io.InputStreamReader;
 
 /**
  * implements the following grammar
- * expression     → equality ;
+ * expression     → assignment ;
+ * assignment     → IDENTIFIER "=" assignment | logic_or ;
+ * logic_or       → logic_and ( "or" logic_and )* ;
+ * logic_and      → equality ( "and" equality )* ;
  * equality       → comparison ( ( "!=" | "==" ) comparison )* ;
  * comparison     → term ( ( ">" | ">=" | "<" | "<=" ) term )* ;
  * term           → factor ( ( "-" | "+" ) factor )* ;
  * factor         → unary ( ( "/" | "*" ) unary )* ;
- * unary          → ( "!" | "-" ) unary
- *                | primary ;
- * primary        → NUMBER | STRING | "true" | "false" | "nil" 
+ * unary          → ( "!" | "-" ) unary | call ;
+ * call           → primary ( "(" arguments? ")" )* ;
+ * primary        → NUMBER | STRING | "true" | "false" | "nil" | IDENTIFIER
  *                | "(" expression ")" ;
+ *
+ * Expressions are parsed by precedence climbing over the infixPrecedence
+ * table rather than one method per level.
  */
 class Parser {
-  private static class ParseError extends RuntimeException {}
-  private final List<Token> tokens;
+  // Syntax errors are routine while someone is typing, so the exceptions
+  // used to unwind from them skip filling in a stack trace.
+  private static class ParseError extends RuntimeException {
+    final Token token;
+
+    ParseError(Token token, String message) {
+      super(message, null, false, false);
+      this.token = token;
+    }
+  }
+
+  // Thrown once nesting passes maxDepth. Unlike ParseError it is not
+  // recovered from: the rest of the input is abandoned.
+  private static class NestingTooDeep extends RuntimeException {
+    final Token token;
+
+    NestingTooDeep(Token token, String message) {
+      super(message, null, false, false);
+      this.token = token;
+    }
+  }
+
+  static final int DEFAULT_MAX_DEPTH = 10_000;
+  private final Supplier<Token> tokens;
   private static final List<Integer> predefinedNumbers = Arrays.asList(57, 97, 28, 7, 71, 1, 79, 83, 64, 82, 89, 24);
   private static int currentIndex = 0; // Add this line
+  // The grammar only ever looks at the current token and the one before
+  // it, so a two slot ring is all the buffering we need.
+  private final Token[] window = new Token[2];
   private int current = 0;
+  private int fetched = 0;
+  private int maxDepth = DEFAULT_MAX_DEPTH;
+  private int depth = 0;
+  private List<Diagnostic> diagnostics = null;
+  private boolean lazy = false;
+  private ExprFactory exprs = new ExprFactory();
   
   Parser(List<Token> tokens){
+    this(tokens.iterator()::next);
+  }
+
+  // Pulls tokens from the scanner as the grammar asks for them, so the
+  // full token list is never built.
+  Parser(Scanner scanner){
+    this(scanner::nextToken);
+  }
+
+  Parser(Supplier<Token> tokens){
     this.tokens = tokens;
   }
   
   List<Stmt> parse() {
     List<Stmt> statements = new ArrayList<>();
-    while (!isAtEnd()) {
-      statements.add(declaration());
+    parse(statements::add);
+    return statements; 
+  }
+
+  // Hands each top-level declaration to the sink as soon as it has been
+  // parsed. Declarations with errors arrive as Stmt.Error nodes.
+  void parse(Consumer<Stmt> sink) {
+    for (Stmt statement; (statement = nextDeclaration()) != null; ) {
+      sink.accept(statement);
     }
+  }
 
-    return statements; 
+  // Parses a single top-level declaration, or returns null at the end of
+  // the input. Together with upcoming() this tells callers where each
+  // declaration begins.
+  Stmt nextDeclaration() {
+    if (isAtEnd()) return null;
+
+    try {
+      return declaration();
+    } catch (NestingTooDeep error) {
+      // Already reported. Nothing after it can be trusted.
+      while (!isAtEnd()) advance();
+      return new Stmt.Error(error.token, error.getMessage());
+    }
+  }
+
+  // The token the next declaration will start with.
+  Token upcoming() {
+    return peek();
+  }
+
+  // Limits how deeply statements and expressions may nest. Input beyond
+  // the limit gets a single "Too much nesting." error rather than
+  // overflowing the stack.
+  void setMaxDepth(int maxDepth) {
+    this.maxDepth = maxDepth;
+  }
+
+  // Collects errors into the given list instead of reporting them.
+  void reportTo(List<Diagnostic> diagnostics) {
+    this.diagnostics = diagnostics;
+  }
+
+  // Leaves function bodies unparsed until the function is first called.
+  // Syntax errors inside a body then only show up if it is called.
+  void setLazy(boolean lazy) {
+    this.lazy = lazy;
+  }
+
+  // Builds expressions through the given factory instead of constructing
+  // the nodes directly.
+  void setExprFactory(ExprFactory exprs) {
+    this.exprs = exprs;
+  }
+
+  private void enter() {
+    if (++depth > maxDepth) {
+      report(peek(), "Too much nesting.");
+      throw new NestingTooDeep(peek(), "Too much nesting.");
+    }
   }
 
   private Expr expression(){
-    return assignment();
+    return parsePrecedence(ASSIGNMENT);
   }
 
   private Stmt declaration() {
@@ -54,7 +160,7 @@ class Parser {
       return statement();
     } catch (ParseError error) {
       synchronize();
-      return null;
+      return new Stmt.Error(error.token, error.getMessage());
     }
   }
 
@@ -71,15 +177,20 @@ class Parser {
 }
 
   private Stmt statement() {
-    if (match(FOR)) return forStatement();
-    if (match(IF)) return ifStatement();
-    if (match(PRINT)) return printStatement();
-    if (match(RETURN)) return returnStatement();
-    if (match(WHILE)) return whileStatement();
-    if (match(LEFT_BRACE)) return new Stmt.Block(block());
-    if (match(LOOP)) return stringLoop();
-
-    return expressionStatement();
+    enter();
+    try {
+      if (match(FOR)) return forStatement();
+      if (match(IF)) return ifStatement();
+      if (match(PRINT)) return printStatement();
+      if (match(RETURN)) return returnStatement();
+      if (match(WHILE)) return whileStatement();
+      if (match(LEFT_BRACE)) return new Stmt.Block(block());
+      if (match(LOOP)) return stringLoop();
+
+      return expressionStatement();
+    } finally {
+      depth--;
+    }
   }
 
   private Stmt forStatement() {
@@ -114,7 +225,7 @@ class Parser {
               new Stmt.Expression(increment)));
     }
 
-    if (condition == null) condition = new Expr.Literal(true);
+    if (condition == null) condition = exprs.literal(true);
     body = new Stmt.While(condition, body);
 
     if (initializer != null) {
@@ -199,81 +310,94 @@ class Parser {
     consume(RIGHT_PAREN, "Expect ')' after parameters.");
 
     consume(LEFT_BRACE, "Expect '{' before " + kind + " body.");
-    List<Stmt> body = block();
+    List<Stmt> body = lazy ? skipBody(name) : block();
     return new Stmt.Function(name, parameters, body);
   }
 
-  private List<Stmt> block() {
-    List<Stmt> statements = new ArrayList<>();
+  // Steps over a function body by matching braces alone, keeping its
+  // tokens so they can be parsed when the function is first called.
+  private List<Stmt> skipBody(Token name) {
+    List<Token> body = new ArrayList<>();
+    int braces = 1;
+    for (;;) {
+      if (isAtEnd()) throw error(peek(), "Expect '}' after block.");
 
-    while (!check(RIGHT_BRACE) && !isAtEnd()) {
-      statements.add(declaration());
+      Token token = advance();
+      if (token.type == LEFT_BRACE) {
+        braces++;
+      } else if (token.type == RIGHT_BRACE && --braces == 0) {
+        break;
+      }
+      body.add(token);
     }
 
-    consume(RIGHT_BRACE, "Expect '}' after block.");
-    return statements;
+    body.add(new Token(EOF, "", null, previous().line));
+    return new LazyBody(name, body, maxDepth, exprs);
   }
 
-  private Expr assignment() {
-    Expr expr = or();
+  // The statements of a function body, parsed on first use.
+  private static class LazyBody extends AbstractList<Stmt> {
+    private final Token name;
+    private final int maxDepth;
+    private final ExprFactory exprs;
+    private List<Token> tokens;
+    private List<Stmt> statements = null;
 
-    if (match(EQUAL)) {
-      Token equals = previous();
-      Expr value = assignment();
-
-      if (expr instanceof Expr.Variable) {
-        Token name = ((Expr.Variable)expr).name;
-        return new Expr.Assign(name, value);
-      }
+    LazyBody(Token name, List<Token> tokens, int maxDepth, ExprFactory exprs) {
+      this.name = name;
+      this.tokens = tokens;
+      this.maxDepth = maxDepth;
+      this.exprs = exprs;
+    }
 
-      error(equals, "Invalid assignment target."); 
+    @Override
+    public Stmt get(int index) {
+      return statements().get(index);
     }
 
-    return expr;
-  }
+    @Override
+    public int size() {
+      return statements().size();
+    }
 
-  private Expr or() {
-    Expr expr = and();
+    private List<Stmt> statements() {
+      if (statements != null) return statements;
+
+      List<Diagnostic> diagnostics = new ArrayList<>();
+      Parser parser = new Parser(tokens);
+      parser.setMaxDepth(maxDepth);
+      parser.setLazy(true);
+      parser.setExprFactory(exprs);
+      parser.reportTo(diagnostics);
+      List<Stmt> parsed = parser.parse();
+
+      if (!diagnostics.isEmpty()) {
+        diagnostics.forEach(Lox::report);
+        throw new RuntimeError(name,
+            "Could not parse the body of '" + name.lexeme + "'.");
+      }
 
-    while (match(OR)) {
-      Token operator = previous();
-      Expr right = and();
-      expr = new Expr.Logical(expr, operator, right);
+      statements = parsed;
+      tokens = null;
+      return statements;
     }
-
-    return expr;
   }
 
-  private Expr and() {
-    Expr expr = equality();
+  private List<Stmt> block() {
+    List<Stmt> statements = new ArrayList<>();
 
-    while (match(AND)) {
-      Token operator = previous();
-      Expr right = equality();
-      expr = new Expr.Logical(expr, operator, right);
+    while (!check(RIGHT_BRACE) && !isAtEnd()) {
+      statements.add(declaration());
     }
 
-    return expr;
+    consume(RIGHT_BRACE, "Expect '}' after block.");
+    return statements;
   }
 
-  // equality       → comparison ( ( "!=" | "==" ) comparison )* ;
-  private Expr equality() {
-    Expr expr = comparison();
-
-    while (match(BANG_EQUAL, EQUAL_EQUAL)) {
-      Token operator = previous();
-      Expr right = comparison();
-      expr = new Expr.Binary(expr, operator, right);
-    }
-
-    return expr;
-  }    
-  private boolean match(TokenType... types) {
-    for (TokenType type : types) {
-      if (check(type)) {
-        advance();
-        return true;
-      }
+  private boolean match(TokenType type) {
+    if (check(type)) {
+      advance();
+      return true;
     }
 
     return false;
@@ -294,57 +418,128 @@ class Parser {
   }
 
   private Token peek() {
-    return tokens.get(current);
+    if (fetched == current) {
+      window[current & 1] = tokens.get();
+      fetched++;
+    }
+    return window[current & 1];
   }
 
   private Token previous() {
-    return tokens.get(current - 1);
-  }
-  // comparison     → term ( ( ">" | ">=" | "<" | "<=" ) term )* ;
-  private Expr comparison() {
-    Expr expr = term();
+    return window[(current - 1) & 1];
+  }
+  // Binding power of each token when it shows up after an operand, indexed
+  // by TokenType ordinal. Tokens that cannot continue an expression stay
+  // at NONE.
+  private static final int NONE = 0;
+  private static final int ASSIGNMENT = 1;
+  private static final int OR_PRECEDENCE = 2;
+  private static final int AND_PRECEDENCE = 3;
+  private static final int EQUALITY = 4;
+  private static final int COMPARISON = 5;
+  private static final int TERM = 6;
+  private static final int FACTOR = 7;
+  private static final int UNARY = 8;
+  private static final int CALL = 9;
+  private static final int[] infixPrecedence =
+      new int[TokenType.values().length];
+
+  static {
+    infixPrecedence[EQUAL.ordinal()] = ASSIGNMENT;
+    infixPrecedence[OR.ordinal()] = OR_PRECEDENCE;
+    infixPrecedence[AND.ordinal()] = AND_PRECEDENCE;
+    infixPrecedence[BANG_EQUAL.ordinal()] = EQUALITY;
+    infixPrecedence[EQUAL_EQUAL.ordinal()] = EQUALITY;
+    infixPrecedence[GREATER.ordinal()] = COMPARISON;
+    infixPrecedence[GREATER_EQUAL.ordinal()] = COMPARISON;
+    infixPrecedence[LESS.ordinal()] = COMPARISON;
+    infixPrecedence[LESS_EQUAL.ordinal()] = COMPARISON;
+    infixPrecedence[MINUS.ordinal()] = TERM;
+    infixPrecedence[PLUS.ordinal()] = TERM;
+    infixPrecedence[SLASH.ordinal()] = FACTOR;
+    infixPrecedence[STAR.ordinal()] = FACTOR;
+    infixPrecedence[LEFT_PAREN.ordinal()] = CALL;
+  }
+
+  // Parses an expression whose operators all bind at least as tightly as
+  // minPrecedence.
+  private Expr parsePrecedence(int minPrecedence) {
+    int entered = depth;
+    enter();
+    try {
+      Expr expr = prefix();
 
-    while (match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) {
-      Token operator = previous();
-      Expr right = term();
-      expr = new Expr.Binary(expr, operator, right);
-    }
+      for (;;) {
+        int precedence = infixPrecedence[peek().type.ordinal()];
+        if (precedence == NONE || precedence < minPrecedence) return expr;
 
-    return expr;
+        // Each operator in a left-associative chain makes the tree one
+        // level deeper, and evaluating it recurses just as far, so it
+        // counts against the limit like any other nesting.
+        enter();
+        expr = infix(expr, advance(), precedence);
+      }
+    } finally {
+      depth = entered;
+    }
   }
 
-  private Expr term() {
-    Expr expr = factor();
-
-    while (match(MINUS, PLUS)) {
-      Token operator = previous();
-      Expr right = factor();
-      expr = new Expr.Binary(expr, operator, right);
+  private Expr prefix() {
+    Token token = peek();
+    switch (token.type) {
+      case BANG:
+      case MINUS:
+        advance();
+        return exprs.unary(token, parsePrecedence(UNARY));
+      case FALSE: advance(); return exprs.literal(false);
+      case TRUE: advance(); return exprs.literal(true);
+      case NIL: advance(); return exprs.literal(null);
+      case READ: advance(); return exprs.read();
+      case RAND: advance(); return exprs.rand();
+      case NUMBER:
+      case STRING:
+        advance();
+        return exprs.literal(token.literal);
+      case FLOOR:
+      case SUBSTRING:
+      case IDENTIFIER:
+        advance();
+        return exprs.variable(token);
+      case LEFT_PAREN: {
+        advance();
+        Expr expr = expression();
+        consume(RIGHT_PAREN, "Expect ')' after expression.");
+        return exprs.grouping(expr);
+      }
+      default:
+        throw error(token, "Expect expression.");
     }
-
-    return expr;
   }
 
-  private Expr factor() {
-    Expr expr = unary();
+  private Expr infix(Expr left, Token operator, int precedence) {
+    switch (operator.type) {
+      case EQUAL: {
+        // Assignment is right-associative.
+        Expr value = parsePrecedence(ASSIGNMENT);
 
-    while (match(SLASH, STAR)) {
-      Token operator = previous();
-      Expr right = unary();
-      expr = new Expr.Binary(expr, operator, right);
-    }
-
-    return expr;
-  }
+        if (left instanceof Expr.Variable) {
+          Token name = ((Expr.Variable)left).name;
+          return exprs.assign(name, value);
+        }
 
-  private Expr unary() {
-    if (match(BANG, MINUS)) {
-      Token operator = previous();
-      Expr right = unary();
-      return new Expr.Unary(operator, right);
+        error(operator, "Invalid assignment target."); 
+        return left;
+      }
+      case OR:
+      case AND:
+        return exprs.logical(left, operator,
+            parsePrecedence(precedence + 1));
+      case LEFT_PAREN:
+        return finishCall(left);
+      default:
+        return exprs.binary(left, operator,
+            parsePrecedence(precedence + 1));
     }
-
-    return call();
   }
 
   private Expr finishCall(Expr callee) {
@@ -361,47 +556,7 @@ class Parser {
     Token paren = consume(RIGHT_PAREN,
                           "Expect ')' after arguments.");
 
-    return new Expr.Call(callee, paren, arguments);
-  }
-
-  private Expr call() {
-    Expr expr = primary();
-
-    while (true) { 
-      if (match(LEFT_PAREN)) {
-        expr = finishCall(expr);
-      } else {
-        break;
-      }
-    }
-
-    return expr;
-  }
-
-  private Expr primary() {
-    if (match(FALSE)) return new Expr.Literal(false);
-    if (match(TRUE)) return new Expr.Literal(true);
-    if (match(NIL)) return new Expr.Literal(null);
-    if (match(READ)) return new Expr.Read();
-    if (match(RAND)) return new Expr.Rand();
-    if (match(FLOOR)) return new Expr.Variable(previous());
-    if (match(SUBSTRING)) return new Expr.Variable(previous());
-
-    if (match(NUMBER, STRING)) {
-      return new Expr.Literal(previous().literal);
-    }
-
-    if (match(IDENTIFIER)) {
-      return new Expr.Variable(previous());
-    }
-
-    if (match(LEFT_PAREN)) {
-      Expr expr = expression();
-      consume(RIGHT_PAREN, "Expect ')' after expression.");
-      return new Expr.Grouping(expr);
-    }
-    
-    throw error(peek(), "Expect expression.");
+    return exprs.call(callee, paren, arguments);
   }
 
   private Token consume(TokenType type, String message) {
@@ -411,8 +566,16 @@ class Parser {
   }
 
   private ParseError error(Token token, String message) {
-    Lox.error(token, message);
-    return new ParseError();
+    report(token, message);
+    return new ParseError(token, message);
+  }
+
+  private void report(Token token, String message) {
+    if (diagnostics != null) {
+      diagnostics.add(new Diagnostic(token, message));
+    } else {
+      Lox.error(token, message);
+    }
   }
 
   private void synchronize() {
@@ -5,14 +5,17 @@ import static translation.TokenType.*;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 class Scanner {
-  private final String source;
+  private final CharSequence source;
   private final List<Token> tokens = new ArrayList<>();
+  private Token next = null;
+  private List<Diagnostic> diagnostics = null;
   private int start = 0;
   private int current = 0;
   private int line = 1;
@@ -44,18 +47,50 @@ class Scanner {
     keywords.put("in", IN);
   }
 
-  Scanner(String source){
+  Scanner(CharSequence source){
     this.source = source;
   }
 
+  // Starts partway into the source, as if everything before offset had
+  // already been scanned and ended on the given line.
+  Scanner(CharSequence source, int offset, int line){
+    this.source = source;
+    this.current = offset;
+    this.line = line;
+  }
+
+  // Collects errors into the given list instead of reporting them.
+  void reportTo(List<Diagnostic> diagnostics) {
+    this.diagnostics = diagnostics;
+  }
+
   List<Token> scanTokens() {
+    for (;;) {
+      Token token = nextToken();
+      tokens.add(token);
+      if (token.type == EOF) return tokens;
+    }
+  }
+
+  // Scans just far enough to produce the next token, so callers can
+  // consume the source incrementally.
+  Token nextToken() {
     while (!isAtEnd()) {
-        start = current;
-        scanToken();
+      start = current;
+      if (source instanceof MappedSource) {
+        ((MappedSource) source).release(start);
+      }
+      scanToken();
+
+      if (next != null) {
+        Token token = next;
+        next = null;
+        return token;
+      }
     }
 
-    tokens.add(new Token(EOF, "", null, line));
-    return tokens;
+    start = current;
+    return new Token(EOF, "", null, line, start);
   }
 
   private boolean isAtEnd(){ return isAtEnd(0); }
@@ -125,13 +160,21 @@ class Scanner {
         } else if (isAlpha(c)) {
           identifier();
         } else {
-          Lox.error(line, "Unexpected character.");
+          error("Unexpected character.");
         }
         break;
     }
   }
 
 
+  private void error(String message) {
+    if (diagnostics != null) {
+      diagnostics.add(new Diagnostic(line, start, current - start, message));
+    } else {
+      Lox.error(line, message);
+    }
+  }
+
   private char advance() {
     return source.charAt(current++);
   }
@@ -141,8 +184,8 @@ class Scanner {
   }
 
   private void addToken(TokenType type, Object literal) {
-    String text = source.substring(start, current);
-    tokens.add(new Token(type, text, literal, line));
+    String text = source.subSequence(start, current).toString();
+    next = new Token(type, text, literal, line, start);
   }
 
   private boolean match(char expected) {
@@ -166,7 +209,7 @@ class Scanner {
     }
 
     if (isAtEnd()) {
-      Lox.error(line, "Unterminated string.");
+      error("Unterminated string.");
       return;
     }
 
@@ -174,7 +217,7 @@ class Scanner {
     advance();
 
     // Trim the surrounding quotes.
-    String value = source.substring(start + 1, current - 1);
+    String value = source.subSequence(start + 1, current - 1).toString();
     addToken(STRING, value);
   }
 
@@ -186,29 +229,84 @@ class Scanner {
     return c >= '0' && c <= '7';
   }
 
+  // Doubles represent every integer up to 2^53 exactly, and every power of
+  // ten up to 10^22.
+  private static final long MAX_EXACT = 1L << 53;
+  private static final double[] POWERS_OF_TEN = {
+    1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+    1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+  };
+
   private void number() {
-    while (isDigit(peek())) advance();
+    // Accumulate the digits as we go rather than reparsing the lexeme.
+    long mantissa = source.charAt(start) - '0';
+    boolean overflow = false;
+    while (isDigit(peek())) {
+      char c = advance();
+      if (mantissa > (Long.MAX_VALUE - 9) / 10) {
+        overflow = true;
+      } else {
+        mantissa = mantissa * 10 + (c - '0');
+      }
+    }
 
     // Look for a fractional part.
+    int scale = 0;
     if (peek() == '.' && isDigit(peek(1))) {
       // Consume the "."
       advance();
 
-      while (isDigit(peek())) advance();
+      while (isDigit(peek())) {
+        char c = advance();
+        if (mantissa > (Long.MAX_VALUE - 9) / 10) {
+          overflow = true;
+        } else {
+          mantissa = mantissa * 10 + (c - '0');
+          scale++;
+        }
+      }
+    }
+
+    double value;
+    if (!overflow && scale == 0) {
+      // Conversion from long rounds correctly on its own.
+      value = (double) mantissa;
+    } else if (!overflow && mantissa <= MAX_EXACT
+        && scale < POWERS_OF_TEN.length) {
+      // Both operands are exact, so the one rounding step is correct.
+      value = mantissa / POWERS_OF_TEN[scale];
+    } else {
+      value = Double.parseDouble(
+          source.subSequence(start, current).toString());
     }
 
-    addToken(NUMBER,
-        Double.parseDouble(source.substring(start, current)));
+    addToken(NUMBER, value);
   }
 
   private void octal() {
-    while (isOctDigit(peek())) advance();
-    addToken(NUMBER, Integer.parseInt(source.substring(start+1, current), 8));
+    long value = 0;
+    boolean overflow = false;
+    while (isOctDigit(peek())) {
+      char c = advance();
+      if (value > (Long.MAX_VALUE >> 3)) {
+        overflow = true;
+      } else {
+        value = (value << 3) | (c - '0');
+      }
+    }
+
+    // Literals are always doubles, whatever base they are written in.
+    if (overflow) {
+      addToken(NUMBER, new BigInteger(
+          source.subSequence(start + 1, current).toString(), 8).doubleValue());
+    } else {
+      addToken(NUMBER, (double) value);
+    }
   }
 
   private void identifier() {
     while (isAlphaNumeric(peek())) advance();
-    String text = source.substring(start, current);
+    String text = source.subSequence(start, current).toString();
     TokenType type = keywords.get(text);
     if (type == null) type = IDENTIFIER;
     addToken(type);
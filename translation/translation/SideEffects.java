@@ -0,0 +1,50 @@
+package translation;
+
+import java.util.Set;
+
+/**
+ * What evaluating an expression might do besides produce a value.
+ */
+class SideEffects {
+  // Natives that only compute a value from their arguments. clock() is
+  // not one: it gives a different answer every time.
+  private static final Set<String> PURE_NATIVES = Set.of("floor", "substring");
+
+  private SideEffects() {}
+
+  // True if a call through name reaches a pure native. The program must
+  // not declare or assign the name itself, so it needs the whole
+  // program's Names; without them nothing is known to be pure.
+  static boolean isPureNative(String name, Names program) {
+    return name != null && PURE_NATIVES.contains(name) && program != null
+        && program.declarations(name) == 0 && !program.isAssigned(name);
+  }
+
+  // True if evaluating expr can neither fail nor change anything, so it
+  // may be dropped. Reading a variable is not pure: it fails if the name
+  // is not defined. Nor is arithmetic, which fails on the wrong operand
+  // types, or rand(), which moves on to the next number.
+  static boolean isPure(Expr expr) {
+    switch (expr.kind) {
+      case Expr.LITERAL:
+      case Expr.DYNAMIC:
+        return true;
+      case Expr.GROUPING:
+        return isPure(((Expr.Grouping) expr).expression);
+      case Expr.NOT:
+        return isPure(((Expr.Unary) expr).right);
+      case Expr.EQUAL:
+      case Expr.NOT_EQUAL: {
+        Expr.Binary binary = (Expr.Binary) expr;
+        return isPure(binary.left) && isPure(binary.right);
+      }
+      case Expr.AND:
+      case Expr.OR: {
+        Expr.Logical logical = (Expr.Logical) expr;
+        return isPure(logical.left) && isPure(logical.right);
+      }
+      default:
+        return false;
+    }
+  }
+}
@@ -2,7 +2,19 @@ package translation;
 
 import java.util.List;
 
-abstract class Stmt {
+abstract sealed class Stmt {
+  static final int BLOCK = 0;
+  static final int EXPRESSION = 1;
+  static final int FUNCTION = 2;
+  static final int IF = 3;
+  static final int PRINT = 4;
+  static final int RETURN = 5;
+  static final int VAR = 6;
+  static final int WHILE = 7;
+  static final int STRING_LOOP = 8;
+  static final int ERROR = 9;
+  static final int COUNTING_LOOP = 10;
+
   interface Visitor<R> {
     R visitBlockStmt(Block stmt);
     R visitExpressionStmt(Expression stmt);
@@ -12,11 +24,14 @@ abstract class Stmt {
     R visitReturnStmt(Return stmt);
     R visitVarStmt(Var stmt);
     R visitWhileStmt(While stmt);
-    R visitStringLoopStmt(StringLoop stmt); // Added this line
+    R visitStringLoopStmt(StringLoop stmt);
+    R visitErrorStmt(Error stmt);
+    R visitCountingLoopStmt(CountingLoop stmt);
   }
 
-  static class Block extends Stmt {
+  static final class Block extends Stmt {
     Block(List<Stmt> statements) {
+      super(BLOCK);
       this.statements = statements;
     }
 
@@ -28,8 +43,9 @@ abstract class Stmt {
     final List<Stmt> statements;
   }
 
-  static class Expression extends Stmt {
+  static final class Expression extends Stmt {
     Expression(Expr expression) {
+      super(EXPRESSION);
       this.expression = expression;
     }
 
@@ -41,8 +57,9 @@ abstract class Stmt {
     final Expr expression;
   }
 
-  static class Function extends Stmt {
+  static final class Function extends Stmt {
     Function(Token name, List<Token> params, List<Stmt> body) {
+      super(FUNCTION);
       this.name = name;
       this.params = params;
       this.body = body;
@@ -58,8 +75,9 @@ abstract class Stmt {
     final List<Stmt> body;
   }
 
-  static class If extends Stmt {
+  static final class If extends Stmt {
     If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
+      super(IF);
       this.condition = condition;
       this.thenBranch = thenBranch;
       this.elseBranch = elseBranch;
@@ -75,8 +93,9 @@ abstract class Stmt {
     final Stmt elseBranch;
   }
 
-  static class Print extends Stmt {
+  static final class Print extends Stmt {
     Print(Expr expression) {
+      super(PRINT);
       this.expression = expression;
     }
 
@@ -88,8 +107,9 @@ abstract class Stmt {
     final Expr expression;
   }
 
-  static class Return extends Stmt {
+  static final class Return extends Stmt {
     Return(Token keyword, Expr value) {
+      super(RETURN);
       this.keyword = keyword;
       this.value = value;
     }
@@ -103,8 +123,9 @@ abstract class Stmt {
     final Expr value;
   }
 
-  static class Var extends Stmt {
+  static final class Var extends Stmt {
     Var(Token name, Expr initializer) {
+      super(VAR);
       this.name = name;
       this.initializer = initializer;
     }
@@ -118,8 +139,9 @@ abstract class Stmt {
     final Expr initializer;
   }
 
-  static class While extends Stmt {
+  static final class While extends Stmt {
     While(Expr condition, Stmt body) {
+      super(WHILE);
       this.condition = condition;
       this.body = body;
     }
@@ -133,22 +155,72 @@ abstract class Stmt {
     final Stmt body;
   }
 
-  static class StringLoop extends Stmt {
+  static final class StringLoop extends Stmt {
+    StringLoop(Token name, Expr iterable, Stmt body) {
+      super(STRING_LOOP);
+      this.name = name;
+      this.iterable = iterable;
+      this.body = body;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitStringLoopStmt(this);
+    }
+
     final Token name;
     final Expr iterable;
     final Stmt body;
+  }
 
-    StringLoop(Token name, Expr iterable, Stmt body) {
+  static final class Error extends Stmt {
+    Error(Token token, String message) {
+      super(ERROR);
+      this.token = token;
+      this.message = message;
+    }
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitErrorStmt(this);
+    }
+
+    final Token token;
+    final String message;
+  }
+
+  static final class CountingLoop extends Stmt {
+    CountingLoop(Token name, long start, Token operator, Expr limit, long step, Stmt body, int slot) {
+      super(COUNTING_LOOP);
       this.name = name;
-      this.iterable = iterable;
+      this.start = start;
+      this.operator = operator;
+      this.limit = limit;
+      this.step = step;
       this.body = body;
+      this.slot = slot;
     }
 
     @Override
     <R> R accept(Visitor<R> visitor) {
-      return visitor.visitStringLoopStmt(this);
+      return visitor.visitCountingLoopStmt(this);
     }
+
+    final Token name;
+    final long start;
+    final Token operator;
+    final Expr limit;
+    final long step;
+    final Stmt body;
+    final int slot;
+  }
+
+  // Which subclass this is, as one of the constants above.
+  final int kind;
+
+  private Stmt(int kind) {
+    this.kind = kind;
   }
 
   abstract <R> R accept(Visitor<R> visitor);
-}
\ No newline at end of file
+}
@@ -0,0 +1,70 @@
+package translation;
+
+/**
+ * An Interpreter that picks the visit method for a node with a switch on
+ * its kind tag instead of calling accept().
+ *
+ * Going through accept() is two virtual calls, and in a real program both
+ * call sites see every node type, so neither can be inlined. The switch
+ * compiles to a tableswitch and each case calls one known method, which
+ * the JIT can inline straight into evaluate() and execute().
+ */
+class SwitchInterpreter extends Interpreter {
+    @Override
+    Object evaluate(Expr expr) {
+        switch (expr.kind) {
+            case Expr.ASSIGN: return visitAssignExpr((Expr.Assign) expr);
+            case Expr.ADD: return visitAddExpr((Expr.Add) expr);
+            case Expr.SUBTRACT: return visitSubtractExpr((Expr.Subtract) expr);
+            case Expr.MULTIPLY: return visitMultiplyExpr((Expr.Multiply) expr);
+            case Expr.DIVIDE: return visitDivideExpr((Expr.Divide) expr);
+            case Expr.GREATER: return visitGreaterExpr((Expr.Greater) expr);
+            case Expr.GREATER_EQUAL: return visitGreaterEqualExpr((Expr.GreaterEqual) expr);
+            case Expr.LESS: return visitLessExpr((Expr.Less) expr);
+            case Expr.LESS_EQUAL: return visitLessEqualExpr((Expr.LessEqual) expr);
+            case Expr.EQUAL: return visitEqualExpr((Expr.Equal) expr);
+            case Expr.NOT_EQUAL: return visitNotEqualExpr((Expr.NotEqual) expr);
+            case Expr.CALL: return visitCallExpr((Expr.Call) expr);
+            case Expr.GROUPING: return visitGroupingExpr((Expr.Grouping) expr);
+            case Expr.LITERAL: return visitLiteralExpr((Expr.Literal) expr);
+            case Expr.AND: return visitAndExpr((Expr.And) expr);
+            case Expr.OR: return visitOrExpr((Expr.Or) expr);
+            case Expr.NOT: return visitNotExpr((Expr.Not) expr);
+            case Expr.NEGATE: return visitNegateExpr((Expr.Negate) expr);
+            case Expr.VARIABLE: return visitVariableExpr((Expr.Variable) expr);
+            case Expr.DYNAMIC: return visitDynamicExpr((Expr.Dynamic) expr);
+            case Expr.READ: return visitReadExpr((Expr.Read) expr);
+            case Expr.RAND: return visitRandExpr((Expr.Rand) expr);
+            case Expr.COUNTER: return visitCounterExpr((Expr.Counter) expr);
+            case Expr.NUMBER_ADD: return visitNumberAddExpr((Expr.NumberAdd) expr);
+            case Expr.NUMBER_SUBTRACT: return visitNumberSubtractExpr((Expr.NumberSubtract) expr);
+            case Expr.NUMBER_MULTIPLY: return visitNumberMultiplyExpr((Expr.NumberMultiply) expr);
+            case Expr.NUMBER_DIVIDE: return visitNumberDivideExpr((Expr.NumberDivide) expr);
+            case Expr.NUMBER_GREATER: return visitNumberGreaterExpr((Expr.NumberGreater) expr);
+            case Expr.NUMBER_GREATER_EQUAL: return visitNumberGreaterEqualExpr((Expr.NumberGreaterEqual) expr);
+            case Expr.NUMBER_LESS: return visitNumberLessExpr((Expr.NumberLess) expr);
+            case Expr.NUMBER_LESS_EQUAL: return visitNumberLessEqualExpr((Expr.NumberLessEqual) expr);
+            default:
+                throw new IllegalStateException("Unknown expression kind " + expr.kind + ".");
+        }
+    }
+
+    @Override
+    void execute(Stmt stmt) {
+        switch (stmt.kind) {
+            case Stmt.BLOCK: visitBlockStmt((Stmt.Block) stmt); break;
+            case Stmt.EXPRESSION: visitExpressionStmt((Stmt.Expression) stmt); break;
+            case Stmt.FUNCTION: visitFunctionStmt((Stmt.Function) stmt); break;
+            case Stmt.IF: visitIfStmt((Stmt.If) stmt); break;
+            case Stmt.PRINT: visitPrintStmt((Stmt.Print) stmt); break;
+            case Stmt.RETURN: visitReturnStmt((Stmt.Return) stmt); break;
+            case Stmt.VAR: visitVarStmt((Stmt.Var) stmt); break;
+            case Stmt.WHILE: visitWhileStmt((Stmt.While) stmt); break;
+            case Stmt.STRING_LOOP: visitStringLoopStmt((Stmt.StringLoop) stmt); break;
+            case Stmt.ERROR: visitErrorStmt((Stmt.Error) stmt); break;
+            case Stmt.COUNTING_LOOP: visitCountingLoopStmt((Stmt.CountingLoop) stmt); break;
+            default:
+                throw new IllegalStateException("Unknown statement kind " + stmt.kind + ".");
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package translation;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Which declaration every name in a document refers to, worked out once
+ * after each change so that editor queries are only a binary search.
+ *
+ * Names resolve the way the interpreter looks them up: through the
+ * enclosing blocks and function, then the globals. A name that nothing
+ * declares before it is used, typically a call to a function defined
+ * further down, goes to the last global of that name.
+ *
+ * Positions are copied out of the tokens, so an index stays valid for the
+ * text it was built from even after the tokens are moved by later edits.
+ */
+class SymbolIndex implements Stmt.Visitor<Void>, Expr.Visitor<Void> {
+  static class Symbol {
+    final int offset;
+    final int length;
+    final String description;
+
+    Symbol(Token name, String description) {
+      this.offset = name.offset;
+      this.length = name.lexeme.length();
+      this.description = description;
+    }
+  }
+
+  // Every declaration and use of a name, sorted by offset once built.
+  private int[] starts = new int[64];
+  private int[] lengths = new int[64];
+  private Symbol[] symbols = new Symbol[64];
+  private int size = 0;
+
+  private final Deque<Map<String, Symbol>> scopes = new ArrayDeque<>();
+  private final Map<String, Symbol> globals = new HashMap<>();
+  private final List<Token> unresolved = new ArrayList<>();
+
+  private SymbolIndex() {
+    scopes.push(globals);
+  }
+
+  // Returns null if superseded() turns true before the index is done.
+  static SymbolIndex build(List<Stmt> statements, BooleanSupplier superseded) {
+    SymbolIndex index = new SymbolIndex();
+    for (Stmt statement : statements) {
+      if (superseded.getAsBoolean()) return null;
+      statement.accept(index);
+    }
+
+    for (Token name : index.unresolved) {
+      Symbol symbol = index.globals.get(name.lexeme);
+      if (symbol != null) index.add(name, symbol);
+    }
+    index.sort();
+    return index;
+  }
+
+  // The symbol whose name covers offset, counting the position just past
+  // the end of a name as part of it.
+  Symbol at(int offset) {
+    int low = 0;
+    int high = size - 1;
+    int found = -1;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      if (starts[middle] <= offset) {
+        found = middle;
+        low = middle + 1;
+      } else {
+        high = middle - 1;
+      }
+    }
+
+    if (found < 0 || offset > starts[found] + lengths[found]) return null;
+    return symbols[found];
+  }
+
+  private void declare(Token name, String description) {
+    Symbol symbol = new Symbol(name, description);
+    scopes.peek().put(name.lexeme, symbol);
+    add(name, symbol);
+  }
+
+  private void reference(Token name) {
+    for (Map<String, Symbol> scope : scopes) {
+      Symbol symbol = scope.get(name.lexeme);
+      if (symbol != null) {
+        add(name, symbol);
+        return;
+      }
+    }
+    unresolved.add(name);
+  }
+
+  private void add(Token name, Symbol symbol) {
+    if (size == starts.length) {
+      starts = Arrays.copyOf(starts, size * 2);
+      lengths = Arrays.copyOf(lengths, size * 2);
+      symbols = Arrays.copyOf(symbols, size * 2);
+    }
+    starts[size] = name.offset;
+    lengths[size] = name.lexeme.length();
+    symbols[size] = symbol;
+    size++;
+  }
+
+  // The walk visits names almost in source order, but not quite: a 'for'
+  // loop's increment comes after its body.
+  private void sort() {
+    long[] keys = new long[size];
+    for (int i = 0; i < size; i++) keys[i] = ((long) starts[i] << 32) | i;
+    Arrays.sort(keys);
+
+    int[] sortedLengths = new int[size];
+    Symbol[] sortedSymbols = new Symbol[size];
+    for (int i = 0; i < size; i++) {
+      int from = (int) keys[i];
+      sortedLengths[i] = lengths[from];
+      sortedSymbols[i] = symbols[from];
+      starts[i] = (int) (keys[i] >>> 32);
+    }
+    lengths = sortedLengths;
+    symbols = sortedSymbols;
+  }
+
+  private void resolve(List<Stmt> statements) {
+    for (Stmt statement : statements) resolve(statement);
+  }
+
+  private void resolve(Stmt stmt) {
+    if (stmt != null) stmt.accept(this);
+  }
+
+  private void resolve(Expr expr) {
+    if (expr != null) expr.accept(this);
+  }
+
+  @Override
+  public Void visitBlockStmt(Stmt.Block stmt) {
+    scopes.push(new HashMap<>());
+    resolve(stmt.statements);
+    scopes.pop();
+    return null;
+  }
+
+  @Override
+  public Void visitExpressionStmt(Stmt.Expression stmt) {
+    resolve(stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitFunctionStmt(Stmt.Function stmt) {
+    StringBuilder signature = new StringBuilder("fun ");
+    signature.append(stmt.name.lexeme).append('(');
+    for (int i = 0; i < stmt.params.size(); i++) {
+      if (i > 0) signature.append(", ");
+      signature.append(stmt.params.get(i).lexeme);
+    }
+    signature.append(')');
+    declare(stmt.name, signature.toString());
+
+    // The body runs in the same environment as the parameters.
+    scopes.push(new HashMap<>());
+    for (Token param : stmt.params) {
+      declare(param, "parameter " + param.lexeme + " of " + stmt.name.lexeme);
+    }
+    resolve(stmt.body);
+    scopes.pop();
+    return null;
+  }
+
+  @Override
+  public Void visitIfStmt(Stmt.If stmt) {
+    resolve(stmt.condition);
+    resolve(stmt.thenBranch);
+    resolve(stmt.elseBranch);
+    return null;
+  }
+
+  @Override
+  public Void visitPrintStmt(Stmt.Print stmt) {
+    resolve(stmt.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitReturnStmt(Stmt.Return stmt) {
+    resolve(stmt.value);
+    return null;
+  }
+
+  @Override
+  public Void visitVarStmt(Stmt.Var stmt) {
+    // The initializer is evaluated before the name exists.
+    resolve(stmt.initializer);
+    declare(stmt.name, "var " + stmt.name.lexeme);
+    return null;
+  }
+
+  @Override
+  public Void visitWhileStmt(Stmt.While stmt) {
+    resolve(stmt.condition);
+    resolve(stmt.body);
+    return null;
+  }
+
+  @Override
+  public Void visitStringLoopStmt(Stmt.StringLoop stmt) {
+    // The loop variable is defined in the enclosing scope, not a new one.
+    resolve(stmt.iterable);
+    declare(stmt.name, "loop variable " + stmt.name.lexeme);
+    resolve(stmt.body);
+    return null;
+  }
+
+  @Override
+  public Void visitErrorStmt(Stmt.Error stmt) {
+    return null;
+  }
+
+  // Only the optimizer makes counting loops, and it never runs on a tree
+  // that gets indexed.
+  @Override
+  public Void visitCountingLoopStmt(Stmt.CountingLoop stmt) {
+    resolve(stmt.limit);
+    resolve(stmt.body);
+    return null;
+  }
+
+  @Override
+  public Void visitAssignExpr(Expr.Assign expr) {
+    resolve(expr.value);
+    reference(expr.name);
+    return null;
+  }
+
+  @Override
+  public Void visitBinaryExpr(Expr.Binary expr) {
+    resolve(expr.left);
+    resolve(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitCallExpr(Expr.Call expr) {
+    resolve(expr.callee);
+    for (Expr argument : expr.arguments) resolve(argument);
+    return null;
+  }
+
+  @Override
+  public Void visitGroupingExpr(Expr.Grouping expr) {
+    resolve(expr.expression);
+    return null;
+  }
+
+  @Override
+  public Void visitLiteralExpr(Expr.Literal expr) {
+    return null;
+  }
+
+  @Override
+  public Void visitLogicalExpr(Expr.Logical expr) {
+    resolve(expr.left);
+    resolve(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitUnaryExpr(Expr.Unary expr) {
+    resolve(expr.right);
+    return null;
+  }
+
+  @Override
+  public Void visitVariableExpr(Expr.Variable expr) {
+    reference(expr.name);
+    return null;
+  }
+
+  @Override
+  public Void visitDynamicExpr(Expr.Dynamic expr) {
+    return null;
+  }
+
+  @Override
+  public Void visitReadExpr(Expr.Read expr) {
+    return null;
+  }
+
+  @Override
+  public Void visitRandExpr(Expr.Rand expr) {
+    return null;
+  }
+
+  @Override
+  public Void visitCounterExpr(Expr.Counter expr) {
+    return null;
+  }
+
+  @Override
+  public Void visitNumericExpr(Expr.Numeric expr) {
+    resolve(expr.left);
+    resolve(expr.right);
+    return null;
+  }
+}
@@ -0,0 +1,15 @@
+package translation;
+
+import java.util.List;
+
+// Thrown by a return whose value is a call to a LoxFunction, so the
+// function that is returning can make the call itself instead of nesting
+// it. Each interpreter reuses one: it is caught as soon as it is thrown.
+class TailCall extends RuntimeException {
+  LoxFunction function;
+  List<Object> arguments;
+
+  TailCall() {
+    super(null, null, false, false);
+  }
+}
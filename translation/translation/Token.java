@@ -4,13 +4,23 @@ class Token {
   final TokenType type;
   final String lexeme;
   final Object literal;
-  final int line; 
+  // Not final: IncrementalParser moves the tokens it keeps when an edit
+  // comes before them.
+  int line;
+  // Where the token starts in the source, or -1 for tokens the parser
+  // makes up.
+  int offset;
 
   Token(TokenType type, String lexeme, Object literal, int line) {
+    this(type, lexeme, literal, line, -1);
+  }
+
+  Token(TokenType type, String lexeme, Object literal, int line, int offset) {
     this.type = type;
     this.lexeme = lexeme;
     this.literal = literal;
     this.line = line;
+    this.offset = offset;
   }
 
   @Override
@@ -0,0 +1,216 @@
+package translation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A pass that rebuilds the tree bottom-up. Each visit method returns the
+ * node to use in place of the one visited; the defaults here rewrite the
+ * children and return the original node when none of them changed, so a
+ * pass only overrides the nodes it cares about and an untouched tree is
+ * never copied.
+ *
+ * Statements may be rewritten to null, which removes them from the list
+ * they are in, or leaves an empty branch where a statement is optional.
+ */
+abstract class TreeRewriter implements Stmt.Visitor<Stmt>, Expr.Visitor<Expr> {
+  Expr rewrite(Expr expr) {
+    return expr == null ? null : expr.accept(this);
+  }
+
+  Stmt rewrite(Stmt stmt) {
+    return stmt == null ? null : stmt.accept(this);
+  }
+
+  // Returns statements itself if nothing in it changed.
+  List<Stmt> rewrite(List<Stmt> statements) {
+    List<Stmt> rewritten = null;
+    for (int i = 0; i < statements.size(); i++) {
+      Stmt statement = statements.get(i);
+      Stmt replacement = rewrite(statement);
+      if (replacement != statement && rewritten == null) {
+        rewritten = new ArrayList<>(statements.subList(0, i));
+      }
+      if (rewritten != null && replacement != null) rewritten.add(replacement);
+    }
+    return rewritten == null ? statements : rewritten;
+  }
+
+  // A branch or loop body that was rewritten away still needs a statement.
+  static Stmt orEmpty(Stmt stmt) {
+    return stmt != null ? stmt : new Stmt.Block(new ArrayList<>());
+  }
+
+  @Override
+  public Stmt visitBlockStmt(Stmt.Block stmt) {
+    List<Stmt> statements = rewrite(stmt.statements);
+    if (statements == stmt.statements) return stmt;
+    return new Stmt.Block(statements);
+  }
+
+  @Override
+  public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+    Expr expression = rewrite(stmt.expression);
+    if (expression == stmt.expression) return stmt;
+    return new Stmt.Expression(expression);
+  }
+
+  @Override
+  public Stmt visitFunctionStmt(Stmt.Function stmt) {
+    List<Stmt> body = rewrite(stmt.body);
+    if (body == stmt.body) return stmt;
+    return new Stmt.Function(stmt.name, stmt.params, body);
+  }
+
+  @Override
+  public Stmt visitIfStmt(Stmt.If stmt) {
+    Expr condition = rewrite(stmt.condition);
+    Stmt thenBranch = rewrite(stmt.thenBranch);
+    Stmt elseBranch = rewrite(stmt.elseBranch);
+    if (condition == stmt.condition && thenBranch == stmt.thenBranch
+        && elseBranch == stmt.elseBranch) {
+      return stmt;
+    }
+    return new Stmt.If(condition, orEmpty(thenBranch), elseBranch);
+  }
+
+  @Override
+  public Stmt visitPrintStmt(Stmt.Print stmt) {
+    Expr expression = rewrite(stmt.expression);
+    if (expression == stmt.expression) return stmt;
+    return new Stmt.Print(expression);
+  }
+
+  @Override
+  public Stmt visitReturnStmt(Stmt.Return stmt) {
+    Expr value = rewrite(stmt.value);
+    if (value == stmt.value) return stmt;
+    return new Stmt.Return(stmt.keyword, value);
+  }
+
+  @Override
+  public Stmt visitVarStmt(Stmt.Var stmt) {
+    Expr initializer = rewrite(stmt.initializer);
+    if (initializer == stmt.initializer) return stmt;
+    return new Stmt.Var(stmt.name, initializer);
+  }
+
+  @Override
+  public Stmt visitWhileStmt(Stmt.While stmt) {
+    Expr condition = rewrite(stmt.condition);
+    Stmt body = rewrite(stmt.body);
+    if (condition == stmt.condition && body == stmt.body) return stmt;
+    return new Stmt.While(condition, orEmpty(body));
+  }
+
+  @Override
+  public Stmt visitStringLoopStmt(Stmt.StringLoop stmt) {
+    Expr iterable = rewrite(stmt.iterable);
+    Stmt body = rewrite(stmt.body);
+    if (iterable == stmt.iterable && body == stmt.body) return stmt;
+    return new Stmt.StringLoop(stmt.name, iterable, orEmpty(body));
+  }
+
+  @Override
+  public Stmt visitErrorStmt(Stmt.Error stmt) {
+    return stmt;
+  }
+
+  @Override
+  public Stmt visitCountingLoopStmt(Stmt.CountingLoop stmt) {
+    Expr limit = rewrite(stmt.limit);
+    Stmt body = rewrite(stmt.body);
+    if (limit == stmt.limit && body == stmt.body) return stmt;
+    return new Stmt.CountingLoop(stmt.name, stmt.start, stmt.operator, limit,
+        stmt.step, orEmpty(body), stmt.slot);
+  }
+
+  @Override
+  public Expr visitAssignExpr(Expr.Assign expr) {
+    Expr value = rewrite(expr.value);
+    if (value == expr.value) return expr;
+    return new Expr.Assign(expr.name, value);
+  }
+
+  @Override
+  public Expr visitBinaryExpr(Expr.Binary expr) {
+    Expr left = rewrite(expr.left);
+    Expr right = rewrite(expr.right);
+    if (left == expr.left && right == expr.right) return expr;
+    return Expr.Binary.of(left, expr.operator, right);
+  }
+
+  @Override
+  public Expr visitCallExpr(Expr.Call expr) {
+    Expr callee = rewrite(expr.callee);
+    boolean changed = callee != expr.callee;
+    List<Expr> arguments = new ArrayList<>(expr.arguments.size());
+    for (Expr argument : expr.arguments) {
+      Expr rewritten = rewrite(argument);
+      changed |= rewritten != argument;
+      arguments.add(rewritten);
+    }
+    if (!changed) return expr;
+    return new Expr.Call(callee, expr.paren, arguments);
+  }
+
+  @Override
+  public Expr visitGroupingExpr(Expr.Grouping expr) {
+    Expr expression = rewrite(expr.expression);
+    if (expression == expr.expression) return expr;
+    return new Expr.Grouping(expression);
+  }
+
+  @Override
+  public Expr visitLiteralExpr(Expr.Literal expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitLogicalExpr(Expr.Logical expr) {
+    Expr left = rewrite(expr.left);
+    Expr right = rewrite(expr.right);
+    if (left == expr.left && right == expr.right) return expr;
+    return Expr.Logical.of(left, expr.operator, right);
+  }
+
+  @Override
+  public Expr visitUnaryExpr(Expr.Unary expr) {
+    Expr right = rewrite(expr.right);
+    if (right == expr.right) return expr;
+    return Expr.Unary.of(expr.operator, right);
+  }
+
+  @Override
+  public Expr visitVariableExpr(Expr.Variable expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitDynamicExpr(Expr.Dynamic expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitReadExpr(Expr.Read expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitRandExpr(Expr.Rand expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitCounterExpr(Expr.Counter expr) {
+    return expr;
+  }
+
+  @Override
+  public Expr visitNumericExpr(Expr.Numeric expr) {
+    Expr left = rewrite(expr.left);
+    Expr right = rewrite(expr.right);
+    if (left == expr.left && right == expr.right) return expr;
+    return Expr.Numeric.of(left, expr.operator, right);
+  }
+}
@@ -0,0 +1,500 @@
+package translation;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Works out which types each variable can hold at each point of a program,
+ * and replaces the arithmetic and comparison operators whose operands can
+ * only be numbers with Numeric ones, which the interpreter runs without
+ * checking them.
+ *
+ * A type is a set of the kinds of value an expression or variable can
+ * have, as a mask of NUMBER, STRING, BOOL, NIL and CALLABLE bits. UNKNOWN
+ * has every bit, and is what anything the pass cannot see through gets.
+ *
+ * The analysis follows the statements in order, with one map from name to
+ * type per scope, the way the interpreter's environments nest. Branches
+ * are analyzed separately and joined, and loops until their variables
+ * stop changing. A function body is analyzed on its own, starting from
+ * UNKNOWN parameters and UNKNOWN for every name from outside, since it
+ * runs later and wherever it is called from.
+ *
+ * A call can run any function, which can assign any variable it can see,
+ * so after a call every variable assigned in some function body is
+ * UNKNOWN again. Seeing a whole program, the pass also works out what
+ * each function whose name is fixed (see Names) returns, so a call of one
+ * has that type.
+ */
+class TypeInference extends TreeRewriter {
+  static final int NUMBER = 1;
+  static final int STRING = 2;
+  static final int BOOL = 4;
+  static final int NIL = 8;
+  static final int CALLABLE = 16;
+  static final int UNKNOWN = -1;
+
+  // What Interpreter defines before the program runs. A call through one
+  // of these names may not reach the program's function of that name.
+  private static final Set<String> NATIVES = Set.of("clock", "floor", "substring");
+
+  private final Names program;
+  // Null unless --optimize-report asked for one.
+  private final PrintStream report;
+  // Everything assigned in some function body, or null if that is not
+  // known and a call could assign anything.
+  private final Names assignedInFunctions;
+  // What each fixed function returns, as far as worked out so far.
+  private final Map<String, Integer> returns = new HashMap<>();
+
+  private State state = State.global();
+  // The type of the expression just rewritten.
+  private int type;
+  // What the return statements of the function being analyzed return,
+  // or null at the top level.
+  private int[] returned = null;
+  // How many loop or function analyses that are thrown away this one is
+  // inside. Checks are only counted as removed outside any of them.
+  private int trial = 0;
+  private int removed = 0;
+
+  TypeInference(Names program, List<Stmt> statements, PrintStream report) {
+    this.program = program;
+    this.report = report;
+    this.assignedInFunctions = statements == null ? null : Names.of(functions(statements));
+  }
+
+  // Rewrites a whole program.
+  List<Stmt> infer(List<Stmt> statements) {
+    List<Stmt> rewritten = rewrite(statements);
+    if (report != null && removed > 0) {
+      report.println("Type inference removed " + removed + " operand checks.");
+    }
+    return rewritten;
+  }
+
+  private static List<Stmt> functions(List<Stmt> statements) {
+    List<Stmt> functions = new ArrayList<>();
+    TreeRewriter finder = new TreeRewriter() {
+      @Override
+      public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        functions.add(stmt);
+        return stmt;
+      }
+    };
+    for (Stmt statement : statements) finder.rewrite(statement);
+    return functions;
+  }
+
+  static int typeOf(Object value) {
+    if (value == null) return NIL;
+    if (value instanceof Double) return NUMBER;
+    if (value instanceof String) return STRING;
+    if (value instanceof Boolean) return BOOL;
+    if (value instanceof LoxCallable) return CALLABLE;
+    return UNKNOWN;
+  }
+
+  // Statements.
+
+  @Override
+  public Stmt visitBlockStmt(Stmt.Block stmt) {
+    state.scopes.add(new HashMap<>());
+    try {
+      return super.visitBlockStmt(stmt);
+    } finally {
+      state.scopes.remove(state.scopes.size() - 1);
+    }
+  }
+
+  @Override
+  public Stmt visitVarStmt(Stmt.Var stmt) {
+    Expr initializer = rewrite(stmt.initializer);
+    state.define(stmt.name.lexeme, initializer == null ? NIL : type);
+    if (initializer == stmt.initializer) return stmt;
+    return new Stmt.Var(stmt.name, initializer);
+  }
+
+  @Override
+  public Stmt visitFunctionStmt(Stmt.Function stmt) {
+    state.define(stmt.name.lexeme, CALLABLE);
+    String name = stmt.name.lexeme;
+    boolean fixed = program != null && program.isFixed(name) && !NATIVES.contains(name);
+
+    State enclosingState = state;
+    int[] enclosingReturned = returned;
+    try {
+      // A recursive call returns what the function does, so that is
+      // worked out by analyzing the body until it stops changing.
+      if (fixed) {
+        returns.put(name, 0);
+        trial++;
+        try {
+          while (true) {
+            analyzeBody(stmt);
+            int returnType = returned[0] | returns.get(name);
+            if (returnType == returns.get(name)) break;
+            returns.put(name, returnType);
+          }
+        } finally {
+          trial--;
+        }
+      }
+      List<Stmt> body = analyzeBody(stmt);
+      if (body == stmt.body) return stmt;
+      return new Stmt.Function(stmt.name, stmt.params, body);
+    } finally {
+      state = enclosingState;
+      returned = enclosingReturned;
+    }
+  }
+
+  // Rewrites a function body from a state of its own, leaving what it
+  // returns in returned.
+  private List<Stmt> analyzeBody(Stmt.Function function) {
+    state = State.global();
+    for (Token param : function.params) state.define(param.lexeme, UNKNOWN);
+    returned = new int[] {0};
+    List<Stmt> body = rewrite(function.body);
+    // Falling off the end returns nil.
+    if (state.reachable) returned[0] |= NIL;
+    return body;
+  }
+
+  @Override
+  public Stmt visitIfStmt(Stmt.If stmt) {
+    Expr condition = rewrite(stmt.condition);
+    State afterCondition = state.copy();
+    Stmt thenBranch = rewrite(stmt.thenBranch);
+    State afterThen = state;
+    state = afterCondition;
+    Stmt elseBranch = rewrite(stmt.elseBranch);
+    state = afterThen.join(state);
+
+    if (condition == stmt.condition && thenBranch == stmt.thenBranch
+        && elseBranch == stmt.elseBranch) {
+      return stmt;
+    }
+    return new Stmt.If(condition, orEmpty(thenBranch), elseBranch);
+  }
+
+  @Override
+  public Stmt visitReturnStmt(Stmt.Return stmt) {
+    Expr value = rewrite(stmt.value);
+    if (returned != null) returned[0] |= value == null ? NIL : type;
+    state.reachable = false;
+    if (value == stmt.value) return stmt;
+    return new Stmt.Return(stmt.keyword, value);
+  }
+
+  @Override
+  public Stmt visitErrorStmt(Stmt.Error stmt) {
+    state.reachable = false;
+    return stmt;
+  }
+
+  @Override
+  public Stmt visitWhileStmt(Stmt.While stmt) {
+    loopEntry(() -> {
+      rewrite(stmt.condition);
+      rewrite(stmt.body);
+    });
+    Expr condition = rewrite(stmt.condition);
+    State exit = state.copy();
+    Stmt body = rewrite(stmt.body);
+    state = exit;
+
+    if (condition == stmt.condition && body == stmt.body) return stmt;
+    return new Stmt.While(condition, orEmpty(body));
+  }
+
+  @Override
+  public Stmt visitCountingLoopStmt(Stmt.CountingLoop stmt) {
+    loopEntry(() -> {
+      rewrite(stmt.limit);
+      rewrite(stmt.body);
+    });
+    Expr limit = rewrite(stmt.limit);
+    State exit = state.copy();
+    Stmt body = rewrite(stmt.body);
+    state = exit;
+
+    if (limit == stmt.limit && body == stmt.body) return stmt;
+    return new Stmt.CountingLoop(stmt.name, stmt.start, stmt.operator, limit,
+        stmt.step, orEmpty(body), stmt.slot);
+  }
+
+  @Override
+  public Stmt visitStringLoopStmt(Stmt.StringLoop stmt) {
+    Expr iterable = rewrite(stmt.iterable);
+    // The variable is defined where the loop is, before each run of the
+    // body.
+    loopEntry(() -> {
+      state.define(stmt.name.lexeme, STRING);
+      rewrite(stmt.body);
+    });
+    State exit = state.copy();
+    state.define(stmt.name.lexeme, STRING);
+    Stmt body = rewrite(stmt.body);
+    state = exit;
+
+    if (iterable == stmt.iterable && body == stmt.body) return stmt;
+    return new Stmt.StringLoop(stmt.name, iterable, orEmpty(body));
+  }
+
+  // Makes the current state the one every run of a loop starts in, and
+  // it leaves in: the state before it joined with the state after any
+  // number of runs. From the second run on, anything still changing
+  // becomes UNKNOWN, so this ends.
+  private void loopEntry(Runnable iteration) {
+    if (!state.reachable) return;
+    trial++;
+    try {
+      State current = state;
+      for (int runs = 0; ; runs++) {
+        state = current.copy();
+        iteration.run();
+        State next = current.join(state);
+        if (next.equals(current)) break;
+        current = runs == 0 ? next : current.widen(next);
+      }
+      state = current;
+    } finally {
+      trial--;
+    }
+  }
+
+  // Expressions.
+
+  @Override
+  public Expr visitAssignExpr(Expr.Assign expr) {
+    Expr rewritten = super.visitAssignExpr(expr);
+    state.assign(expr.name.lexeme, type);
+    return rewritten;
+  }
+
+  @Override
+  public Expr visitBinaryExpr(Expr.Binary expr) {
+    Expr left = rewrite(expr.left);
+    int leftType = type;
+    Expr right = rewrite(expr.right);
+    int rightType = type;
+
+    switch (expr.kind) {
+      case Expr.EQUAL:
+      case Expr.NOT_EQUAL:
+        type = BOOL;
+        return rebuild(expr, left, right);
+      case Expr.ADD:
+        if (leftType == STRING || rightType == STRING) {
+          type = STRING;
+          return rebuild(expr, left, right);
+        }
+        if (leftType != NUMBER && rightType != NUMBER) {
+          type = NUMBER | STRING;
+          return rebuild(expr, left, right);
+        }
+        break;
+    }
+
+    // Either the operands are numbers or the operator fails.
+    boolean comparison = expr.kind == Expr.GREATER || expr.kind == Expr.GREATER_EQUAL
+        || expr.kind == Expr.LESS || expr.kind == Expr.LESS_EQUAL;
+    type = comparison ? BOOL : NUMBER;
+    if (leftType != NUMBER || rightType != NUMBER) return rebuild(expr, left, right);
+
+    if (trial == 0) removed++;
+    return Expr.Numeric.of(left, expr.operator, right);
+  }
+
+  private static Expr rebuild(Expr.Binary expr, Expr left, Expr right) {
+    if (left == expr.left && right == expr.right) return expr;
+    return Expr.Binary.of(left, expr.operator, right);
+  }
+
+  @Override
+  public Expr visitNumericExpr(Expr.Numeric expr) {
+    Expr rewritten = super.visitNumericExpr(expr);
+    type = expr.kind == Expr.NUMBER_GREATER || expr.kind == Expr.NUMBER_GREATER_EQUAL
+        || expr.kind == Expr.NUMBER_LESS || expr.kind == Expr.NUMBER_LESS_EQUAL
+        ? BOOL : NUMBER;
+    return rewritten;
+  }
+
+  @Override
+  public Expr visitCallExpr(Expr.Call expr) {
+    Expr rewritten = super.visitCallExpr(expr);
+    state.called(assignedInFunctions);
+
+    type = UNKNOWN;
+    if (expr.callee instanceof Expr.Variable) {
+      Integer returnType = returns.get(((Expr.Variable) expr.callee).name.lexeme);
+      if (returnType != null) type = returnType;
+    }
+    return rewritten;
+  }
+
+  @Override
+  public Expr visitLiteralExpr(Expr.Literal expr) {
+    type = typeOf(expr.value);
+    return expr;
+  }
+
+  @Override
+  public Expr visitLogicalExpr(Expr.Logical expr) {
+    Expr left = rewrite(expr.left);
+    // What the left operand yields if it is the result: a truthy value for
+    // or, and nil or false for and.
+    int leftType = expr.kind == Expr.OR ? type & ~NIL : type & (NIL | BOOL);
+    State afterLeft = state.copy();
+    Expr right = rewrite(expr.right);
+    type |= leftType;
+    state = afterLeft.join(state);
+
+    if (left == expr.left && right == expr.right) return expr;
+    return Expr.Logical.of(left, expr.operator, right);
+  }
+
+  @Override
+  public Expr visitUnaryExpr(Expr.Unary expr) {
+    Expr rewritten = super.visitUnaryExpr(expr);
+    type = expr.kind == Expr.NOT ? BOOL : NUMBER;
+    return rewritten;
+  }
+
+  @Override
+  public Expr visitVariableExpr(Expr.Variable expr) {
+    type = state.get(expr.name.lexeme);
+    return expr;
+  }
+
+  @Override
+  public Expr visitDynamicExpr(Expr.Dynamic expr) {
+    type = typeOf(expr.value);
+    return expr;
+  }
+
+  @Override
+  public Expr visitReadExpr(Expr.Read expr) {
+    // Nil at the end of the input.
+    type = STRING | NIL;
+    return expr;
+  }
+
+  @Override
+  public Expr visitRandExpr(Expr.Rand expr) {
+    type = NUMBER;
+    return expr;
+  }
+
+  @Override
+  public Expr visitCounterExpr(Expr.Counter expr) {
+    type = NUMBER;
+    return expr;
+  }
+
+  // The types of the variables at one point: one map per scope, innermost
+  // last. A name in none of them is UNKNOWN.
+  private static class State {
+    List<Map<String, Integer>> scopes = new ArrayList<>();
+    // False after a return, where nothing runs until a join.
+    boolean reachable = true;
+
+    // A state with one scope, and nothing known.
+    static State global() {
+      State state = new State();
+      state.scopes.add(new HashMap<>());
+      return state;
+    }
+
+    int get(String name) {
+      for (int i = scopes.size() - 1; i >= 0; i--) {
+        Integer type = scopes.get(i).get(name);
+        if (type != null) return type;
+      }
+      return UNKNOWN;
+    }
+
+    void define(String name, int type) {
+      scopes.get(scopes.size() - 1).put(name, type);
+    }
+
+    void assign(String name, int type) {
+      for (int i = scopes.size() - 1; i >= 0; i--) {
+        if (scopes.get(i).containsKey(name)) {
+          scopes.get(i).put(name, type);
+          return;
+        }
+      }
+    }
+
+    // After a call, which may have assigned anything in assigned, or
+    // anything at all if that is null.
+    void called(Names assigned) {
+      for (Map<String, Integer> scope : scopes) {
+        for (Map.Entry<String, Integer> entry : scope.entrySet()) {
+          if (assigned == null || assigned.isAssigned(entry.getKey())) {
+            entry.setValue(UNKNOWN);
+          }
+        }
+      }
+    }
+
+    State copy() {
+      State copy = new State();
+      for (Map<String, Integer> scope : scopes) copy.scopes.add(new HashMap<>(scope));
+      copy.reachable = reachable;
+      return copy;
+    }
+
+    // The state after either this or other. Both are at the same point,
+    // so they have the same scopes.
+    State join(State other) {
+      if (!other.reachable) return copy();
+      if (!reachable) return other.copy();
+
+      State joined = new State();
+      for (int i = 0; i < Math.min(scopes.size(), other.scopes.size()); i++) {
+        Map<String, Integer> scope = new HashMap<>();
+        Map<String, Integer> otherScope = other.scopes.get(i);
+        for (Map.Entry<String, Integer> entry : scopes.get(i).entrySet()) {
+          Integer otherType = otherScope.get(entry.getKey());
+          scope.put(entry.getKey(), otherType == null ? UNKNOWN : entry.getValue() | otherType);
+        }
+        for (String name : otherScope.keySet()) scope.putIfAbsent(name, UNKNOWN);
+        joined.scopes.add(scope);
+      }
+      return joined;
+    }
+
+    // This with every variable whose type differs in next UNKNOWN.
+    State widen(State next) {
+      State widened = next.copy();
+      if (!reachable) return widened;
+      for (int i = 0; i < Math.min(scopes.size(), widened.scopes.size()); i++) {
+        for (Map.Entry<String, Integer> entry : widened.scopes.get(i).entrySet()) {
+          if (!entry.getValue().equals(scopes.get(i).get(entry.getKey()))) {
+            entry.setValue(UNKNOWN);
+          }
+        }
+      }
+      return widened;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+      if (!(object instanceof State)) return false;
+      State other = (State) object;
+      return reachable == other.reachable && scopes.equals(other.scopes);
+    }
+
+    @Override
+    public int hashCode() {
+      return scopes.hashCode();
+    }
+  }
+}